@@ -0,0 +1,91 @@
+package org.korpora.useful.jmh;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.korpora.useful.Anonymize;
+import org.korpora.useful.LangUtilities;
+import org.korpora.useful.Utilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * language names, address anonymization and Unicode-aware string helpers,
+ * each call on the next of a fixed mix of inputs
+ *
+ * @author bfi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringBenchmark {
+
+    private static final String[] LANGUAGES = {"de", "deu", "ger", "German",
+            "deutsch", "en-GB", "en_US_POSIX", "fra", "Français", "zh-Hant-TW",
+            "nds", "xx", "Klingon", "pt_BR", "es-419", "NL"};
+    private static final String[] ADDRESSES = {"192.168.178.42",
+            "10.0.0.1", "2001:db8:85a3:8d3:1319:8a2e:370:7348",
+            "fe80::1ff:fe23:4567:890a", "::1", "not an address", "127.0.0.1",
+            "2a02:8108:1140:32c0:e1f5:8a3b:9d4c:10"};
+
+    /**
+     * the number of words in the text for the string helpers
+     */
+    @Param({"10", "1000"})
+    public int words;
+
+    private String text;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        text = TeiInputs.text(words);
+    }
+
+    private int next() {
+        next = (next + 1) & 15;
+        return next;
+    }
+
+    @Benchmark
+    public Optional<String> getLanguageLocale() {
+        return LangUtilities.getLanguageLocale(LANGUAGES[next()], true);
+    }
+
+    @Benchmark
+    public boolean isLanguage() {
+        return LangUtilities.isLanguage(LANGUAGES[next()]);
+    }
+
+    @Benchmark
+    public String anonymizeAddress() {
+        return Anonymize.anonymizeAddress(ADDRESSES[next() & 7]);
+    }
+
+    @Benchmark
+    public int countGraphemes() {
+        return Utilities.countGraphemes(text);
+    }
+
+    @Benchmark
+    public String removeSpace() {
+        return Utilities.removeSpace(text);
+    }
+
+    @Benchmark
+    public String spaceBar() {
+        return Utilities.spaceBar(text);
+    }
+}
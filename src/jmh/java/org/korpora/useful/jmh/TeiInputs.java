@@ -0,0 +1,116 @@
+package org.korpora.useful.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * generated, TEI-like transcripts of spoken language as benchmark inputs:
+ * a header with speakers, then utterances of tokenized words with
+ * {@code xml:id}s, pauses, incidents and annotation blocks, as in the ISO
+ * TEI transcription format
+ *
+ * <p>
+ * The same size always gives the same document.
+ * </p>
+ *
+ * @author bfi
+ */
+final class TeiInputs {
+    private TeiInputs() {
+    }
+
+    static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
+
+    private static final String[] WORDS = {"ja", "also", "ich", "würde",
+            "sagen", "dass", "wir", "das", "morgen", "noch", "einmal",
+            "besprechen", "äh", "genau", "Straße", "Öffnungszeiten",
+            "naïve", "café", "👍🏽", "नमस्ते"};
+    private static final String[] SPEAKERS = {"SPK0", "SPK1", "SPK2"};
+
+    /**
+     * a transcript
+     *
+     * @param utterances the number of utterances, with about eight words
+     *                   each
+     * @return the document
+     */
+    static String transcript(int utterances) {
+        Random random = new Random(utterances);
+        StringBuilder sb = new StringBuilder(utterances * 700);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<TEI xmlns=\"").append(TEI_NS).append("\">")
+                .append("<teiHeader><fileDesc><titleStmt><title>")
+                .append("Benchmark ").append(utterances)
+                .append("</title></titleStmt></fileDesc><profileDesc>")
+                .append("<particDesc>");
+        for (String speaker : SPEAKERS) {
+            sb.append("<person xml:id=\"").append(speaker)
+                    .append("\" n=\"").append(speaker).append("\"/>");
+        }
+        sb.append("</particDesc></profileDesc></teiHeader>")
+                .append("<text><timeline unit=\"s\">")
+                .append("<when xml:id=\"T0\"/>");
+        for (int i = 1; i <= utterances; i++) {
+            sb.append("<when xml:id=\"T").append(i)
+                    .append("\" interval=\"").append(i * 2.5)
+                    .append("\" since=\"#T0\"/>");
+        }
+        sb.append("</timeline><body>");
+        int word = 0;
+        for (int i = 0; i < utterances; i++) {
+            String speaker = SPEAKERS[random.nextInt(SPEAKERS.length)];
+            sb.append("\n<annotationBlock who=\"#").append(speaker)
+                    .append("\" start=\"#T").append(i)
+                    .append("\" end=\"#T").append(i + 1).append("\">")
+                    .append("<u xml:id=\"u").append(i).append("\">")
+                    .append("<seg type=\"utterance\" subtype=\"declarative\">");
+            int words = 4 + random.nextInt(9);
+            for (int j = 0; j < words; j++) {
+                if (random.nextInt(12) == 0) {
+                    sb.append("<pause type=\"short\"/> ");
+                }
+                sb.append("<w xml:id=\"w").append(word++).append("\">")
+                        .append(WORDS[random.nextInt(WORDS.length)])
+                        .append("</w> ");
+            }
+            sb.append("<pc>.</pc></seg></u>");
+            if (random.nextInt(5) == 0) {
+                sb.append("<incident><desc>lacht</desc></incident>");
+            }
+            sb.append("<spanGrp type=\"norm\">");
+            sb.append("<span from=\"#w").append(word - words)
+                    .append("\" to=\"#w").append(word - 1).append("\">")
+                    .append("norm</span></spanGrp></annotationBlock>");
+        }
+        sb.append("\n</body></text></TEI>\n");
+        return sb.toString();
+    }
+
+    /**
+     * a transcript, in UTF-8
+     *
+     * @param utterances the number of utterances
+     * @return the bytes
+     */
+    static byte[] transcriptBytes(int utterances) {
+        return transcript(utterances).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * running text with assorted white space, combining characters and
+     * emoji
+     *
+     * @param words the number of words
+     * @return the text
+     */
+    static String text(int words) {
+        Random random = new Random(words);
+        String[] spaces = {" ", "  ", "\t", "\n", " ", "  "};
+        StringBuilder sb = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            sb.append(WORDS[random.nextInt(WORDS.length)])
+                    .append(spaces[random.nextInt(spaces.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,139 @@
+package org.korpora.useful.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.jdom2.JDOMException;
+import org.korpora.useful.XMLUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * parsing, serializing, looking up and converting generated TEI
+ * transcripts of several sizes
+ *
+ * @author bfi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XMLBenchmark {
+
+    /**
+     * the number of utterances: about 7 KB, 700 KB and 7 MB of XML
+     */
+    @Param({"10", "1000", "10000"})
+    public int utterances;
+
+    private byte[] bytes;
+    private Document dom;
+    private org.jdom2.Document jdom;
+    private String[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SAXException, JDOMException,
+            ParserConfigurationException {
+        bytes = TeiInputs.transcriptBytes(utterances);
+        dom = XMLUtilities.parseXML(new ByteArrayInputStream(bytes));
+        jdom = XMLUtilities.parseXMLviaJDOM(new ByteArrayInputStream(bytes));
+        ids = new String[64];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "u" + (i * 7919 % utterances);
+        }
+        // build the ID index once, as the first cached lookup would
+        XMLUtilities.getElementByIDCached(dom, ids[0]);
+    }
+
+    @Benchmark
+    public Document parseXML()
+            throws IOException, SAXException, ParserConfigurationException {
+        return XMLUtilities.parseXML(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public org.jdom2.Document parseXMLviaJDOM()
+            throws IOException, JDOMException {
+        return XMLUtilities.parseXMLviaJDOM(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public String nodeToString() {
+        return XMLUtilities.nodeToString(dom);
+    }
+
+    @Benchmark
+    public void outputXML(Blackhole bh) {
+        XMLUtilities.outputXML(new BlackholeStream(bh), dom, true);
+    }
+
+    @Benchmark
+    public Element getElementByID() {
+        next = (next + 1) & (ids.length - 1);
+        return XMLUtilities.getElementByID(dom, ids[next]);
+    }
+
+    @Benchmark
+    public Element getElementByIDCached() {
+        next = (next + 1) & (ids.length - 1);
+        return XMLUtilities.getElementByIDCached(dom, ids[next]);
+    }
+
+    @Benchmark
+    public String toStringValue() {
+        return XMLUtilities.toStringValue(dom.getDocumentElement());
+    }
+
+    @Benchmark
+    public org.jdom2.Document convertDOMtoJDOM() {
+        return XMLUtilities.convertDOMtoJDOM(dom);
+    }
+
+    @Benchmark
+    public Document convertJDOMToDOM() throws JDOMException {
+        return XMLUtilities.convertJDOMToDOM(jdom);
+    }
+
+    /**
+     * consumes output, so serializing is measured without I/O
+     */
+    private static final class BlackholeStream extends OutputStream {
+        private final Blackhole bh;
+
+        BlackholeStream(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int b) {
+            bh.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bh.consume(b);
+            bh.consume(len);
+        }
+    }
+}
@@ -3,6 +3,7 @@
  */
 open module org.korpora.useful {
     requires java.xml;
+    requires java.management;
     requires org.jdom2;
     requires org.apache.commons.lang3;
     requires com.fasterxml.jackson.core;
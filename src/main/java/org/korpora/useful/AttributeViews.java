@@ -0,0 +1,205 @@
+package org.korpora.useful;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * read-only {@link Map} and {@link List} views of the attributes
+ * of a DOM {@link Element}, backed by its {@link NamedNodeMap}
+ *
+ * <p>
+ * Nothing is copied: lookups go to the {@link NamedNodeMap}, and changes to
+ * the element show through. The views are only as thread-safe as the DOM
+ * itself.
+ * </p>
+ *
+ * @author bfi
+ * @see XMLUtilities#attributeView(Element)
+ */
+final class AttributeViews {
+    private AttributeViews() {
+    }
+
+    /**
+     * attribute values by qualified name
+     *
+     * @param el the element
+     * @return the view
+     */
+    static Map<String, String> byName(Element el) {
+        return new AttributeMap(el.getAttributes(), false);
+    }
+
+    /**
+     * attribute values by {@code {namespace}localName}, or just
+     * {@code localName} for attributes without namespace
+     *
+     * @param el the element, built namespace-aware
+     * @return the view
+     */
+    static Map<String, String> byExpandedName(Element el) {
+        return new AttributeMap(el.getAttributes(), true);
+    }
+
+    /**
+     * the qualified attribute names
+     *
+     * @param el the element
+     * @return the view
+     */
+    static List<String> names(Element el) {
+        return new NameList(el.getAttributes());
+    }
+
+    /**
+     * the name of an attribute as used in a view
+     */
+    private static String key(Node attr, boolean expanded) {
+        if (!expanded) {
+            return attr.getNodeName();
+        }
+        String ns = attr.getNamespaceURI();
+        String local = attr.getLocalName();
+        if (local == null) {
+            local = attr.getNodeName();
+        }
+        return ns == null || ns.isEmpty() ? local : "{" + ns + "}" + local;
+    }
+
+    private static Node lookup(NamedNodeMap attributes, Object key,
+                               boolean expanded) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String name = (String) key;
+        if (!expanded) {
+            return attributes.getNamedItem(name);
+        }
+        if (name.isEmpty() || name.charAt(0) != '{') {
+            Node attr = attributes.getNamedItemNS(null, name);
+            if (attr == null) {
+                // attributes made without namespace support
+                attr = attributes.getNamedItem(name);
+                if (attr != null && attr.getNamespaceURI() != null) {
+                    attr = null;
+                }
+            }
+            return attr;
+        }
+        int close = name.indexOf('}');
+        if (close < 0) {
+            return null;
+        }
+        return attributes.getNamedItemNS(name.substring(1, close),
+                name.substring(close + 1));
+    }
+
+    private static final class AttributeMap
+            extends AbstractMap<String, String> {
+        private final NamedNodeMap attributes;
+        private final boolean expanded;
+        private Set<Entry<String, String>> entries;
+
+        AttributeMap(NamedNodeMap attributes, boolean expanded) {
+            this.attributes = attributes;
+            this.expanded = expanded;
+        }
+
+        @Override
+        public int size() {
+            return attributes.getLength();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return attributes.getLength() == 0;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return lookup(attributes, key, expanded) != null;
+        }
+
+        @Override
+        public String get(Object key) {
+            Node attr = lookup(attributes, key, expanded);
+            return attr == null ? null : attr.getNodeValue();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            if (entries == null) {
+                entries = new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        return new Iterator<>() {
+                            private int index;
+
+                            @Override
+                            public boolean hasNext() {
+                                return index < attributes.getLength();
+                            }
+
+                            @Override
+                            public Entry<String, String> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                Node attr = attributes.item(index++);
+                                return new SimpleImmutableEntry<>(
+                                        key(attr, expanded),
+                                        attr.getNodeValue());
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return attributes.getLength();
+                    }
+                };
+            }
+            return entries;
+        }
+    }
+
+    private static final class NameList extends AbstractList<String>
+            implements RandomAccess {
+        private final NamedNodeMap attributes;
+
+        NameList(NamedNodeMap attributes) {
+            this.attributes = attributes;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= attributes.getLength()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return attributes.item(index).getNodeName();
+        }
+
+        @Override
+        public int size() {
+            return attributes.getLength();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String
+                    && attributes.getNamedItem((String) o) != null;
+        }
+    }
+
+}
@@ -0,0 +1,551 @@
+package org.korpora.useful;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.EntityResolver2;
+
+/**
+ * a resolver for external DTDs, entities and schemas that keeps remote and
+ * catalogued ones in memory
+ *
+ * <p>
+ * A reference is looked up, in this order, among explicit
+ * {@link #map(String, URL) mappings} by public or system ID, then by file
+ * name in the {@link #addDirectory(Path) directories} and
+ * {@link #addClasspath(String) class path folders} of the catalog, and
+ * finally at its (absolute) system ID itself. What is found in the catalog
+ * or over the network is cached by its system ID, so later parses need no
+ * I/O for it. Plain local files are left to the parser, unless
+ * {@link #cacheFiles(boolean)} is set. In {@link #isOffline() offline}
+ * mode, anything that would have to be fetched over the network is an
+ * error instead.
+ * </p>
+ * <p>
+ * Cached files are checked against their size and modification time on
+ * every use, so a changed DTD is read again. The cache is bounded by the
+ * size of its content and evicts the least recently used resources first.
+ * Only the bytes are cached: the parser still parses a DTD every time.
+ * </p>
+ * <p>
+ * {@link XMLProcessors#getDefault()} and the JDOM and StAX parsers of this
+ * package use {@link #getDefault()}, which is offline if the system
+ * property {@value #OFFLINE_PROPERTY} is {@code true}.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CachingResolver
+        implements EntityResolver2, LSResourceResolver {
+
+    /**
+     * system property to make {@link #getDefault()} offline
+     */
+    public static final String OFFLINE_PROPERTY = "org.korpora.useful.offline";
+
+    /**
+     * default bound of the cached content, in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    private static final CachingResolver DEFAULT = new CachingResolver(
+            Boolean.getBoolean(OFFLINE_PROPERTY));
+
+    private final boolean offline;
+    private final Map<String, URL> mappings = new ConcurrentHashMap<>();
+    private final List<Path> directories = new CopyOnWriteArrayList<>();
+    private final List<String> classpathFolders = new CopyOnWriteArrayList<>();
+    private final long maxBytes;
+    private volatile boolean cacheFiles;
+
+    /**
+     * the cached resources, least recently used first, with their size in
+     * {@link #bytes}; guarded by the map
+     */
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(
+            16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * make a resolver with an empty catalog and a cache of
+     * {@value #DEFAULT_MAX_BYTES} bytes
+     *
+     * @param offline whether to refuse network access
+     */
+    public CachingResolver(boolean offline) {
+        this(offline, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * make a resolver with an empty catalog
+     *
+     * @param offline  whether to refuse network access
+     * @param maxBytes the bound of the cached content
+     */
+    public CachingResolver(boolean offline, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.offline = offline;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * the resolver used by {@link XMLProcessors} and the parsers in this
+     * package
+     *
+     * @return the resolver
+     */
+    public static CachingResolver getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * whether network access is refused
+     *
+     * @return whether
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * map a public or system ID to a location
+     *
+     * @param id       the public or system ID
+     * @param location where it is
+     * @return this resolver
+     */
+    public CachingResolver map(String id, URL location) {
+        mappings.put(id, location);
+        return this;
+    }
+
+    /**
+     * look up referenced files by name in a directory
+     *
+     * @param directory the directory
+     * @return this resolver
+     */
+    public CachingResolver addDirectory(Path directory) {
+        directories.add(directory);
+        return this;
+    }
+
+    /**
+     * look up referenced files by name in a class path folder
+     *
+     * @param folder the folder, e.g. {@code "dtd"}
+     * @return this resolver
+     */
+    public CachingResolver addClasspath(String folder) {
+        String f = folder.startsWith("/") ? folder.substring(1) : folder;
+        classpathFolders.add(f.isEmpty() || f.endsWith("/") ? f : f + "/");
+        return this;
+    }
+
+    /**
+     * whether to cache local files that are not in the catalog, too; they
+     * are checked for changes like catalogued ones
+     *
+     * @param cacheFiles whether
+     * @return this resolver
+     */
+    public CachingResolver cacheFiles(boolean cacheFiles) {
+        this.cacheFiles = cacheFiles;
+        return this;
+    }
+
+    /**
+     * forget everything that was read
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * the number of cached resources
+     *
+     * @return the number
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId)
+            throws SAXException, IOException {
+        return resolveEntity(null, publicId, null, systemId);
+    }
+
+    @Override
+    public InputSource getExternalSubset(String name, String baseURI) {
+        return null;
+    }
+
+    @Override
+    public InputSource resolveEntity(String name, String publicId,
+                                     String baseURI, String systemId)
+            throws SAXException, IOException {
+        String absolute = absolute(systemId, baseURI);
+        if (absolute == null && publicId == null) {
+            return null;
+        }
+        byte[] bytes = bytes(publicId, absolute);
+        if (bytes == null) {
+            return null;
+        }
+        InputSource source = new InputSource(new ByteArrayInputStream(bytes));
+        source.setPublicId(publicId);
+        source.setSystemId(absolute);
+        return source;
+    }
+
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI,
+                                   String publicId, String systemId,
+                                   String baseURI) {
+        String absolute = absolute(systemId, baseURI);
+        if (absolute == null && publicId == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = bytes(publicId, absolute);
+            return bytes == null ? null
+                    : new Input(publicId, absolute, bytes);
+        } catch (IOException e) {
+            // LSResourceResolver cannot throw checked exceptions
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * this resolver for StAX parsers, whose {@link XMLResolver} has the
+     * same signature as {@link #resolveEntity(String, String, String,
+     * String)}
+     *
+     * @return the StAX resolver
+     */
+    public XMLResolver asXMLResolver() {
+        return (publicID, systemID, baseURI, namespace) -> {
+            String absolute = absolute(systemID, baseURI);
+            if (absolute == null && publicID == null) {
+                return null;
+            }
+            try {
+                byte[] bytes = bytes(publicID, absolute);
+                return bytes == null ? null : new ByteArrayInputStream(bytes);
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        };
+    }
+
+    /**
+     * the content of a resource, from the cache if it is there and has not
+     * changed, or {@code null} for a local file left to the parser
+     */
+    private byte[] bytes(String publicId, String systemId) throws IOException {
+        String key = systemId != null ? systemId : publicId;
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null && entry.isFresh()) {
+            Instrumentation.cache(Metrics.Cache.ENTITIES, true);
+            return entry.bytes;
+        }
+        URL url = locate(publicId, systemId);
+        if (url == null) {
+            return null;
+        }
+        Instrumentation.cache(Metrics.Cache.ENTITIES, false);
+        Path file = null;
+        long size = 0;
+        long modified = 0;
+        if ("file".equals(url.getProtocol())) {
+            try {
+                file = Paths.get(url.toURI());
+                BasicFileAttributes attributes = Files.readAttributes(file,
+                        BasicFileAttributes.class);
+                size = attributes.size();
+                modified = attributes.lastModifiedTime().toMillis();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                file = null;
+            }
+        }
+        byte[] content;
+        try (InputStream in = url.openStream()) {
+            content = in.readAllBytes();
+        }
+        if (file != null || !"file".equals(url.getProtocol())) {
+            put(key, new Entry(content, file, size, modified));
+        }
+        return content;
+    }
+
+    private void put(String key, Entry entry) {
+        synchronized (cache) {
+            Entry old = entry.bytes.length > maxBytes ? cache.remove(key)
+                    : cache.put(key, entry);
+            if (old != null) {
+                bytes -= old.bytes.length;
+            }
+            if (entry.bytes.length > maxBytes) {
+                return;
+            }
+            bytes += entry.bytes.length;
+            Iterator<Entry> eldest = cache.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                if (evicted == entry) {
+                    break;
+                }
+                eldest.remove();
+                bytes -= evicted.bytes.length;
+            }
+        }
+    }
+
+    /**
+     * where a resource is, or {@code null} for a local file that is not to
+     * be cached
+     */
+    private URL locate(String publicId, String systemId) throws IOException {
+        URL url = publicId == null ? null : mappings.get(publicId);
+        if (url == null && systemId != null) {
+            url = mappings.get(systemId);
+        }
+        if (url == null && systemId != null) {
+            url = inCatalog(fileName(systemId));
+        }
+        if (url != null) {
+            return url;
+        }
+        if (systemId == null) {
+            throw new IOException("cannot resolve public ID " + publicId);
+        }
+        url = new URL(systemId);
+        String protocol = url.getProtocol();
+        if ("file".equals(protocol) && !cacheFiles) {
+            return null;
+        }
+        if (offline && !"file".equals(protocol) && !"jar".equals(protocol)) {
+            throw new IOException("offline, will not fetch " + systemId);
+        }
+        return url;
+    }
+
+    private URL inCatalog(String fileName) throws IOException {
+        if (fileName.isEmpty()) {
+            return null;
+        }
+        for (Path directory : directories) {
+            Path file = directory.resolve(fileName);
+            if (Files.isRegularFile(file)) {
+                return file.toUri().toURL();
+            }
+        }
+        ClassLoader loader = CachingResolver.class.getClassLoader();
+        for (String folder : classpathFolders) {
+            URL url = loader.getResource(folder + fileName);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    private static String fileName(String systemId) {
+        int end = systemId.length();
+        for (int i = 0; i < end; i++) {
+            char c = systemId.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+            }
+        }
+        return systemId.substring(systemId.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    /**
+     * a system ID resolved against a base URI, if possible, and otherwise
+     * against the working directory, as the parsers themselves do
+     */
+    private static String absolute(String systemId, String baseURI) {
+        if (systemId == null) {
+            return null;
+        }
+        try {
+            URI uri = new URI(systemId);
+            if (!uri.isAbsolute() && baseURI != null) {
+                uri = new URI(baseURI).resolve(uri);
+            }
+            if (!uri.isAbsolute()) {
+                uri = Paths.get(System.getProperty("user.dir")).toUri()
+                        .resolve(uri);
+            }
+            return uri.toString();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return systemId;
+        }
+    }
+
+    /**
+     * cached content, with the size and modification time of its file, if
+     * it is one
+     */
+    private static final class Entry {
+        private final byte[] bytes;
+        private final Path file;
+        private final long size;
+        private final long modified;
+
+        Entry(byte[] bytes, Path file, long size, long modified) {
+            this.bytes = bytes;
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean isFresh() {
+            if (file == null) {
+                return true;
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file,
+                        BasicFileAttributes.class);
+                return attributes.size() == size
+                        && attributes.lastModifiedTime().toMillis() == modified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * a resolved resource for {@link LSResourceResolver}
+     */
+    private static final class Input implements LSInput {
+        private String publicId;
+        private String systemId;
+        private String baseURI;
+        private InputStream byteStream;
+        private String encoding;
+
+        Input(String publicId, String systemId, byte[] bytes) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            byteStream = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public Reader getCharacterStream() {
+            return null;
+        }
+
+        @Override
+        public void setCharacterStream(Reader characterStream) {
+            // bytes only
+        }
+
+        @Override
+        public InputStream getByteStream() {
+            return byteStream;
+        }
+
+        @Override
+        public void setByteStream(InputStream byteStream) {
+            this.byteStream = byteStream;
+        }
+
+        @Override
+        public String getStringData() {
+            return null;
+        }
+
+        @Override
+        public void setStringData(String stringData) {
+            // bytes only
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemId;
+        }
+
+        @Override
+        public void setSystemId(String systemId) {
+            this.systemId = systemId;
+        }
+
+        @Override
+        public String getPublicId() {
+            return publicId;
+        }
+
+        @Override
+        public void setPublicId(String publicId) {
+            this.publicId = publicId;
+        }
+
+        @Override
+        public String getBaseURI() {
+            return baseURI;
+        }
+
+        @Override
+        public void setBaseURI(String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public String getEncoding() {
+            return encoding;
+        }
+
+        @Override
+        public void setEncoding(String encoding) {
+            this.encoding = encoding;
+        }
+
+        @Override
+        public boolean getCertifiedText() {
+            return false;
+        }
+
+        @Override
+        public void setCertifiedText(boolean certifiedText) {
+            // not supported
+        }
+    }
+
+}
@@ -0,0 +1,1076 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.jdom2.input.sax.SAXHandler;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * a compact, immutable XML document for read-mostly data that is shared
+ * between threads
+ *
+ * <p>
+ * Nodes are numbered in document order, starting with the document node
+ * {@code 0}, and are referred to by these numbers. Kind, parent, end of
+ * subtree, name and text of each node are kept in primitive arrays; names
+ * are interned once per document, and all text is kept in a single
+ * {@code char[]}. This takes a fraction of the memory of a DOM, and since
+ * nothing ever changes after parsing, a {@code CompactDocument} can be
+ * read by any number of threads at once.
+ * </p>
+ * <p>
+ * Node kinds are those of {@link Node}: {@link Node#DOCUMENT_NODE},
+ * {@link Node#ELEMENT_NODE}, {@link Node#TEXT_NODE},
+ * {@link Node#COMMENT_NODE} and {@link Node#PROCESSING_INSTRUCTION_NODE}.
+ * Namespace declarations are kept as attributes, as in a DOM. CDATA
+ * sections become text, and the DOCTYPE is dropped. IDs are looked up
+ * like with {@link IdIndex}.
+ * </p>
+ *
+ * @author bfi
+ * @see XMLModel#COMPACT
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CompactDocument {
+
+    /**
+     * no node
+     */
+    public static final int NONE = -1;
+
+    /**
+     * the document node
+     */
+    public static final int DOCUMENT = 0;
+
+    private static final int AMBIGUOUS = -2;
+
+    private final byte[] kinds;
+    private final int[] parents;
+    /**
+     * first node after the subtree
+     */
+    private final int[] ends;
+    /**
+     * element or PI target name
+     */
+    private final int[] names;
+    private final int[] textStarts;
+    private final int[] textLengths;
+    /**
+     * attributes of node {@code i} are those from {@code firstAttributes[i]}
+     * to {@code firstAttributes[i + 1]}
+     */
+    private final int[] firstAttributes;
+    private final int[] attributeNames;
+    private final int[] valueStarts;
+    private final int[] valueLengths;
+    private final String[] namespaces;
+    private final String[] localNames;
+    private final String[] qualifiedNames;
+    private final String[] prefixes;
+    private final char[] chars;
+
+    /**
+     * open addressing table of ID attributes: attribute number + 1, or 0
+     * for a free slot; the IDs are compared in place in {@link #chars}
+     */
+    private final int[] idSlots;
+    /**
+     * the element for each slot, or {@link #AMBIGUOUS}
+     */
+    private final int[] idElements;
+    /**
+     * whether the slot is for an {@code xml:id}
+     */
+    private final boolean[] idIsXml;
+
+    private CompactDocument(Builder builder) {
+        int n = builder.count;
+        kinds = Arrays.copyOf(builder.kinds, n);
+        parents = Arrays.copyOf(builder.parents, n);
+        ends = Arrays.copyOf(builder.ends, n);
+        names = Arrays.copyOf(builder.names, n);
+        textStarts = Arrays.copyOf(builder.textStarts, n);
+        textLengths = Arrays.copyOf(builder.textLengths, n);
+        firstAttributes = Arrays.copyOf(builder.firstAttributes, n + 1);
+        firstAttributes[n] = builder.attributeCount;
+        attributeNames = Arrays.copyOf(builder.attributeNames,
+                builder.attributeCount);
+        valueStarts = Arrays.copyOf(builder.valueStarts,
+                builder.attributeCount);
+        valueLengths = Arrays.copyOf(builder.valueLengths,
+                builder.attributeCount);
+        namespaces = builder.namespaces.toArray(new String[0]);
+        localNames = builder.localNames.toArray(new String[0]);
+        qualifiedNames = builder.qualifiedNames.toArray(new String[0]);
+        prefixes = new String[qualifiedNames.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            int colon = qualifiedNames[i].indexOf(':');
+            prefixes[i] = colon < 0 ? "" : qualifiedNames[i].substring(0, colon);
+        }
+        chars = Arrays.copyOf(builder.chars, builder.charCount);
+        int ids = 0;
+        for (int a = 0; a < attributeNames.length; a++) {
+            if (isId(a)) {
+                ids++;
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, 2 * ids)) << 1;
+        idSlots = new int[capacity];
+        idElements = new int[capacity];
+        idIsXml = new boolean[capacity];
+        indexIds();
+    }
+
+    /**
+     * parse a document
+     *
+     * @param input the document
+     * @return the document
+     * @throws SAXException if the document is not well-formed
+     * @throws IOException  if reading fails
+     */
+    public static CompactDocument parse(InputSource input)
+            throws SAXException, IOException {
+        Builder builder = new Builder();
+        try {
+            XMLProcessors.getDefault().parse(input, builder);
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        return new CompactDocument(builder);
+    }
+
+    /**
+     * parse a file, read as in {@link XMLUtilities#parseXML(Path)}
+     *
+     * @param input the file
+     * @return the document
+     * @throws SAXException if the document is not well-formed
+     * @throws IOException  if reading fails
+     */
+    public static CompactDocument parse(Path input)
+            throws SAXException, IOException {
+        try (MappedInputStream in = XMLUtilities.openXML(input)) {
+            return parse(XMLUtilities.inputSource(input, in));
+        }
+    }
+
+    /**
+     * make a compact copy of a DOM {@link Document}
+     *
+     * @param doc the document
+     * @return the copy
+     */
+    public static CompactDocument of(Document doc) {
+        Builder builder = new Builder();
+        try {
+            DOMSAXEmitter.emit(doc, builder, builder);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        }
+        return new CompactDocument(builder);
+    }
+
+    /**
+     * make a compact copy of a JDOM {@link org.jdom2.Document}
+     *
+     * @param doc the document
+     * @return the copy
+     */
+    public static CompactDocument of(org.jdom2.Document doc) {
+        Builder builder = new Builder();
+        try {
+            JDOMSAXEmitter.emit(doc, builder, builder);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        }
+        return new CompactDocument(builder);
+    }
+
+    /**
+     * the number of nodes, including the document node
+     *
+     * @return the number
+     */
+    public int size() {
+        return kinds.length;
+    }
+
+    /**
+     * rough number of bytes used by this document on the heap
+     *
+     * @return the estimate
+     */
+    public long estimatedSize() {
+        long size = 25L * kinds.length + 12L * attributeNames.length
+                + 2L * chars.length + 9L * idSlots.length;
+        for (int i = 0; i < qualifiedNames.length; i++) {
+            size += 48 + 2L * qualifiedNames[i].length();
+        }
+        return size;
+    }
+
+    /**
+     * the document element
+     *
+     * @return the node, or {@link #NONE}
+     */
+    public int documentElement() {
+        for (int c = firstChild(DOCUMENT); c != NONE; c = nextSibling(c)) {
+            if (kinds[c] == Node.ELEMENT_NODE) {
+                return c;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * the kind of a node, as in {@link Node#getNodeType()}
+     *
+     * @param node the node
+     * @return the kind
+     */
+    public short kind(int node) {
+        return kinds[node];
+    }
+
+    /**
+     * whether a node is an element
+     *
+     * @param node the node
+     * @return whether
+     */
+    public boolean isElement(int node) {
+        return kinds[node] == Node.ELEMENT_NODE;
+    }
+
+    /**
+     * the parent of a node
+     *
+     * @param node the node
+     * @return the parent, or {@link #NONE} for the document node
+     */
+    public int parent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * the first child of a node
+     *
+     * @param node the node
+     * @return the child, or {@link #NONE}
+     */
+    public int firstChild(int node) {
+        int child = node + 1;
+        return child < ends[node] ? child : NONE;
+    }
+
+    /**
+     * the next sibling of a node
+     *
+     * @param node the node
+     * @return the sibling, or {@link #NONE}
+     */
+    public int nextSibling(int node) {
+        int parent = parents[node];
+        if (parent == NONE) {
+            return NONE;
+        }
+        int next = ends[node];
+        return next < ends[parent] ? next : NONE;
+    }
+
+    /**
+     * the first node after the subtree of a node, so that its descendants
+     * are the nodes from {@code node + 1} to {@code subtreeEnd(node) - 1}
+     *
+     * @param node the node
+     * @return the end
+     */
+    public int subtreeEnd(int node) {
+        return ends[node];
+    }
+
+    /**
+     * the child nodes of a node
+     *
+     * @param node the node
+     * @return the children
+     */
+    public IntStream children(int node) {
+        return IntStream.iterate(firstChild(node), c -> c != NONE,
+                this::nextSibling);
+    }
+
+    /**
+     * the matching child elements of a node
+     *
+     * @param node      the node
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the elements
+     */
+    public IntStream children(int node, String namespace, String localName) {
+        return children(node).filter(c -> matches(c, namespace, localName));
+    }
+
+    /**
+     * the descendant elements of a node, in document order
+     *
+     * @param node the node
+     * @return the elements
+     */
+    public IntStream descendants(int node) {
+        return IntStream.range(node + 1, ends[node])
+                .filter(d -> kinds[d] == Node.ELEMENT_NODE);
+    }
+
+    /**
+     * the matching descendant elements of a node, in document order
+     *
+     * @param node      the node
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the elements
+     */
+    public IntStream descendants(int node, String namespace,
+                                 String localName) {
+        return IntStream.range(node + 1, ends[node])
+                .filter(d -> matches(d, namespace, localName));
+    }
+
+    /**
+     * the first matching descendant element of a node
+     *
+     * @param node      the node
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the element, or {@link #NONE}
+     */
+    public int firstDescendant(int node, String namespace, String localName) {
+        for (int d = node + 1; d < ends[node]; d++) {
+            if (matches(d, namespace, localName)) {
+                return d;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * whether a node is an element with the given name
+     *
+     * @param node      the node
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return whether
+     */
+    public boolean matches(int node, String namespace, String localName) {
+        if (kinds[node] != Node.ELEMENT_NODE) {
+            return false;
+        }
+        int name = names[node];
+        return ("*".equals(localName) || localName.equals(localNames[name]))
+                && ("*".equals(namespace)
+                || namespaces[name].equals(namespace == null ? "" : namespace));
+    }
+
+    /**
+     * the namespace URI of an element
+     *
+     * @param node the element
+     * @return the URI, {@code ""} for none
+     */
+    public String namespaceURI(int node) {
+        return isElement(node) ? namespaces[names[node]] : null;
+    }
+
+    /**
+     * the local name of an element
+     *
+     * @param node the element
+     * @return the name
+     */
+    public String localName(int node) {
+        return isElement(node) ? localNames[names[node]] : null;
+    }
+
+    /**
+     * the qualified name of an element, or the target of a processing
+     * instruction
+     *
+     * @param node the node
+     * @return the name, or {@code null} for other nodes
+     */
+    public String qualifiedName(int node) {
+        return names[node] == NONE ? null : qualifiedNames[names[node]];
+    }
+
+    /**
+     * the text of a text node or comment, or the data of a processing
+     * instruction
+     *
+     * @param node the node
+     * @return the text, or {@code null} for other nodes
+     */
+    public String text(int node) {
+        short kind = kinds[node];
+        return kind == Node.ELEMENT_NODE || kind == Node.DOCUMENT_NODE ? null
+                : new String(chars, textStarts[node], textLengths[node]);
+    }
+
+    /**
+     * the string value of a node in the sense of XPath, i.e. the text of
+     * all descendant text nodes; see
+     * {@link XMLUtilities#toStringValue(Node)}
+     *
+     * @param node the node
+     * @return the string value
+     */
+    public String stringValue(int node) {
+        short kind = kinds[node];
+        if (kind != Node.ELEMENT_NODE && kind != Node.DOCUMENT_NODE) {
+            return text(node);
+        }
+        int first = NONE;
+        int length = 0;
+        for (int d = node + 1; d < ends[node]; d++) {
+            if (kinds[d] == Node.TEXT_NODE) {
+                if (first == NONE) {
+                    first = d;
+                }
+                length += textLengths[d];
+            }
+        }
+        if (first == NONE) {
+            return "";
+        }
+        if (length == textLengths[first]) {
+            return text(first);
+        }
+        StringBuilder value = new StringBuilder(length);
+        for (int d = first; d < ends[node]; d++) {
+            if (kinds[d] == Node.TEXT_NODE) {
+                value.append(chars, textStarts[d], textLengths[d]);
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * the number of attributes of an element, including namespace
+     * declarations
+     *
+     * @param node the element
+     * @return the number
+     */
+    public int attributeCount(int node) {
+        return firstAttributes[node + 1] - firstAttributes[node];
+    }
+
+    /**
+     * the qualified name of an attribute
+     *
+     * @param node  the element
+     * @param index the index of the attribute
+     * @return the name
+     */
+    public String attributeName(int node, int index) {
+        return qualifiedNames[attributeNames[attribute(node, index)]];
+    }
+
+    /**
+     * the namespace URI of an attribute
+     *
+     * @param node  the element
+     * @param index the index of the attribute
+     * @return the URI, {@code ""} for none
+     */
+    public String attributeNamespaceURI(int node, int index) {
+        return namespaces[attributeNames[attribute(node, index)]];
+    }
+
+    /**
+     * the local name of an attribute
+     *
+     * @param node  the element
+     * @param index the index of the attribute
+     * @return the name
+     */
+    public String attributeLocalName(int node, int index) {
+        return localNames[attributeNames[attribute(node, index)]];
+    }
+
+    /**
+     * the value of an attribute
+     *
+     * @param node  the element
+     * @param index the index of the attribute
+     * @return the value
+     */
+    public String attributeValue(int node, int index) {
+        return value(attribute(node, index));
+    }
+
+    /**
+     * the value of an attribute, by qualified name
+     *
+     * @param node          the element
+     * @param qualifiedName the name of the attribute
+     * @return the value, or {@code null} if there is no such attribute
+     */
+    public String attribute(int node, String qualifiedName) {
+        for (int a = firstAttributes[node]; a < firstAttributes[node + 1];
+             a++) {
+            if (qualifiedNames[attributeNames[a]].equals(qualifiedName)) {
+                return value(a);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the value of an attribute, by namespace and local name
+     *
+     * @param node      the element
+     * @param namespace the namespace URI, {@code null} for none
+     * @param localName the local name
+     * @return the value, or {@code null} if there is no such attribute
+     */
+    public String attribute(int node, String namespace, String localName) {
+        String ns = namespace == null ? "" : namespace;
+        for (int a = firstAttributes[node]; a < firstAttributes[node + 1];
+             a++) {
+            int name = attributeNames[a];
+            if (localNames[name].equals(localName)
+                    && namespaces[name].equals(ns)) {
+                return value(a);
+            }
+        }
+        return null;
+    }
+
+    private int attribute(int node, int index) {
+        int a = firstAttributes[node] + index;
+        if (index < 0 || a >= firstAttributes[node + 1]) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return a;
+    }
+
+    private String value(int attribute) {
+        return new String(chars, valueStarts[attribute],
+                valueLengths[attribute]);
+    }
+
+    /**
+     * get the element with an ID; {@code xml:id} takes precedence, as in
+     * {@link IdIndex#get(String)}
+     *
+     * @param id the ID
+     * @return the element, or {@link #NONE} if there is none
+     * @throws RuntimeException if the ID is ambiguous
+     */
+    public int getElementById(String id) {
+        int slot = findId(id);
+        if (slot == NONE) {
+            return NONE;
+        }
+        if (idElements[slot] == AMBIGUOUS) {
+            throw new RuntimeException("ambiguous ID " + id);
+        }
+        return idElements[slot];
+    }
+
+    /**
+     * whether an ID occurs in the document
+     *
+     * @param id the ID
+     * @return whether
+     */
+    public boolean containsId(String id) {
+        return findId(id) != NONE;
+    }
+
+    private boolean isId(int attribute) {
+        int name = attributeNames[attribute];
+        return "id".equals(localNames[name])
+                && !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaces[name]);
+    }
+
+    private void indexIds() {
+        int mask = idSlots.length - 1;
+        for (int node = 0; node < kinds.length; node++) {
+            for (int a = firstAttributes[node]; a < firstAttributes[node + 1];
+                 a++) {
+                if (!isId(a)) {
+                    continue;
+                }
+                boolean xml = XMLConstants.XML_NS_URI.equals(
+                        namespaces[attributeNames[a]]);
+                int slot = hash(chars, valueStarts[a], valueLengths[a]) & mask;
+                while (idSlots[slot] != 0
+                        && !sameValue(idSlots[slot] - 1, a)) {
+                    slot = (slot + 1) & mask;
+                }
+                if (idSlots[slot] == 0 || xml && !idIsXml[slot]) {
+                    // new, or an xml:id taking precedence over other IDs
+                    idSlots[slot] = a + 1;
+                    idElements[slot] = node;
+                    idIsXml[slot] = xml;
+                } else if (xml == idIsXml[slot] && idElements[slot] != node) {
+                    // an element with the same value in two ID attributes
+                    // counts once
+                    idElements[slot] = AMBIGUOUS;
+                }
+            }
+        }
+    }
+
+    private int findId(String id) {
+        int mask = idSlots.length - 1;
+        int slot = hash(id) & mask;
+        while (idSlots[slot] != 0) {
+            int a = idSlots[slot] - 1;
+            if (valueLengths[a] == id.length() && regionEquals(id, a)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private boolean regionEquals(String id, int attribute) {
+        int start = valueStarts[attribute];
+        for (int i = 0; i < id.length(); i++) {
+            if (chars[start + i] != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameValue(int a, int b) {
+        return Arrays.equals(chars, valueStarts[a],
+                valueStarts[a] + valueLengths[a], chars, valueStarts[b],
+                valueStarts[b] + valueLengths[b]);
+    }
+
+    /**
+     * the same as {@link String#hashCode()}, spread
+     */
+    private static int hash(char[] chars, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(String s) {
+        int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * make a DOM copy of the document
+     *
+     * @return the DOM document
+     */
+    public Document toDOM() {
+        Document doc;
+        try {
+            doc = XMLProcessors.getDefault().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        DOMSAXBuilder builder = new DOMSAXBuilder(doc);
+        emit(DOCUMENT, builder, builder);
+        return doc;
+    }
+
+    /**
+     * make a DOM copy of an element, owned by a given {@link Document} but
+     * not yet inserted into it
+     *
+     * @param node  the element
+     * @param owner the owner of the copy
+     * @return the DOM element
+     */
+    public Element toDOM(int node, Document owner) {
+        DocumentFragment fragment = owner.createDocumentFragment();
+        DOMSAXBuilder builder = new DOMSAXBuilder(fragment);
+        emit(node, builder, builder);
+        return (Element) fragment.removeChild(fragment.getFirstChild());
+    }
+
+    /**
+     * make a JDOM copy of the document
+     *
+     * @return the JDOM document
+     */
+    public org.jdom2.Document toJDOM() {
+        SAXHandler handler = new SAXHandler();
+        emit(DOCUMENT, handler, handler);
+        return handler.getDocument();
+    }
+
+    /**
+     * make a detached JDOM copy of an element
+     *
+     * @param node the element
+     * @return the JDOM element
+     */
+    public org.jdom2.Element toJDOM(int node) {
+        SAXHandler handler = new SAXHandler();
+        emit(node, handler, handler);
+        return handler.getDocument().detachRootElement();
+    }
+
+    /**
+     * report the document or an element as SAX events
+     *
+     * @param node    the document node or an element
+     * @param content where the events go
+     * @param lexical where comments go, or {@code null}
+     */
+    public void emit(int node, ContentHandler content, LexicalHandler lexical) {
+        if (kinds[node] != Node.DOCUMENT_NODE
+                && kinds[node] != Node.ELEMENT_NODE) {
+            throw new IllegalArgumentException("not an element: " + node);
+        }
+        try {
+            new Emitter(content, lexical).emitTop(node);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final class Emitter extends SAXEmitter {
+
+        Emitter(ContentHandler content, LexicalHandler lexical) {
+            super(content, lexical);
+        }
+
+        void emitTop(int node) throws SAXException {
+            content.startDocument();
+            if (kinds[node] == Node.DOCUMENT_NODE) {
+                for (int c = node + 1; c < ends[node]; c = ends[c]) {
+                    emitNode(c);
+                }
+            } else {
+                emitNode(node);
+            }
+            content.endDocument();
+        }
+
+        private void emitNode(int node) throws SAXException {
+            switch (kinds[node]) {
+                case Node.ELEMENT_NODE:
+                    emitElement(node);
+                    break;
+                case Node.TEXT_NODE:
+                    content.characters(chars, textStarts[node],
+                            textLengths[node]);
+                    break;
+                case Node.COMMENT_NODE:
+                    if (lexical != null) {
+                        lexical.comment(chars, textStarts[node],
+                                textLengths[node]);
+                    }
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    content.processingInstruction(qualifiedName(node),
+                            text(node));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void emitElement(int node) throws SAXException {
+            int scope = bindings;
+            int from = firstAttributes[node];
+            int to = firstAttributes[node + 1];
+            for (int a = from; a < to; a++) {
+                int name = attributeNames[a];
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(
+                        namespaces[name])) {
+                    declare(prefixes[name].isEmpty() ? ""
+                            : localNames[name], value(a));
+                }
+            }
+            int name = names[node];
+            declare(prefixes[name], namespaces[name]);
+            attributes.clear();
+            for (int a = from; a < to; a++) {
+                int attr = attributeNames[a];
+                String ns = namespaces[attr];
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(ns)) {
+                    continue;
+                }
+                if (!ns.isEmpty()) {
+                    declare(prefixes[attr], ns);
+                }
+                attributes.addAttribute(ns, localNames[attr],
+                        qualifiedNames[attr], CDATA, value(a));
+            }
+            content.startElement(namespaces[name], localNames[name],
+                    qualifiedNames[name], attributes);
+            for (int c = node + 1; c < ends[node]; c = ends[c]) {
+                emitNode(c);
+            }
+            content.endElement(namespaces[name], localNames[name],
+                    qualifiedNames[name]);
+            endScope(scope);
+        }
+    }
+
+    /**
+     * collects SAX events into growing arrays
+     */
+    private static final class Builder extends DefaultHandler
+            implements LexicalHandler {
+        private int count;
+        private byte[] kinds = new byte[256];
+        private int[] parents = new int[256];
+        private int[] ends = new int[256];
+        private int[] names = new int[256];
+        private int[] textStarts = new int[256];
+        private int[] textLengths = new int[256];
+        private int[] firstAttributes = new int[257];
+
+        private int attributeCount;
+        private int[] attributeNames = new int[64];
+        private int[] valueStarts = new int[64];
+        private int[] valueLengths = new int[64];
+
+        private char[] chars = new char[4096];
+        private int charCount;
+
+        private final Map<String, Integer> nameIndex = new HashMap<>();
+        private final List<String> namespaces = new ArrayList<>();
+        private final List<String> localNames = new ArrayList<>();
+        private final List<String> qualifiedNames = new ArrayList<>();
+
+        private final List<String> declarations = new ArrayList<>();
+        private int current = NONE;
+        private boolean inDTD;
+
+        @Override
+        public void startDocument() {
+            add(Node.DOCUMENT_NODE);
+            current = DOCUMENT;
+        }
+
+        @Override
+        public void endDocument() {
+            ends[DOCUMENT] = count;
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            declarations.add(prefix);
+            declarations.add(uri);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes atts) {
+            int node = add(Node.ELEMENT_NODE);
+            names[node] = name(uri, localName, qName);
+            for (int i = 0; i < declarations.size(); i += 2) {
+                String prefix = declarations.get(i);
+                addAttribute(prefix.isEmpty()
+                        ? name(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                        XMLConstants.XMLNS_ATTRIBUTE,
+                        XMLConstants.XMLNS_ATTRIBUTE)
+                        : name(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, prefix,
+                        XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix),
+                        declarations.get(i + 1));
+            }
+            declarations.clear();
+            for (int i = 0; i < atts.getLength(); i++) {
+                String name = atts.getQName(i);
+                if (name.equals(XMLConstants.XMLNS_ATTRIBUTE)
+                        || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                    // already there from startPrefixMapping
+                    continue;
+                }
+                addAttribute(name(atts.getURI(i), atts.getLocalName(i), name),
+                        atts.getValue(i));
+            }
+            current = node;
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            ends[current] = count;
+            current = parents[current];
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inDTD || length == 0) {
+                return;
+            }
+            int last = count - 1;
+            if (kinds[last] == Node.TEXT_NODE && parents[last] == current
+                    && textStarts[last] + textLengths[last] == charCount) {
+                textLengths[last] += length;
+                append(ch, start, length);
+            } else {
+                addText(Node.TEXT_NODE, ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) {
+            int node = addText(Node.PROCESSING_INSTRUCTION_NODE,
+                    data.toCharArray(), 0, data.length());
+            names[node] = name("", target, target);
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) {
+            if (!inDTD) {
+                addText(Node.COMMENT_NODE, ch, start, length);
+            }
+        }
+
+        @Override
+        public void startDTD(String name, String publicId, String systemId) {
+            inDTD = true;
+        }
+
+        @Override
+        public void endDTD() {
+            inDTD = false;
+        }
+
+        @Override
+        public void startEntity(String name) {
+            // the replacement text is reported as usual
+        }
+
+        @Override
+        public void endEntity(String name) {
+            // the replacement text is reported as usual
+        }
+
+        @Override
+        public void startCDATA() {
+            // CDATA sections are kept as text
+        }
+
+        @Override
+        public void endCDATA() {
+            // CDATA sections are kept as text
+        }
+
+        private int add(short kind) {
+            if (count == kinds.length) {
+                int capacity = 2 * count;
+                kinds = Arrays.copyOf(kinds, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                names = Arrays.copyOf(names, capacity);
+                textStarts = Arrays.copyOf(textStarts, capacity);
+                textLengths = Arrays.copyOf(textLengths, capacity);
+                firstAttributes = Arrays.copyOf(firstAttributes, capacity + 1);
+            }
+            int node = count++;
+            kinds[node] = (byte) kind;
+            parents[node] = current;
+            ends[node] = node + 1;
+            names[node] = NONE;
+            firstAttributes[node] = attributeCount;
+            return node;
+        }
+
+        private int addText(short kind, char[] ch, int start, int length) {
+            int node = add(kind);
+            textStarts[node] = charCount;
+            textLengths[node] = length;
+            append(ch, start, length);
+            return node;
+        }
+
+        private void addAttribute(int name, String value) {
+            if (attributeCount == attributeNames.length) {
+                int capacity = 2 * attributeCount;
+                attributeNames = Arrays.copyOf(attributeNames, capacity);
+                valueStarts = Arrays.copyOf(valueStarts, capacity);
+                valueLengths = Arrays.copyOf(valueLengths, capacity);
+            }
+            attributeNames[attributeCount] = name;
+            valueStarts[attributeCount] = charCount;
+            valueLengths[attributeCount] = value.length();
+            attributeCount++;
+            ensureChars(value.length());
+            value.getChars(0, value.length(), chars, charCount);
+            charCount += value.length();
+        }
+
+        private void append(char[] ch, int start, int length) {
+            ensureChars(length);
+            System.arraycopy(ch, start, chars, charCount, length);
+            charCount += length;
+        }
+
+        private void ensureChars(int length) {
+            if (charCount + length > chars.length) {
+                chars = Arrays.copyOf(chars,
+                        Math.max(2 * chars.length, charCount + length));
+            }
+        }
+
+        /**
+         * the number of an interned name
+         */
+        private int name(String uri, String localName, String qName) {
+            String ns = uri == null ? "" : uri;
+            String local = localName == null || localName.isEmpty() ? qName
+                    : localName;
+            Integer name = nameIndex.get(ns + '\u0000' + qName);
+            if (name == null) {
+                name = qualifiedNames.size();
+                namespaces.add(ns);
+                localNames.add(local);
+                qualifiedNames.add(qName);
+                nameIndex.put(ns + '\u0000' + qName, name);
+            }
+            return name;
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.korpora.useful;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * a SAX handler that builds DOM nodes straight into a given parent
+ *
+ * <p>
+ * Prefix mappings become namespace declaration attributes on the element
+ * they start with. Adjacent character events are merged into one text
+ * node.
+ * </p>
+ *
+ * @author bfi
+ */
+final class DOMSAXBuilder extends DefaultHandler implements LexicalHandler {
+
+    private final Document doc;
+    private Node current;
+    private final StringBuilder text = new StringBuilder();
+    private final List<String> declarations = new ArrayList<>();
+    private boolean inCDATA;
+    private boolean inDTD;
+
+    /**
+     * build into a node
+     *
+     * @param parent the node the top-level nodes are appended to, e.g. a
+     *               {@link Document} or a
+     *               {@link org.w3c.dom.DocumentFragment}
+     */
+    DOMSAXBuilder(Node parent) {
+        doc = parent.getNodeType() == Node.DOCUMENT_NODE ? (Document) parent
+                : parent.getOwnerDocument();
+        current = parent;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        declarations.add(prefix);
+        declarations.add(uri);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+                             Attributes atts) {
+        flush();
+        Element el = doc.createElementNS(uri.isEmpty() ? null : uri, qName);
+        for (int i = 0; i < declarations.size(); i += 2) {
+            String prefix = declarations.get(i);
+            el.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE
+                            : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                    declarations.get(i + 1));
+        }
+        declarations.clear();
+        for (int i = 0; i < atts.getLength(); i++) {
+            String name = atts.getQName(i);
+            if (name.equals(XMLConstants.XMLNS_ATTRIBUTE)
+                    || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                // already there, if reported as attributes too
+                continue;
+            }
+            String ns = atts.getURI(i);
+            el.setAttributeNS(ns.isEmpty() ? null : ns, name, atts.getValue(i));
+        }
+        current.appendChild(el);
+        current = el;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        flush();
+        current = current.getParentNode();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (!inDTD) {
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+        flush();
+        current.appendChild(doc.createProcessingInstruction(target, data));
+    }
+
+    @Override
+    public void skippedEntity(String name) {
+        flush();
+        current.appendChild(doc.createEntityReference(name));
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) {
+        inDTD = true;
+        if (current == doc && doc.getDoctype() == null) {
+            doc.appendChild(doc.getImplementation().createDocumentType(name,
+                    publicId, systemId));
+        }
+    }
+
+    @Override
+    public void endDTD() {
+        inDTD = false;
+    }
+
+    @Override
+    public void startEntity(String name) {
+        // the replacement text is reported as usual
+    }
+
+    @Override
+    public void endEntity(String name) {
+        // the replacement text is reported as usual
+    }
+
+    @Override
+    public void startCDATA() {
+        flush();
+        inCDATA = true;
+    }
+
+    @Override
+    public void endCDATA() {
+        if (text.length() > 0) {
+            current.appendChild(doc.createCDATASection(text.toString()));
+            text.setLength(0);
+        }
+        inCDATA = false;
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) {
+        if (inDTD) {
+            return;
+        }
+        flush();
+        current.appendChild(doc.createComment(new String(ch, start, length)));
+    }
+
+    @Override
+    public void endDocument() {
+        flush();
+    }
+
+    private void flush() {
+        if (text.length() > 0 && !inCDATA) {
+            if (current != doc) {
+                current.appendChild(doc.createTextNode(text.toString()));
+            }
+            text.setLength(0);
+        }
+    }
+
+}
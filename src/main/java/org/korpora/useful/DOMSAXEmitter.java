@@ -0,0 +1,132 @@
+package org.korpora.useful;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * walk a DOM tree and report it as SAX events
+ *
+ * @author bfi
+ */
+final class DOMSAXEmitter extends SAXEmitter {
+
+    private DOMSAXEmitter(ContentHandler content, LexicalHandler lexical) {
+        super(content, lexical);
+    }
+
+    /**
+     * report a node as a complete document
+     *
+     * @param node    a {@link org.w3c.dom.Document} or an {@link Element}
+     * @param content where the events go
+     * @param lexical where comments, CDATA and the DOCTYPE go, or
+     *                {@code null}
+     * @throws SAXException if the handlers throw it
+     */
+    static void emit(Node node, ContentHandler content, LexicalHandler lexical)
+            throws SAXException {
+        DOMSAXEmitter emitter = new DOMSAXEmitter(content, lexical);
+        content.startDocument();
+        if (node.getNodeType() == Node.DOCUMENT_NODE) {
+            for (Node child = node.getFirstChild(); child != null;
+                 child = child.getNextSibling()) {
+                emitter.emitNode(child);
+            }
+        } else {
+            emitter.emitNode(node);
+        }
+        content.endDocument();
+    }
+
+    private void emitNode(Node node) throws SAXException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                emitElement((Element) node);
+                break;
+            case Node.TEXT_NODE:
+                characters(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                cdata(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                comment(node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                content.processingInstruction(node.getNodeName(),
+                        node.getNodeValue());
+                break;
+            case Node.ENTITY_REFERENCE_NODE:
+                content.skippedEntity(node.getNodeName());
+                break;
+            case Node.DOCUMENT_TYPE_NODE:
+                DocumentType type = (DocumentType) node;
+                docType(type.getName(), type.getPublicId(), type.getSystemId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void emitElement(Element el) throws SAXException {
+        int scope = bindings;
+        NamedNodeMap attrs = el.getAttributes();
+        int count = attrs.getLength();
+        boolean namespaceAware = el.getLocalName() != null;
+        String uri = "";
+        String localName = el.getNodeName();
+        String qName = localName;
+        if (namespaceAware) {
+            // declarations present in the DOM come first
+            for (int i = 0; i < count; i++) {
+                Attr attr = (Attr) attrs.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(
+                        attr.getNamespaceURI())) {
+                    declare(XMLConstants.XMLNS_ATTRIBUTE.equals(attr.getName())
+                            ? "" : attr.getLocalName(), attr.getValue());
+                }
+            }
+            declare(el.getPrefix(), el.getNamespaceURI());
+            uri = el.getNamespaceURI() == null ? "" : el.getNamespaceURI();
+            localName = el.getLocalName();
+        }
+        attributes.clear();
+        for (int i = 0; i < count; i++) {
+            Attr attr = (Attr) attrs.item(i);
+            String ns = attr.getNamespaceURI();
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(ns)) {
+                continue;
+            }
+            String name = attr.getName();
+            String local = namespaceAware ? attr.getLocalName() : name;
+            if (namespaceAware && ns != null && !ns.isEmpty()
+                    && !XMLConstants.XML_NS_URI.equals(ns)) {
+                String prefix = attr.getPrefix();
+                if (prefix == null || prefix.isEmpty()) {
+                    prefix = prefixFor(ns);
+                    name = prefix + ":" + local;
+                } else {
+                    declare(prefix, ns);
+                }
+            }
+            attributes.addAttribute(ns == null ? "" : ns, local, name, CDATA,
+                    attr.getValue());
+        }
+        content.startElement(uri, localName, qName, attributes);
+        for (Node child = el.getFirstChild(); child != null;
+             child = child.getNextSibling()) {
+            emitNode(child);
+        }
+        content.endElement(uri, localName, qName);
+        endScope(scope);
+    }
+
+}
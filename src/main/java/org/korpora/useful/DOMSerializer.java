@@ -0,0 +1,477 @@
+package org.korpora.useful;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * a direct, streaming serialiser for DOM {@link Node}s
+ *
+ * <p>
+ * This writes XML straight to an {@link Appendable}, without going through
+ * an identity {@link javax.xml.transform.Transformer}. Namespace
+ * declarations are added where the DOM does not contain them, e.g. for
+ * elements made with {@link Document#createElementNS(String, String)} or
+ * for a subtree serialised on its own. Indentation only touches
+ * element-only content; mixed content is written as is, so indenting
+ * never changes the text of a document.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class DOMSerializer {
+
+    /**
+     * spaces per indentation level, as with the JDK's
+     * {@link javax.xml.transform.Transformer}
+     */
+    public static final int INDENT_AMOUNT = 4;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Appendable out;
+    private final boolean indent;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int length;
+    /**
+     * namespace bindings in scope, innermost last
+     */
+    private String[] prefixes = new String[16];
+    private String[] uris = new String[16];
+    private int bindings;
+    private int generatedPrefixes;
+
+    private DOMSerializer(Appendable out, boolean indent) {
+        this.out = out;
+        this.indent = indent;
+    }
+
+    /**
+     * serialise a DOM {@link Node}
+     *
+     * @param node        the node
+     * @param out         where to write to
+     * @param indent      whether to indent
+     * @param declaration whether to output an XML declaration
+     * @throws IOException if writing fails
+     */
+    public static void serialize(Node node, Appendable out, boolean indent,
+                                 boolean declaration) throws IOException {
+        DOMSerializer serializer = new DOMSerializer(out, indent);
+        serializer.writeTop(node, declaration, "UTF-8");
+        serializer.flushBuffer();
+    }
+
+    /**
+     * serialise a DOM {@link Node} as UTF-8; the stream is flushed, but not
+     * closed
+     *
+     * @param node        the node
+     * @param out         where to write to
+     * @param indent      whether to indent
+     * @param declaration whether to output an XML declaration
+     * @throws IOException if writing fails
+     */
+    public static void serialize(Node node, OutputStream out, boolean indent,
+                                 boolean declaration) throws IOException {
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+        serialize(node, writer, indent, declaration);
+        writer.flush();
+    }
+
+    /**
+     * serialise a DOM {@link Node} to a {@link String}
+     *
+     * @param node        the node
+     * @param indent      whether to indent
+     * @param declaration whether to output an XML declaration
+     * @return the string representation
+     */
+    public static String toString(Node node, boolean indent,
+                                  boolean declaration) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            serialize(node, sb, indent, declaration);
+        } catch (IOException e) {
+            // cannot happen with a StringBuilder
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    private void writeTop(Node node, boolean declaration, String encoding)
+            throws IOException {
+        if (declaration) {
+            Document doc = node.getNodeType() == Node.DOCUMENT_NODE
+                    ? (Document) node : node.getOwnerDocument();
+            String version = doc == null || doc.getXmlVersion() == null
+                    ? "1.0" : doc.getXmlVersion();
+            write("<?xml version=\"");
+            write(version);
+            write("\" encoding=\"");
+            write(encoding);
+            write('"');
+            if (doc != null && doc.getXmlStandalone()) {
+                write(" standalone=\"yes\"");
+            }
+            write("?>");
+            if (indent) {
+                write('\n');
+            }
+        }
+        if (node.getNodeType() == Node.DOCUMENT_NODE) {
+            for (Node child = node.getFirstChild(); child != null;
+                 child = child.getNextSibling()) {
+                writeNode(child, 0, indent);
+                if (indent || child.getNodeType() == Node.DOCUMENT_TYPE_NODE) {
+                    write('\n');
+                }
+            }
+        } else {
+            writeNode(node, 0, indent);
+            if (indent) {
+                write('\n');
+            }
+        }
+    }
+
+    private void writeNode(Node node, int depth, boolean indenting)
+            throws IOException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                writeElement((Element) node, depth, indenting);
+                break;
+            case Node.TEXT_NODE:
+                writeEscaped(node.getNodeValue(), false);
+                break;
+            case Node.CDATA_SECTION_NODE:
+                write("<![CDATA[");
+                write(node.getNodeValue().replace("]]>", "]]]]><![CDATA[>"));
+                write("]]>");
+                break;
+            case Node.COMMENT_NODE:
+                write("<!--");
+                write(node.getNodeValue());
+                write("-->");
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                write("<?");
+                write(node.getNodeName());
+                String data = node.getNodeValue();
+                if (data != null && !data.isEmpty()) {
+                    write(' ');
+                    write(data);
+                }
+                write("?>");
+                break;
+            case Node.ENTITY_REFERENCE_NODE:
+                write('&');
+                write(node.getNodeName());
+                write(';');
+                break;
+            case Node.DOCUMENT_TYPE_NODE:
+                writeDocumentType((DocumentType) node);
+                break;
+            case Node.DOCUMENT_NODE:
+            case Node.DOCUMENT_FRAGMENT_NODE:
+                writeChildren(node, depth - 1, indenting);
+                break;
+            case Node.ATTRIBUTE_NODE:
+                writeEscaped(node.getNodeValue(), false);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeDocumentType(DocumentType type) throws IOException {
+        write("<!DOCTYPE ");
+        write(type.getName());
+        if (type.getPublicId() != null) {
+            write(" PUBLIC \"");
+            write(type.getPublicId());
+            write("\" \"");
+            write(type.getSystemId() == null ? "" : type.getSystemId());
+            write('"');
+        } else if (type.getSystemId() != null) {
+            write(" SYSTEM \"");
+            write(type.getSystemId());
+            write('"');
+        }
+        if (type.getInternalSubset() != null
+                && !type.getInternalSubset().isEmpty()) {
+            write(" [");
+            write(type.getInternalSubset());
+            write(']');
+        }
+        write('>');
+    }
+
+    private void writeElement(Element el, int depth, boolean indenting)
+            throws IOException {
+        int scope = bindings;
+        write('<');
+        write(el.getNodeName());
+        NamedNodeMap attributes = el.getAttributes();
+        int count = attributes.getLength();
+        boolean namespaceAware = el.getLocalName() != null;
+        if (namespaceAware) {
+            // declarations present in the DOM come first
+            for (int i = 0; i < count; i++) {
+                Attr attr = (Attr) attributes.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(
+                        attr.getNamespaceURI())) {
+                    bind(XMLConstants.XMLNS_ATTRIBUTE.equals(attr.getName())
+                            ? "" : attr.getLocalName(), attr.getValue());
+                }
+            }
+            declare(el.getPrefix(), el.getNamespaceURI());
+        }
+        for (int i = 0; i < count; i++) {
+            Attr attr = (Attr) attributes.item(i);
+            String name = attr.getName();
+            String ns = attr.getNamespaceURI();
+            if (namespaceAware && ns != null && !ns.isEmpty()
+                    && !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(ns)
+                    && !XMLConstants.XML_NS_URI.equals(ns)) {
+                String prefix = attr.getPrefix();
+                if (prefix == null || prefix.isEmpty()) {
+                    prefix = prefixFor(ns);
+                    name = prefix + ":" + attr.getLocalName();
+                } else {
+                    declare(prefix, ns);
+                }
+            }
+            write(' ');
+            write(name);
+            write("=\"");
+            writeEscaped(attr.getValue(), true);
+            write('"');
+        }
+        if (el.getFirstChild() == null) {
+            write("/>");
+        } else {
+            write('>');
+            writeChildren(el, depth, indenting);
+            write("</");
+            write(el.getNodeName());
+            write('>');
+        }
+        bindings = scope;
+    }
+
+    private void writeChildren(Node parent, int depth, boolean indenting)
+            throws IOException {
+        if (indenting && elementOnly(parent)) {
+            for (Node child = parent.getFirstChild(); child != null;
+                 child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.TEXT_NODE) {
+                    continue;
+                }
+                newLine(depth + 1);
+                writeNode(child, depth + 1, true);
+            }
+            newLine(depth);
+        } else {
+            // mixed content: leave white space as it is, also further down
+            for (Node child = parent.getFirstChild(); child != null;
+                 child = child.getNextSibling()) {
+                writeNode(child, depth + 1, false);
+            }
+        }
+    }
+
+    /**
+     * whether a node has children, none of which is significant text
+     */
+    private static boolean elementOnly(Node parent) {
+        boolean any = false;
+        for (Node child = parent.getFirstChild(); child != null;
+             child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.TEXT_NODE:
+                    if (!isWhiteSpace(child.getNodeValue())) {
+                        return false;
+                    }
+                    break;
+                case Node.CDATA_SECTION_NODE:
+                case Node.ENTITY_REFERENCE_NODE:
+                    return false;
+                default:
+                    any = true;
+                    break;
+            }
+        }
+        return any;
+    }
+
+    private static boolean isWhiteSpace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != ' ' && c != '\n' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void newLine(int depth) throws IOException {
+        write('\n');
+        for (int i = 0; i < depth * INDENT_AMOUNT; i++) {
+            write(' ');
+        }
+    }
+
+    /**
+     * make sure that {@code prefix} is bound to {@code uri}, writing a
+     * declaration if necessary
+     */
+    private void declare(String prefix, String uri) throws IOException {
+        String p = prefix == null ? "" : prefix;
+        String u = uri == null ? "" : uri;
+        if (XMLConstants.XML_NS_PREFIX.equals(p) || u.equals(lookup(p))) {
+            return;
+        }
+        bind(p, u);
+        write(p.isEmpty() ? " xmlns=\"" : " xmlns:");
+        if (!p.isEmpty()) {
+            write(p);
+            write("=\"");
+        }
+        writeEscaped(u, true);
+        write('"');
+    }
+
+    /**
+     * find or make a non-empty prefix for a namespace URI
+     */
+    private String prefixFor(String uri) throws IOException {
+        for (int i = bindings - 1; i >= 0; i--) {
+            if (uris[i].equals(uri) && !prefixes[i].isEmpty()
+                    && uri.equals(lookup(prefixes[i]))) {
+                return prefixes[i];
+            }
+        }
+        String prefix;
+        do {
+            prefix = "ns" + ++generatedPrefixes;
+        } while (lookup(prefix) != null);
+        declare(prefix, uri);
+        return prefix;
+    }
+
+    private String lookup(String prefix) {
+        for (int i = bindings - 1; i >= 0; i--) {
+            if (prefixes[i].equals(prefix)) {
+                return uris[i];
+            }
+        }
+        return prefix.isEmpty() ? "" : null;
+    }
+
+    private void bind(String prefix, String uri) {
+        if (bindings == prefixes.length) {
+            prefixes = Arrays.copyOf(prefixes, 2 * bindings);
+            uris = Arrays.copyOf(uris, 2 * bindings);
+        }
+        prefixes[bindings] = prefix;
+        uris[bindings] = uri;
+        bindings++;
+    }
+
+    private void writeEscaped(String s, boolean attribute) throws IOException {
+        int start = 0;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            String replacement;
+            switch (s.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '\r':
+                    replacement = "&#13;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                case '\n':
+                    replacement = attribute ? "&#10;" : null;
+                    break;
+                case '\t':
+                    replacement = attribute ? "&#9;" : null;
+                    break;
+                default:
+                    replacement = null;
+                    break;
+            }
+            if (replacement != null) {
+                write(s, start, i);
+                write(replacement);
+                start = i + 1;
+            }
+        }
+        write(s, start, n);
+    }
+
+    private void write(char c) throws IOException {
+        if (length == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        buffer[length++] = c;
+    }
+
+    private void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+
+    private void write(String s, int start, int end) throws IOException {
+        while (start < end) {
+            if (length == BUFFER_SIZE) {
+                flushBuffer();
+            }
+            int n = Math.min(end - start, BUFFER_SIZE - length);
+            s.getChars(start, start + n, buffer, length);
+            length += n;
+            start += n;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (length == 0) {
+            return;
+        }
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buffer, 0, length);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(buffer, 0, length);
+        } else {
+            out.append(CharBuffer.wrap(buffer, 0, length));
+        }
+        length = 0;
+    }
+
+}
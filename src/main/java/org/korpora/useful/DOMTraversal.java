@@ -0,0 +1,268 @@
+package org.korpora.useful;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * lazy traversal of the child and descendant elements of a DOM
+ * {@link Node}
+ *
+ * <p>
+ * Unlike {@link Element#getElementsByTagName(String)}, this does not build
+ * a {@link org.w3c.dom.NodeList}: it walks {@code getFirstChild} /
+ * {@code getNextSibling} and stops as soon as the consumer has what it
+ * needs, e.g. the first match. Descendants come in document order and do
+ * not include the starting node itself. Changing the tree while iterating
+ * is not supported.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class DOMTraversal {
+    private DOMTraversal() {
+    }
+
+    private static final Predicate<Element> ANY = el -> true;
+
+    /**
+     * match elements by namespace and local name, like
+     * {@link Element#getElementsByTagNameNS(String, String)}
+     *
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the filter
+     */
+    public static Predicate<Element> named(String namespace,
+                                           String localName) {
+        boolean anyNamespace = "*".equals(namespace);
+        boolean anyName = "*".equals(localName);
+        String ns = namespace == null || namespace.isEmpty() ? null
+                : namespace;
+        return el -> (anyName || localName.equals(el.getLocalName()))
+                && (anyNamespace || (ns == null ? el.getNamespaceURI() == null
+                : ns.equals(el.getNamespaceURI())));
+    }
+
+    /**
+     * match elements by tag name, like
+     * {@link Element#getElementsByTagName(String)}
+     *
+     * @param tagName the qualified tag name, {@code "*"} for any
+     * @return the filter
+     */
+    public static Predicate<Element> tagNamed(String tagName) {
+        return "*".equals(tagName) ? ANY
+                : el -> tagName.equals(el.getTagName());
+    }
+
+    /**
+     * the child elements of a node
+     *
+     * @param parent the node
+     * @return the elements
+     */
+    public static Stream<Element> children(Node parent) {
+        return children(parent, ANY);
+    }
+
+    /**
+     * the matching child elements of a node
+     *
+     * @param parent    the node
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the elements
+     */
+    public static Stream<Element> children(Node parent, String namespace,
+                                           String localName) {
+        return children(parent, named(namespace, localName));
+    }
+
+    /**
+     * the matching child elements of a node
+     *
+     * @param parent the node
+     * @param filter which elements to keep
+     * @return the elements
+     */
+    public static Stream<Element> children(Node parent,
+                                           Predicate<? super Element> filter) {
+        return stream(childElements(parent, filter));
+    }
+
+    /**
+     * the descendant elements of a node, in document order
+     *
+     * @param root the node
+     * @return the elements
+     */
+    public static Stream<Element> descendants(Node root) {
+        return descendants(root, ANY);
+    }
+
+    /**
+     * the matching descendant elements of a node, in document order
+     *
+     * @param root      the node
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the elements
+     */
+    public static Stream<Element> descendants(Node root, String namespace,
+                                              String localName) {
+        return descendants(root, named(namespace, localName));
+    }
+
+    /**
+     * the matching descendant elements of a node, in document order
+     *
+     * @param root   the node
+     * @param filter which elements to keep
+     * @return the elements
+     */
+    public static Stream<Element> descendants(Node root,
+                                              Predicate<? super Element> filter) {
+        return stream(descendantElements(root, filter));
+    }
+
+    /**
+     * the matching child elements of a node, e.g. for a for-each loop
+     *
+     * @param parent the node
+     * @param filter which elements to keep
+     * @return the elements
+     */
+    public static Iterable<Element> childElements(Node parent,
+                                                  Predicate<? super Element> filter) {
+        return () -> new ElementIterator(parent, filter, false);
+    }
+
+    /**
+     * the matching descendant elements of a node in document order, e.g.
+     * for a for-each loop
+     *
+     * @param root   the node
+     * @param filter which elements to keep
+     * @return the elements
+     */
+    public static Iterable<Element> descendantElements(Node root,
+                                                       Predicate<? super Element> filter) {
+        return () -> new ElementIterator(root, filter, true);
+    }
+
+    /**
+     * the first matching descendant element of a node
+     *
+     * @param root   the node
+     * @param filter which element to find
+     * @return the element, or {@code null}
+     */
+    public static Element firstDescendant(Node root,
+                                          Predicate<? super Element> filter) {
+        ElementIterator iterator = new ElementIterator(root, filter, true);
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * the first matching child element of a node
+     *
+     * @param parent the node
+     * @param filter which element to find
+     * @return the element, or {@code null}
+     */
+    public static Element firstChild(Node parent,
+                                     Predicate<? super Element> filter) {
+        ElementIterator iterator = new ElementIterator(parent, filter, false);
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private static Stream<Element> stream(Iterable<Element> elements) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                elements.iterator(), Spliterator.ORDERED | Spliterator.NONNULL
+                        | Spliterator.DISTINCT), false);
+    }
+
+    private static final class ElementIterator implements Iterator<Element> {
+        private final Node root;
+        private final Predicate<? super Element> filter;
+        private final boolean deep;
+        /**
+         * the last node looked at
+         */
+        private Node current;
+        private Element next;
+        private boolean done;
+
+        ElementIterator(Node root, Predicate<? super Element> filter,
+                        boolean deep) {
+            this.root = root;
+            this.filter = filter;
+            this.deep = deep;
+            current = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            while (!done) {
+                current = step(current);
+                if (current == null) {
+                    done = true;
+                } else if (current.getNodeType() == Node.ELEMENT_NODE
+                        && filter.test((Element) current)) {
+                    next = (Element) current;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Element next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Element el = next;
+            next = null;
+            return el;
+        }
+
+        /**
+         * the next node in document order, below {@code root}
+         */
+        private Node step(Node node) {
+            if (node == root || deep) {
+                Node child = node.getFirstChild();
+                if (child != null) {
+                    return child;
+                }
+            }
+            if (!deep) {
+                return node == root ? null : node.getNextSibling();
+            }
+            while (node != root) {
+                Node sibling = node.getNextSibling();
+                if (sibling != null) {
+                    return sibling;
+                }
+                node = node.getParentNode();
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,426 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * a cache of parsed XML files, for files that are read again and again
+ *
+ * <p>
+ * Entries are keyed by the real path of the file and checked against its
+ * size and modification time on every {@link #get(Path)}, so a changed
+ * file is parsed again. The cache is bounded by the estimated heap size of
+ * the parsed documents and evicts the least recently used ones first.
+ * Concurrent requests for the same file wait for one parse.
+ * </p>
+ * <p>
+ * Mutable documents are either handed out as copies, or shared, in which
+ * case callers must not change them. DOM documents are parsed fully
+ * expanded, not with the deferred node expansion of Xerces, which changes
+ * the tree while it is read; so threads can share one for reading, as
+ * long as they navigate by {@link org.w3c.dom.Node#getFirstChild()} and
+ * {@link org.w3c.dom.Node#getNextSibling()} or the like: Xerces caches the
+ * position of the last {@link org.w3c.dom.NodeList} access in the node.
+ * {@link CompactDocument}s are immutable and always shared. The cache is opt-in:
+ * {@link XMLUtilities#parseXML(Path)} always parses.
+ * </p>
+ *
+ * @param <T> the type of the documents
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class DocumentCache<T> {
+
+    /**
+     * estimated heap bytes of a DOM or JDOM document per byte of XML; a
+     * 15 MB TEI file made a 140 MB DOM
+     */
+    public static final int TREE_BYTES_PER_FILE_BYTE = 10;
+
+    private final XMLModel<T> model;
+    private final ToLongFunction<? super T> weigher;
+    private final UnaryOperator<T> copier;
+    private final long maxBytes;
+
+    /**
+     * the parsed documents, least recently used first, with their
+     * size in {@link #bytes}; guarded by the map
+     */
+    private final LinkedHashMap<Path, Entry<T>> entries = new LinkedHashMap<>(
+            16, 0.75f, true);
+    private long bytes;
+    private final Map<Path, CompletableFuture<Entry<T>>> loading =
+            new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private DocumentCache(XMLModel<T> model, ToLongFunction<? super T> weigher,
+                          UnaryOperator<T> copier, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.model = model;
+        this.weigher = weigher;
+        this.copier = copier;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * a cache of DOM {@link Document}s
+     *
+     * @param maxBytes the estimated heap size of all documents
+     * @param copy     whether to hand out deep copies, rather than shared
+     *                 documents that must not be changed
+     * @return the cache
+     */
+    public static DocumentCache<Document> dom(long maxBytes, boolean copy) {
+        return new DocumentCache<>(Expanded.DOM, null,
+                copy ? DocumentCache::copy : null, maxBytes);
+    }
+
+    /**
+     * a cache of JDOM {@link org.jdom2.Document}s
+     *
+     * @param maxBytes the estimated heap size of all documents
+     * @param copy     whether to hand out deep copies, rather than shared
+     *                 documents that must not be changed
+     * @return the cache
+     */
+    public static DocumentCache<org.jdom2.Document> jdom(long maxBytes,
+                                                         boolean copy) {
+        return new DocumentCache<>(XMLModel.JDOM, null,
+                copy ? org.jdom2.Document::clone : null, maxBytes);
+    }
+
+    /**
+     * a cache of immutable {@link CompactDocument}s
+     *
+     * @param maxBytes the heap size of all documents, as
+     *                 {@link CompactDocument#estimatedSize() estimated}
+     * @return the cache
+     */
+    public static DocumentCache<CompactDocument> compact(long maxBytes) {
+        return new DocumentCache<>(XMLModel.COMPACT,
+                CompactDocument::estimatedSize, null, maxBytes);
+    }
+
+    /**
+     * the parsed file, from the cache if it has not changed
+     *
+     * @param file the file
+     * @return the document, shared or a copy
+     * @throws IOException  if the file cannot be read
+     * @throws SAXException if the file is not well-formed
+     */
+    public T get(Path file) throws IOException, SAXException {
+        Path key = file.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(key,
+                BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Entry<T> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.isFor(size, modified)) {
+            hits.increment();
+            Instrumentation.cache(Metrics.Cache.DOCUMENTS, true);
+            return handOut(entry.document);
+        }
+        CompletableFuture<Entry<T>> mine = new CompletableFuture<>();
+        CompletableFuture<Entry<T>> running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            entry = await(running);
+            if (entry.isFor(size, modified)) {
+                coalesced.increment();
+                Instrumentation.cache(Metrics.Cache.DOCUMENTS, true);
+                return handOut(entry.document);
+            }
+            // changed while it was parsed; parse it on our own
+            misses.increment();
+            Instrumentation.cache(Metrics.Cache.DOCUMENTS, false);
+            return handOut(load(key, size, modified).document);
+        }
+        misses.increment();
+        Instrumentation.cache(Metrics.Cache.DOCUMENTS, false);
+        try {
+            entry = load(key, size, modified);
+            // cached before the next request misses the running parse
+            put(key, entry);
+            mine.complete(entry);
+        } catch (Throwable e) {
+            // also Errors, e.g. running out of memory, or waiters hang
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+        return handOut(entry.document);
+    }
+
+    /**
+     * forget a file
+     *
+     * @param file the file
+     */
+    public void invalidate(Path file) {
+        Path key;
+        try {
+            key = file.toRealPath();
+        } catch (IOException e) {
+            key = file.toAbsolutePath().normalize();
+        }
+        synchronized (entries) {
+            Entry<T> entry = entries.remove(key);
+            if (entry != null) {
+                bytes -= entry.weight;
+            }
+        }
+    }
+
+    /**
+     * forget all files
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * how well the cache is doing
+     *
+     * @return a snapshot of the counts
+     */
+    public Stats stats() {
+        int count;
+        long size;
+        synchronized (entries) {
+            count = entries.size();
+            size = bytes;
+        }
+        return new Stats(hits.sum(), coalesced.sum(), misses.sum(),
+                evictions.sum(), count, size);
+    }
+
+    private Entry<T> load(Path key, long size, long modified)
+            throws IOException, SAXException {
+        T document = model.parse(key);
+        long weight = weigher != null ? weigher.applyAsLong(document)
+                : TREE_BYTES_PER_FILE_BYTE * size;
+        return new Entry<>(document, size, modified, weight);
+    }
+
+    private void put(Path key, Entry<T> entry) {
+        synchronized (entries) {
+            // too heavy to keep, but the old version must go anyway
+            Entry<T> old = entry.weight > maxBytes ? entries.remove(key)
+                    : entries.put(key, entry);
+            if (old != null) {
+                bytes -= old.weight;
+            }
+            if (entry.weight > maxBytes) {
+                return;
+            }
+            bytes += entry.weight;
+            Iterator<Entry<T>> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Entry<T> evicted = eldest.next();
+                if (evicted == entry) {
+                    break;
+                }
+                eldest.remove();
+                bytes -= evicted.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    private static Document copy(Document doc) {
+        return (Document) doc.cloneNode(true);
+    }
+
+    private T handOut(T document) {
+        return copier == null ? document : copier.apply(document);
+    }
+
+    private static <T> Entry<T> await(CompletableFuture<Entry<T>> running)
+            throws IOException, SAXException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * DOM parsed without deferred node expansion, made when first needed
+     */
+    private static final class Expanded {
+        private static final String DEFER_NODE_EXPANSION =
+                "http://apache.org/xml/features/dom/defer-node-expansion";
+
+        static final XMLModel<Document> DOM = XMLModel.dom(processors());
+
+        private static XMLProcessors processors() {
+            DocumentBuilderFactory factory =
+                    XMLProcessors.defaultBuilderFactory();
+            try {
+                factory.setFeature(DEFER_NODE_EXPANSION, false);
+            } catch (ParserConfigurationException e) {
+                // not Xerces, which is the one that defers
+            }
+            return new XMLProcessors(factory, TransformerFactory.newInstance(),
+                    XMLProcessors.DEFAULT_POOL_SIZE,
+                    CachingResolver.getDefault());
+        }
+    }
+
+    private static final class Entry<T> {
+        private final T document;
+        private final long size;
+        private final long modified;
+        private final long weight;
+
+        Entry(T document, long size, long modified, long weight) {
+            this.document = Objects.requireNonNull(document);
+            this.size = size;
+            this.modified = modified;
+            this.weight = weight;
+        }
+
+        boolean isFor(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+
+    /**
+     * counts of a {@link DocumentCache}
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long coalesced;
+        private final long misses;
+        private final long evictions;
+        private final int entries;
+        private final long bytes;
+
+        Stats(long hits, long coalesced, long misses, long evictions,
+              int entries, long bytes) {
+            this.hits = hits;
+            this.coalesced = coalesced;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        /**
+         * requests answered from the cache
+         *
+         * @return the number
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * requests that waited for another request's parse
+         *
+         * @return the number
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        /**
+         * requests that parsed the file
+         *
+         * @return the number
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * documents dropped to stay within the bound
+         *
+         * @return the number
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * documents in the cache
+         *
+         * @return the number
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * the estimated heap size of the documents in the cache
+         *
+         * @return the number of bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * the share of requests that did not parse
+         *
+         * @return the hit rate, between 0 and 1
+         */
+        public double hitRate() {
+            long requests = hits + coalesced + misses;
+            return requests == 0 ? 1 : (double) (hits + coalesced) / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d coalesced, %d misses,"
+                            + " %d evictions, %d entries, %d bytes",
+                    hits, coalesced, misses, evictions, entries, bytes);
+        }
+    }
+
+}
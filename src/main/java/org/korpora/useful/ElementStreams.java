@@ -0,0 +1,352 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.input.StAXStreamBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * lazily extract matching elements from an XML stream, one subtree at a
+ * time, with StAX
+ *
+ * @author bfi
+ * @see XMLUtilities#streamElements(java.nio.file.Path, String, String)
+ */
+final class ElementStreams {
+    private ElementStreams() {
+    }
+
+    private static final String XMLNS_NS = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    static {
+        INPUT_FACTORY = XMLInputFactory.newInstance();
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+        INPUT_FACTORY.setXMLResolver(
+                CachingResolver.getDefault().asXMLResolver());
+    }
+
+    /**
+     * make a {@link Stream} of DOM {@link Element}s; each element is the
+     * document element of a new small {@link Document}
+     *
+     * @param input     the XML input, closed with the stream
+     * @param encoding  the encoding, or {@code null} to detect it
+     * @param namespace the namespace URI, {@code "*"} for any
+     * @param localName the local name, {@code "*"} for any
+     * @return the stream
+     */
+    static Stream<Element> dom(InputStream input, String encoding,
+                               String namespace, String localName) {
+        return stream(input, encoding, namespace, localName,
+                ElementStreams::buildDOM);
+    }
+
+    /**
+     * make a {@link Stream} of detached JDOM {@link org.jdom2.Element}s
+     *
+     * @param input     the XML input, closed with the stream
+     * @param encoding  the encoding, or {@code null} to detect it
+     * @param namespace the namespace URI, {@code "*"} for any
+     * @param localName the local name, {@code "*"} for any
+     * @return the stream
+     */
+    static Stream<org.jdom2.Element> jdom(InputStream input, String encoding,
+                                          String namespace, String localName) {
+        StAXStreamBuilder builder = new StAXStreamBuilder();
+        return stream(input, encoding, namespace, localName,
+                (reader, inScope) -> buildJDOM(builder, reader, inScope));
+    }
+
+    private static <T> Stream<T> stream(InputStream input, String encoding,
+                                        String namespace, String localName,
+                                        SubtreeBuilder<T> builder) {
+        XMLStreamReader reader;
+        try {
+            synchronized (INPUT_FACTORY) {
+                reader = encoding == null
+                        ? INPUT_FACTORY.createXMLStreamReader(input)
+                        : INPUT_FACTORY.createXMLStreamReader(input, encoding);
+            }
+        } catch (XMLStreamException e) {
+            closeQuietly(input);
+            throw new RuntimeException(e);
+        }
+        ElementSpliterator<T> spliterator = new ElementSpliterator<>(reader,
+                input, namespace, localName, builder);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(spliterator::close);
+    }
+
+    private static boolean matches(String pattern, String value) {
+        if ("*".equals(pattern)) {
+            return true;
+        }
+        if (pattern == null || pattern.isEmpty()) {
+            return value == null || value.isEmpty();
+        }
+        return pattern.equals(value);
+    }
+
+    private static void closeQuietly(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            // nothing to be done
+        }
+    }
+
+    /**
+     * build a DOM subtree from the current {@code START_ELEMENT} and leave
+     * the reader after its {@code END_ELEMENT}
+     */
+    private static Element buildDOM(XMLStreamReader reader,
+                                    Map<String, String> inScope)
+            throws XMLStreamException {
+        Document doc;
+        try {
+            doc = XMLProcessors.getDefault().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        Element root = startElement(doc, reader);
+        doc.appendChild(root);
+        // keep declarations of the ancestors, as in the full document
+        inScope.forEach((prefix, uri) -> {
+            String attribute = prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix;
+            if (!root.hasAttributeNS(XMLNS_NS, prefix.isEmpty() ? "xmlns"
+                    : prefix)) {
+                root.setAttributeNS(XMLNS_NS, attribute, uri);
+            }
+        });
+        Node current = root;
+        while (current != null) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    current = current.appendChild(startElement(doc, reader));
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current == root ? null : current.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(
+                            doc.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(doc.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(doc.createProcessingInstruction(
+                            reader.getPITarget(), reader.getPIData()));
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    current.appendChild(
+                            doc.createEntityReference(reader.getLocalName()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (reader.hasNext()) {
+            reader.next();
+        }
+        return root;
+    }
+
+    private static Element startElement(Document doc, XMLStreamReader reader) {
+        Element el = doc.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                qName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            el.setAttributeNS(XMLNS_NS,
+                    prefix == null || prefix.isEmpty() ? "xmlns"
+                            : "xmlns:" + prefix,
+                    reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            el.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qName(reader.getAttributePrefix(i),
+                            reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return el;
+    }
+
+    private static org.jdom2.Element buildJDOM(StAXStreamBuilder builder,
+                                               XMLStreamReader reader,
+                                               Map<String, String> inScope)
+            throws XMLStreamException {
+        org.jdom2.Element el;
+        try {
+            el = (org.jdom2.Element) builder.fragment(reader);
+        } catch (JDOMException e) {
+            throw new XMLStreamException(e);
+        }
+        inScope.forEach((prefix, uri) -> {
+            if (el.getNamespace(prefix) == null) {
+                el.addNamespaceDeclaration(Namespace.getNamespace(prefix, uri));
+            }
+        });
+        return el;
+    }
+
+    private static String qName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName
+                : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    /**
+     * build an object from the subtree starting at the current
+     * {@code START_ELEMENT}, leaving the reader at the event after its
+     * {@code END_ELEMENT}
+     *
+     * @param <T> the type of the object
+     */
+    @FunctionalInterface
+    private interface SubtreeBuilder<T> {
+        T build(XMLStreamReader reader, Map<String, String> inScope)
+                throws XMLStreamException;
+    }
+
+    private static final class ElementSpliterator<T>
+            extends Spliterators.AbstractSpliterator<T> {
+
+        private final XMLStreamReader reader;
+        private final InputStream input;
+        private final String namespace;
+        private final String localName;
+        private final SubtreeBuilder<T> builder;
+        /**
+         * namespace declarations of the open ancestors, as prefix/URI pairs
+         */
+        private final List<String> declarations = new ArrayList<>();
+        private final List<Integer> marks = new ArrayList<>();
+        /**
+         * whether the reader is already at an unseen event
+         */
+        private boolean advanced;
+        private boolean closed;
+
+        ElementSpliterator(XMLStreamReader reader, InputStream input,
+                           String namespace, String localName,
+                           SubtreeBuilder<T> builder) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.reader = reader;
+            this.input = input;
+            this.namespace = namespace;
+            this.localName = localName;
+            this.builder = builder;
+            advanced = true;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                while (true) {
+                    int event;
+                    if (advanced) {
+                        event = reader.getEventType();
+                        advanced = false;
+                    } else if (reader.hasNext()) {
+                        event = reader.next();
+                    } else {
+                        close();
+                        return false;
+                    }
+                    switch (event) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            if (matches(localName, reader.getLocalName())
+                                    && matches(namespace,
+                                    reader.getNamespaceURI())) {
+                                T result = builder.build(reader, inScope());
+                                advanced = true;
+                                action.accept(result);
+                                return true;
+                            }
+                            marks.add(declarations.size());
+                            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                                String prefix = reader.getNamespacePrefix(i);
+                                declarations.add(prefix == null ? "" : prefix);
+                                declarations.add(reader.getNamespaceURI(i));
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            int mark = marks.remove(marks.size() - 1);
+                            declarations.subList(mark, declarations.size())
+                                    .clear();
+                            break;
+                        case XMLStreamConstants.END_DOCUMENT:
+                            close();
+                            return false;
+                        default:
+                            break;
+                    }
+                }
+            } catch (XMLStreamException e) {
+                close();
+                throw new RuntimeException(e);
+            }
+        }
+
+        private Map<String, String> inScope() {
+            Map<String, String> inScope = new LinkedHashMap<>();
+            for (int i = 0; i < declarations.size(); i += 2) {
+                inScope.put(declarations.get(i), declarations.get(i + 1));
+            }
+            return inScope;
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // closing the input below is what matters
+            }
+            try {
+                input.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
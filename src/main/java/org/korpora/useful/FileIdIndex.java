@@ -0,0 +1,625 @@
+package org.korpora.useful;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.jdom2.JDOMException;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * a persistent index of the {@code xml:id}s in a large XML file, for
+ * parsing single elements without parsing the file
+ *
+ * <p>
+ * The index is made in one pass with a {@link MarkupScanner} and written
+ * to a sidecar file: the entries, sorted by ID, with the byte range, the
+ * name and the namespace context of each element, and a table of the
+ * strings. Lookups memory-map the sidecar and do a binary search in it;
+ * nothing is loaded. Optionally, all elements with some qualified names
+ * are indexed as well, see {@link #elements(String)}.
+ * </p>
+ * <p>
+ * An element is parsed on its own, with the namespace declarations of its
+ * ancestors and the DOCTYPE of the file, like a record of a
+ * {@link RecordIndex}. As with {@link IdIndex}, an ID occurring on more
+ * than one element is ambiguous and not found. The sidecar is made again
+ * by {@link #open(Path)} when the size or modification time of the file
+ * has changed; an index whose file has changed since refuses to parse.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class FileIdIndex {
+
+    private static final int MAGIC = 0x4B494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int ENTRY_SIZE = 32;
+    private static final int AMBIGUOUS = 1;
+    private static final byte[] XML_ID = "xml:id".getBytes(
+            StandardCharsets.US_ASCII);
+
+    private final Path file;
+    private final ByteBuffer index;
+    private final long size;
+    private final long modified;
+    private final String encoding;
+    private final String doctype;
+    private final Set<String> names;
+    private final int ids;
+    private final int elements;
+    private final int contextsStart;
+    private final int idsStart;
+    private final int elementsStart;
+    private final int stringsStart;
+
+    private FileIdIndex(Path file, ByteBuffer index) throws IOException {
+        this.file = file;
+        this.index = index;
+        if (index.capacity() < HEADER_SIZE || index.getInt(0) != MAGIC
+                || index.getInt(4) != VERSION) {
+            throw new IOException("not an ID index: " + file);
+        }
+        size = index.getLong(8);
+        modified = index.getLong(16);
+        ids = index.getInt(24);
+        elements = index.getInt(28);
+        int contexts = index.getInt(32);
+        int encodingRef = index.getInt(36);
+        int doctypeRef = index.getInt(40);
+        contextsStart = HEADER_SIZE;
+        idsStart = contextsStart + 4 * contexts;
+        elementsStart = idsStart + ENTRY_SIZE * ids;
+        stringsStart = elementsStart + ENTRY_SIZE * elements;
+        encoding = encodingRef < 0 ? null : string(encodingRef,
+                MarkupScanner.RAW);
+        doctype = string(doctypeRef, MarkupScanner.RAW);
+        String indexed = string(index.getInt(44), StandardCharsets.UTF_8);
+        names = indexed.isEmpty() ? Collections.emptySet()
+                : new HashSet<>(Arrays.asList(indexed.split("\n")));
+    }
+
+    /**
+     * the ID index of a file, from its sidecar {@link #sidecar(Path)} if
+     * that is up to date, else made and saved
+     *
+     * @param file the XML file
+     * @return the index
+     * @throws IOException if the file cannot be read or the sidecar cannot
+     *                     be written
+     */
+    public static FileIdIndex open(Path file) throws IOException {
+        return open(file, Collections.emptySet(), sidecar(file));
+    }
+
+    /**
+     * the ID index of a file, with the elements of some names, from the
+     * sidecar if that is up to date, else made and saved
+     *
+     * @param file     the XML file
+     * @param names    qualified names of elements to index, as in the file
+     * @param sidecar  where to keep the index
+     * @return the index
+     * @throws IOException if the file cannot be read or the sidecar cannot
+     *                     be written
+     */
+    public static FileIdIndex open(Path file, Collection<String> names,
+                                   Path sidecar) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        if (Files.isRegularFile(sidecar)) {
+            FileIdIndex index;
+            try {
+                index = new FileIdIndex(file, map(sidecar));
+            } catch (IOException | IndexOutOfBoundsException e) {
+                // damaged, make it again
+                index = null;
+            }
+            if (index != null && index.size == size
+                    && index.modified == modified
+                    && index.names.containsAll(names)) {
+                return index;
+            }
+        }
+        build(file, names, sidecar);
+        return new FileIdIndex(file, map(sidecar));
+    }
+
+    /**
+     * where {@link #open(Path)} keeps the index
+     *
+     * @param file the XML file
+     * @return the sidecar file, in the same directory
+     */
+    public static Path sidecar(Path file) {
+        return file.resolveSibling(file.getFileName() + ".ids");
+    }
+
+    /**
+     * the indexed file
+     *
+     * @return the file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * whether the file has changed since it was indexed
+     *
+     * @return whether
+     */
+    public boolean isStale() {
+        try {
+            return Files.size(file) != size || Files.getLastModifiedTime(file)
+                    .toMillis() != modified;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * the number of IDs, including ambiguous ones
+     *
+     * @return the number
+     */
+    public int size() {
+        return ids;
+    }
+
+    /**
+     * whether an ID is in the file, and unique
+     *
+     * @param id the ID
+     * @return whether
+     */
+    public boolean contains(String id) {
+        return find(id) != null;
+    }
+
+    /**
+     * where the element with an ID is
+     *
+     * @param id the ID
+     * @return the location, or {@code null} if there is none or more than
+     * one
+     */
+    public Location find(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = ids - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = idsStart + mid * ENTRY_SIZE;
+            int c = compare(index.getInt(entry), key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return (index.getInt(entry + 12) & AMBIGUOUS) != 0 ? null
+                        : location(entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * where the elements with a name are, if the name was indexed
+     *
+     * @param name the qualified name, as in the file
+     * @return the locations, in file order
+     */
+    public List<Location> elements(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        // the first entry with the name
+        int low = 0;
+        int high = elements;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(index.getInt(elementsStart + mid * ENTRY_SIZE),
+                    key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<Location> locations = new ArrayList<>();
+        for (int i = low; i < elements; i++) {
+            int entry = elementsStart + i * ENTRY_SIZE;
+            if (compare(index.getInt(entry), key) != 0) {
+                break;
+            }
+            locations.add(location(entry));
+        }
+        return locations;
+    }
+
+    /**
+     * parse the element with an ID to DOM
+     *
+     * @param id the ID
+     * @return the element, the document element of its own document, or
+     * {@code null} if there is none or more than one
+     * @throws IOException  if the file cannot be read or has changed
+     * @throws SAXException if the element is not well-formed
+     */
+    public Element parseDOM(String id) throws IOException, SAXException {
+        Location location = find(id);
+        return location == null ? null : parseDOM(location);
+    }
+
+    /**
+     * parse an indexed element to DOM
+     *
+     * @param location where it is
+     * @return the element, the document element of its own document
+     * @throws IOException  if the file cannot be read or has changed
+     * @throws SAXException if the element is not well-formed
+     */
+    public Element parseDOM(Location location)
+            throws IOException, SAXException {
+        try {
+            return RecordIndex.unwrap(XMLProcessors.getDefault()
+                    .parse(inputSource(location)));
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * parse the element with an ID to JDOM
+     *
+     * @param id the ID
+     * @return the detached element, or {@code null} if there is none or
+     * more than one
+     * @throws IOException   if the file cannot be read or has changed
+     * @throws JDOMException if the element is not well-formed
+     */
+    public org.jdom2.Element parseJDOM(String id)
+            throws IOException, JDOMException {
+        Location location = find(id);
+        return location == null ? null : parseJDOM(location);
+    }
+
+    /**
+     * parse an indexed element to JDOM
+     *
+     * @param location where it is
+     * @return the detached element
+     * @throws IOException   if the file cannot be read or has changed
+     * @throws JDOMException if the element is not well-formed
+     */
+    public org.jdom2.Element parseJDOM(Location location)
+            throws IOException, JDOMException {
+        return RecordIndex.unwrap(FragmentParser.build(
+                inputSource(location)));
+    }
+
+    private InputSource inputSource(Location location) throws IOException {
+        if (isStale()) {
+            throw new IOException("file has changed since indexing: " + file);
+        }
+        return RecordIndex.inputSource(file, encoding, doctype,
+                location.namespaces,
+                new long[]{location.start, location.end});
+    }
+
+    private Location location(int entry) {
+        int contextRef = index.getInt(contextsStart
+                + 4 * index.getInt(entry + 8));
+        return new Location(index.getLong(entry + 16),
+                index.getLong(entry + 24),
+                string(index.getInt(entry + 4), StandardCharsets.UTF_8),
+                string(contextRef, MarkupScanner.RAW));
+    }
+
+    private String string(int ref, Charset charset) {
+        int at = stringsStart + ref;
+        int length = index.getInt(at);
+        byte[] bytes = new byte[length];
+        index.get(at + 4, bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * compare a string in the table with a key, byte by byte, unsigned
+     */
+    private int compare(int ref, byte[] key) {
+        int at = stringsStart + ref;
+        int length = index.getInt(at);
+        at += 4;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(index.get(at + i) & 0xFF, key[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static ByteBuffer map(Path sidecar) throws IOException {
+        try (FileChannel channel = FileChannel.open(sidecar,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("ID index too large: " + sidecar);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+    }
+
+    private static void build(Path file, Collection<String> names,
+                              Path sidecar) throws IOException {
+        Builder builder = new Builder(names);
+        long size;
+        long modified;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            size = channel.size();
+            modified = Files.getLastModifiedTime(file).toMillis();
+            builder.channel = channel;
+            builder.encoding = MarkupScanner.declaredEncoding(
+                    RecordIndex.head(channel));
+            builder.charset = builder.encoding == null ? StandardCharsets.UTF_8
+                    : Charset.forName(builder.encoding);
+            MarkupScanner.scan(channel, 0, size, builder);
+        }
+        RecordIndex.writeSidecar(sidecar,
+                out -> builder.write(out, size, modified));
+    }
+
+    /**
+     * where an element is in the file
+     */
+    public static final class Location {
+        private final long start;
+        private final long end;
+        private final String name;
+        private final String namespaces;
+
+        Location(long start, long end, String name, String namespaces) {
+            this.start = start;
+            this.end = end;
+            this.name = name;
+            this.namespaces = namespaces;
+        }
+
+        /**
+         * where the element starts
+         *
+         * @return the offset of its {@code <}
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * where the element ends
+         *
+         * @return the offset after its last {@code >}
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * the element's qualified name
+         *
+         * @return the name, as in the file
+         */
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + start + "–" + end;
+        }
+    }
+
+    /**
+     * collects the entries during the scan and writes the sidecar
+     */
+    private static final class Builder implements MarkupScanner.Handler {
+        private final Set<String> names;
+        private FileChannel channel;
+        private String encoding;
+        private Charset charset;
+        private String doctype = "";
+        /**
+         * the namespace context of each open element, and its entry or -1
+         */
+        private final List<String> open = new ArrayList<>();
+        private int[] openEntries = new int[64];
+        private final List<Entry> entries = new ArrayList<>();
+        private final Map<String, Integer> contextIds = new HashMap<>();
+        private final List<String> contexts = new ArrayList<>();
+
+        Builder(Collection<String> names) {
+            this.names = new HashSet<>(names);
+        }
+
+        @Override
+        public void startTag(long start, long end, byte[] tag, int length,
+                             boolean empty) {
+            String outer = open.isEmpty() ? "" : open.get(open.size() - 1);
+            String context = MarkupScanner.inScope(outer,
+                    MarkupScanner.declarations(tag, length));
+            String id = MarkupScanner.attribute(tag, length, XML_ID, charset);
+            String name = id != null || !names.isEmpty()
+                    ? MarkupScanner.name(tag, length) : null;
+            int entry = -1;
+            if (id != null || names.contains(name)) {
+                Integer contextId = contextIds.get(outer);
+                if (contextId == null) {
+                    contextId = contexts.size();
+                    contexts.add(outer);
+                    contextIds.put(outer, contextId);
+                }
+                entry = entries.size();
+                entries.add(new Entry(id, names.contains(name), name,
+                        contextId, start, end));
+            }
+            if (!empty) {
+                if (open.size() == openEntries.length) {
+                    openEntries = Arrays.copyOf(openEntries, 2 * open.size());
+                }
+                openEntries[open.size()] = entry;
+                open.add(context);
+            }
+        }
+
+        @Override
+        public void endTag(long start, long end) {
+            if (open.isEmpty()) {
+                return;
+            }
+            int entry = openEntries[open.size() - 1];
+            open.remove(open.size() - 1);
+            if (entry >= 0) {
+                entries.get(entry).end = end;
+            }
+        }
+
+        @Override
+        public void doctype(long start, long end) throws IOException {
+            doctype = RecordIndex.markup(channel, start, end);
+        }
+
+        void write(DataOutputStream out, long size, long modified)
+                throws IOException {
+            Strings strings = new Strings();
+            List<Entry> byId = new ArrayList<>();
+            List<Entry> byName = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.id != null) {
+                    entry.idBytes = entry.id.getBytes(StandardCharsets.UTF_8);
+                    byId.add(entry);
+                }
+                if (entry.named) {
+                    byName.add(entry);
+                }
+            }
+            byId.sort((a, b) -> Arrays.compareUnsigned(a.idBytes, b.idBytes));
+            // one entry per ID, marked if ambiguous
+            List<Entry> unique = new ArrayList<>(byId.size());
+            for (Entry entry : byId) {
+                Entry last = unique.isEmpty() ? null
+                        : unique.get(unique.size() - 1);
+                if (last != null && Arrays.equals(last.idBytes,
+                        entry.idBytes)) {
+                    last.flags |= AMBIGUOUS;
+                } else {
+                    unique.add(entry);
+                }
+            }
+            byName.sort((a, b) -> a.name.equals(b.name)
+                    ? Long.compare(a.start, b.start)
+                    : Arrays.compareUnsigned(
+                    a.name.getBytes(StandardCharsets.UTF_8),
+                    b.name.getBytes(StandardCharsets.UTF_8)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeInt(unique.size());
+            out.writeInt(byName.size());
+            out.writeInt(contexts.size());
+            out.writeInt(encoding == null ? -1
+                    : strings.add(encoding.getBytes(MarkupScanner.RAW)));
+            out.writeInt(strings.add(doctype.getBytes(MarkupScanner.RAW)));
+            out.writeInt(strings.add(String.join("\n", names)
+                    .getBytes(StandardCharsets.UTF_8)));
+            for (String context : contexts) {
+                out.writeInt(strings.add(context.getBytes(MarkupScanner.RAW)));
+            }
+            for (Entry entry : unique) {
+                entry.write(out, strings.add(entry.idBytes), strings);
+            }
+            for (Entry entry : byName) {
+                entry.write(out, strings.add(entry.name.getBytes(
+                        StandardCharsets.UTF_8)), strings);
+            }
+            strings.bytes.writeTo(out);
+        }
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final boolean named;
+        private final String name;
+        private final int context;
+        private final long start;
+        private long end;
+        private byte[] idBytes;
+        private int flags;
+
+        Entry(String id, boolean named, String name, int context, long start,
+              long end) {
+            this.id = id;
+            this.named = named;
+            this.name = name;
+            this.context = context;
+            this.start = start;
+            this.end = end;
+        }
+
+        void write(DataOutputStream out, int key, Strings strings)
+                throws IOException {
+            out.writeInt(key);
+            out.writeInt(strings.add(name.getBytes(StandardCharsets.UTF_8)));
+            out.writeInt(context);
+            out.writeInt(flags);
+            out.writeLong(start);
+            out.writeLong(end);
+        }
+    }
+
+    /**
+     * the string table: each string once, as its length and its bytes
+     */
+    private static final class Strings {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Map<ByteBuffer, Integer> refs = new HashMap<>();
+
+        int add(byte[] string) {
+            ByteBuffer key = ByteBuffer.wrap(string);
+            Integer ref = refs.get(key);
+            if (ref == null) {
+                ref = bytes.size();
+                refs.put(key, ref);
+                bytes.write(string.length >>> 24);
+                bytes.write(string.length >>> 16);
+                bytes.write(string.length >>> 8);
+                bytes.write(string.length);
+                bytes.write(string, 0, string.length);
+            }
+            return ref;
+        }
+    }
+
+}
@@ -0,0 +1,465 @@
+package org.korpora.useful;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * SHA-256 content fingerprints of DOM subtrees, Merkle-style: the
+ * fingerprint of an element combines its name, its attributes, its text
+ * and the fingerprints of its child elements
+ *
+ * <p>
+ * Fingerprints depend on content only: namespace prefixes and
+ * declarations, attribute order, comments, and the split of text into
+ * {@link org.w3c.dom.Text}, CDATA sections and entity references do not
+ * count; white space does. The static methods hash the whole subtree on
+ * each call. To hash unchanged subtrees only once, keep the fingerprints
+ * in a {@link Cache}, which is owned by the caller and holds its nodes
+ * weakly, so the nodes and the cache can be dropped independently.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class Fingerprints {
+    private Fingerprints() {
+    }
+
+    private static final HexFormat HEX = HexFormat.of();
+    private static final Comparator<Attr> BY_NAME =
+            Comparator.<Attr, String>comparing(Fingerprints::namespace)
+                    .thenComparing(Fingerprints::localName);
+
+    private static final byte ELEMENT = 'E';
+    private static final byte DOCUMENT = 'D';
+    private static final byte ATTRIBUTE = 'A';
+    private static final byte TEXT = 'T';
+    private static final byte CHILD = 'C';
+    private static final byte PI = 'P';
+
+    /**
+     * the fingerprint of an element or document, in hexadecimal
+     *
+     * @param node the element or document
+     * @return 64 hex digits
+     */
+    public static String fingerprint(Node node) {
+        return HEX.formatHex(digest(node, new IdentityHashMap<>(), null));
+    }
+
+    /**
+     * the fingerprint of an element or document
+     *
+     * @param node the element or document
+     * @return the 32 bytes of the SHA-256 digest
+     */
+    public static byte[] digest(Node node) {
+        return digest(node, new IdentityHashMap<>(), null);
+    }
+
+    /**
+     * whether two elements or documents have the same content, by
+     * fingerprint
+     *
+     * @param a one node
+     * @param b another node
+     * @return whether
+     */
+    public static boolean sameContent(Node a, Node b) {
+        return sameContent(a, b, new IdentityHashMap<>());
+    }
+
+    private static boolean sameContent(Node a, Node b,
+                                       Map<Node, byte[]> digests) {
+        Hasher hasher = new Hasher();
+        return Arrays.equals(digest(a, digests, hasher),
+                digest(b, digests, hasher));
+    }
+
+    /**
+     * the smallest changed subtrees between two versions of an element:
+     * where two elements differ in name, attributes, text or the sequence
+     * of their child elements, they are reported; otherwise their child
+     * elements are compared pairwise
+     *
+     * @param before the old version
+     * @param after  the new version
+     * @return the changes, in document order; empty if the content is the
+     * same
+     */
+    public static List<Change> diff(Element before, Element after) {
+        return diff(before, after, new IdentityHashMap<>());
+    }
+
+    private static List<Change> diff(Element before, Element after,
+                                     Map<Node, byte[]> digests) {
+        List<Change> changes = new ArrayList<>();
+        diff(before, after, digests, new Hasher(), changes);
+        return changes;
+    }
+
+    private static void diff(Element before, Element after,
+                             Map<Node, byte[]> digests, Hasher hasher,
+                             List<Change> changes) {
+        if (Arrays.equals(digest(before, digests, hasher),
+                digest(after, digests, hasher))) {
+            return;
+        }
+        if (!Arrays.equals(hasher.hash(before, true, digests),
+                hasher.hash(after, true, digests))) {
+            changes.add(new Change(before, after));
+            return;
+        }
+        // same shape, so the child elements correspond one to one
+        List<Element> a = new ArrayList<>();
+        List<Element> b = new ArrayList<>();
+        childElements(before, a);
+        childElements(after, b);
+        for (int i = 0; i < a.size(); i++) {
+            diff(a.get(i), b.get(i), digests, hasher, changes);
+        }
+    }
+
+    /**
+     * the child elements, looking into entity references
+     */
+    private static void childElements(Node parent, List<Element> into) {
+        for (Node c = parent.getFirstChild(); c != null;
+             c = c.getNextSibling()) {
+            if (c.getNodeType() == Node.ELEMENT_NODE) {
+                into.add((Element) c);
+            } else if (c.getNodeType() == Node.ENTITY_REFERENCE_NODE) {
+                childElements(c, into);
+            }
+        }
+    }
+
+    /**
+     * the fingerprint from the digests, computing it and those of the
+     * descendants if needed
+     */
+    private static byte[] digest(Node node, Map<Node, byte[]> digests,
+                                 Hasher hasher) {
+        byte[] cached = digests.get(node);
+        if (cached != null) {
+            return cached;
+        }
+        if (node.getNodeType() != Node.ELEMENT_NODE
+                && node.getNodeType() != Node.DOCUMENT_NODE) {
+            throw new IllegalArgumentException(
+                    "not an element or document: " + node.getNodeName());
+        }
+        if (hasher == null) {
+            hasher = new Hasher();
+        }
+        // children first, so one MessageDigest will do
+        computeChildren(node, digests, hasher);
+        byte[] digest = hasher.hash(node, false, digests);
+        digests.put(node, digest);
+        return digest;
+    }
+
+    private static void computeChildren(Node parent,
+                                        Map<Node, byte[]> digests,
+                                        Hasher hasher) {
+        for (Node c = parent.getFirstChild(); c != null;
+             c = c.getNextSibling()) {
+            if (c.getNodeType() == Node.ELEMENT_NODE) {
+                digest(c, digests, hasher);
+            } else if (c.getNodeType() == Node.ENTITY_REFERENCE_NODE) {
+                computeChildren(c, digests, hasher);
+            }
+        }
+    }
+
+    private static String namespace(Node node) {
+        String ns = node.getNamespaceURI();
+        return ns == null ? "" : ns;
+    }
+
+    private static String localName(Node node) {
+        String local = node.getLocalName();
+        return local == null ? node.getNodeName() : local;
+    }
+
+    /**
+     * fingerprints kept between calls, so that each unchanged subtree is
+     * hashed only once
+     *
+     * <p>
+     * The cache holds its nodes weakly, so it does not keep removed
+     * subtrees alive, and it is not thread-safe, like the DOM. It does not
+     * notice changes: after changing a node, call
+     * {@link #invalidate(Node)} on it, which also drops the fingerprints of
+     * its ancestors.
+     * </p>
+     */
+    public static final class Cache {
+        private final Map<Node, byte[]> digests = new WeakHashMap<>();
+
+        /**
+         * the fingerprint of an element or document, in hexadecimal
+         *
+         * @param node the element or document
+         * @return 64 hex digits
+         */
+        public String fingerprint(Node node) {
+            return HEX.formatHex(Fingerprints.digest(node, digests, null));
+        }
+
+        /**
+         * the fingerprint of an element or document
+         *
+         * @param node the element or document
+         * @return the 32 bytes of the SHA-256 digest, a copy
+         */
+        public byte[] digest(Node node) {
+            return Fingerprints.digest(node, digests, null).clone();
+        }
+
+        /**
+         * whether two elements or documents have the same content, by
+         * fingerprint
+         *
+         * @param a one node
+         * @param b another node
+         * @return whether
+         */
+        public boolean sameContent(Node a, Node b) {
+            return Fingerprints.sameContent(a, b, digests);
+        }
+
+        /**
+         * the smallest changed subtrees between two versions of an
+         * element, see {@link Fingerprints#diff(Element, Element)}
+         *
+         * @param before the old version
+         * @param after  the new version
+         * @return the changes, in document order
+         */
+        public List<Change> diff(Element before, Element after) {
+            return Fingerprints.diff(before, after, digests);
+        }
+
+        /**
+         * drop the cached fingerprints of a changed node and its
+         * ancestors; for changed attributes and text, pass the attribute
+         * or text node itself or its element
+         *
+         * @param node the node
+         */
+        public void invalidate(Node node) {
+            Node n = node.getNodeType() == Node.ATTRIBUTE_NODE
+                    ? ((Attr) node).getOwnerElement() : node;
+            for (; n != null; n = n.getParentNode()) {
+                digests.remove(n);
+            }
+        }
+
+        /**
+         * drop the cached fingerprints of all elements in a subtree and of
+         * its ancestors, e.g. after many changes
+         *
+         * @param node the root of the subtree
+         */
+        public void invalidateAll(Node node) {
+            invalidate(node);
+            DOMTraversal.descendants(node).forEach(digests::remove);
+        }
+
+        /**
+         * drop all cached fingerprints
+         */
+        public void clear() {
+            digests.clear();
+        }
+    }
+
+    /**
+     * a changed subtree
+     */
+    public static final class Change {
+        private final Element before;
+        private final Element after;
+
+        Change(Element before, Element after) {
+            this.before = before;
+            this.after = after;
+        }
+
+        /**
+         * the old version
+         *
+         * @return the element
+         */
+        public Element getBefore() {
+            return before;
+        }
+
+        /**
+         * the new version
+         *
+         * @return the element
+         */
+        public Element getAfter() {
+            return after;
+        }
+
+        @Override
+        public String toString() {
+            return before.getNodeName() + " -> " + after.getNodeName();
+        }
+    }
+
+    /**
+     * feeds the canonical form of one node at a time to a digest
+     */
+    private static final class Hasher {
+        private final MessageDigest md;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8
+                .newEncoder().onMalformedInput(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(1024);
+        private final StringBuilder text = new StringBuilder();
+
+        Hasher() {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform has SHA-256
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * the digest of a node whose children have their fingerprints in
+         * the digests
+         *
+         * @param shallow whether to take child elements by name only
+         */
+        byte[] hash(Node node, boolean shallow, Map<Node, byte[]> digests) {
+            md.reset();
+            if (node.getNodeType() == Node.DOCUMENT_NODE) {
+                md.update(DOCUMENT);
+            } else {
+                md.update(ELEMENT);
+                string(namespace(node));
+                string(localName(node));
+                attributes(((Element) node).getAttributes());
+            }
+            content(node, shallow, digests);
+            flushText();
+            return md.digest();
+        }
+
+        private void attributes(NamedNodeMap map) {
+            int n = map.getLength();
+            Attr[] attrs = new Attr[n];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                Attr attr = (Attr) map.item(i);
+                if (!"http://www.w3.org/2000/xmlns/".equals(
+                        attr.getNamespaceURI())
+                        && !attr.getNodeName().equals("xmlns")
+                        && !attr.getNodeName().startsWith("xmlns:")) {
+                    attrs[count++] = attr;
+                }
+            }
+            Arrays.sort(attrs, 0, count, BY_NAME);
+            for (int i = 0; i < count; i++) {
+                md.update(ATTRIBUTE);
+                string(namespace(attrs[i]));
+                string(localName(attrs[i]));
+                string(attrs[i].getValue());
+            }
+        }
+
+        private void content(Node parent, boolean shallow,
+                             Map<Node, byte[]> digests) {
+            for (Node c = parent.getFirstChild(); c != null;
+                 c = c.getNextSibling()) {
+                switch (c.getNodeType()) {
+                    case Node.TEXT_NODE:
+                    case Node.CDATA_SECTION_NODE:
+                        text.append(c.getNodeValue());
+                        break;
+                    case Node.ENTITY_REFERENCE_NODE:
+                        content(c, shallow, digests);
+                        break;
+                    case Node.ELEMENT_NODE:
+                        flushText();
+                        md.update(CHILD);
+                        if (shallow) {
+                            string(namespace(c));
+                            string(localName(c));
+                        } else {
+                            md.update(digests.get(c));
+                        }
+                        break;
+                    case Node.PROCESSING_INSTRUCTION_NODE:
+                        flushText();
+                        md.update(PI);
+                        string(((ProcessingInstruction) c).getTarget());
+                        string(((ProcessingInstruction) c).getData());
+                        break;
+                    default:
+                        // comments and the DOCTYPE do not count
+                        break;
+                }
+            }
+        }
+
+        private void flushText() {
+            if (text.length() > 0) {
+                md.update(TEXT);
+                string(text);
+                text.setLength(0);
+            }
+        }
+
+        /**
+         * a string as its length in chars and its UTF-8 bytes, so that
+         * consecutive strings cannot run into each other
+         */
+        private void string(CharSequence s) {
+            int length = s.length();
+            md.update((byte) (length >>> 24));
+            md.update((byte) (length >>> 16));
+            md.update((byte) (length >>> 8));
+            md.update((byte) length);
+            CharBuffer chars = CharBuffer.wrap(s);
+            encoder.reset();
+            CoderResult result;
+            do {
+                bytes.clear();
+                result = encoder.encode(chars, bytes, true);
+                bytes.flip();
+                md.update(bytes);
+            } while (result.isOverflow());
+            bytes.clear();
+            encoder.flush(bytes);
+            bytes.flip();
+            md.update(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.sax.SAXEngine;
+import org.xml.sax.InputSource;
+
+/**
+ * utility class for parsing XML fragments, i.e. mixed content without a
+ * single root element, to JDOM {@link Content} lists
+ *
+ * <p>
+ * The fragment is read straight from its {@link CharSequence} through a
+ * {@link Reader} that adds a wrapper element around it, so it is not
+ * copied into a new string first. The {@link SAXEngine}s doing the parsing
+ * are pooled, so no parser is set up per fragment. {@link #parseAll(List)}
+ * parses many fragments as one document, which is cheaper still when
+ * there are many short fragments.
+ * </p>
+ *
+ * @author bfi
+ * @see XMLUtilities#makeContentList(String)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class FragmentParser {
+    private FragmentParser() {
+    }
+
+    private static final String WRAPPER = "X";
+    private static final String START = "<" + WRAPPER + ">";
+    private static final String END = "</" + WRAPPER + ">";
+
+    private static final SAXBuilder BUILDER = new SAXBuilder();
+
+    static {
+        BUILDER.setEntityResolver(CachingResolver.getDefault());
+    }
+
+    private static final ObjectPool<SAXEngine> ENGINES = new ObjectPool<>(
+            XMLProcessors.DEFAULT_POOL_SIZE, engine -> {
+    });
+
+    /**
+     * parse an XML fragment
+     *
+     * @param fragment the fragment
+     * @return the detached content
+     * @throws JDOMException if the fragment is not well-formed
+     */
+    public static List<Content> parse(CharSequence fragment)
+            throws JDOMException {
+        return parse(fragment, 0, fragment.length());
+    }
+
+    /**
+     * parse a region of a {@link CharSequence} as an XML fragment
+     *
+     * @param text  the text
+     * @param start where the fragment starts
+     * @param end   where the fragment ends (exclusive)
+     * @return the detached content
+     * @throws JDOMException if the fragment is not well-formed
+     */
+    public static List<Content> parse(CharSequence text, int start, int end)
+            throws JDOMException {
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException(
+                    "region " + start + "-" + end + " of " + text.length());
+        }
+        FragmentReader reader = new FragmentReader(1, false);
+        reader.add(text, start, end);
+        return build(reader).removeContent();
+    }
+
+    /**
+     * parse many XML fragments in one go
+     *
+     * <p>
+     * If any fragment is not well-formed, the whole batch fails.
+     * </p>
+     *
+     * @param fragments the fragments
+     * @return the detached content of each fragment, in input order
+     * @throws JDOMException if a fragment is not well-formed
+     */
+    public static List<List<Content>> parseAll(
+            List<? extends CharSequence> fragments) throws JDOMException {
+        if (fragments.isEmpty()) {
+            return Collections.emptyList();
+        }
+        FragmentReader reader = new FragmentReader(fragments.size(), true);
+        for (CharSequence fragment : fragments) {
+            reader.add(fragment, 0, fragment.length());
+        }
+        Element root = build(reader);
+        List<List<Content>> result = new ArrayList<>(fragments.size());
+        for (Element wrapper : root.getChildren()) {
+            result.add(wrapper.removeContent());
+        }
+        return result;
+    }
+
+    /**
+     * parse a complete XML document from a {@link Reader} with a pooled
+     * {@link SAXEngine}
+     *
+     * @param reader the document
+     * @return the document
+     * @throws JDOMException if the document is not well-formed
+     * @throws IOException   if reading fails
+     */
+    static org.jdom2.Document build(Reader reader)
+            throws JDOMException, IOException {
+        SAXEngine engine = borrowEngine();
+        try {
+            return engine.build(reader);
+        } finally {
+            ENGINES.release(engine);
+        }
+    }
+
+    /**
+     * parse a complete XML document with a pooled {@link SAXEngine}
+     *
+     * @param input the document
+     * @return the document
+     * @throws JDOMException if the document is not well-formed
+     * @throws IOException   if reading fails
+     */
+    static org.jdom2.Document build(InputSource input)
+            throws JDOMException, IOException {
+        SAXEngine engine = borrowEngine();
+        try {
+            return engine.build(input);
+        } finally {
+            ENGINES.release(engine);
+        }
+    }
+
+    private static SAXEngine borrowEngine() throws JDOMException {
+        SAXEngine engine = ENGINES.poll();
+        if (engine == null) {
+            // SAXBuilder is not thread-safe
+            synchronized (BUILDER) {
+                engine = BUILDER.buildEngine();
+            }
+        }
+        return engine;
+    }
+
+    private static Element build(FragmentReader reader) throws JDOMException {
+        try {
+            return build((Reader) reader).detachRootElement();
+        } catch (IOException e) {
+            // cannot happen for in-memory text
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * reads {@code <X>}, then each region, wrapped in {@code <X>…</X>} in
+     * batch mode, then {@code </X>}
+     */
+    private static final class FragmentReader extends Reader {
+        private final CharSequence[] texts;
+        private final int[] starts;
+        private final int[] ends;
+        private final boolean wrapped;
+        private int count;
+        /**
+         * current segment: -1 for the outer start tag, then three per
+         * region (start tag, text, end tag) if wrapped, else one
+         */
+        private int segment = -1;
+        private int position;
+
+        FragmentReader(int capacity, boolean wrapped) {
+            this.wrapped = wrapped;
+            texts = new CharSequence[capacity];
+            starts = new int[capacity];
+            ends = new int[capacity];
+        }
+
+        void add(CharSequence text, int start, int end) {
+            texts[count] = text;
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        private int segments() {
+            return wrapped ? 3 * count : count;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int read = 0;
+            while (read < length && segment <= segments()) {
+                CharSequence text;
+                int start;
+                int end;
+                if (segment == -1 || segment == segments()) {
+                    text = segment == -1 ? START : END;
+                    start = 0;
+                    end = text.length();
+                } else if (!wrapped) {
+                    text = texts[segment];
+                    start = starts[segment];
+                    end = ends[segment];
+                } else {
+                    int region = segment / 3;
+                    switch (segment % 3) {
+                        case 0:
+                            text = START;
+                            start = 0;
+                            end = START.length();
+                            break;
+                        case 1:
+                            text = texts[region];
+                            start = starts[region];
+                            end = ends[region];
+                            break;
+                        default:
+                            text = END;
+                            start = 0;
+                            end = END.length();
+                    }
+                }
+                int from = start + position;
+                int n = Math.min(end - from, length - read);
+                copy(text, from, from + n, buffer, offset + read);
+                read += n;
+                position += n;
+                if (from + n == end) {
+                    segment++;
+                    position = 0;
+                }
+            }
+            return read == 0 ? -1 : read;
+        }
+
+        private static void copy(CharSequence text, int from, int to,
+                                 char[] buffer, int offset) {
+            if (text instanceof String) {
+                ((String) text).getChars(from, to, buffer, offset);
+            } else if (text instanceof StringBuilder) {
+                ((StringBuilder) text).getChars(from, to, buffer, offset);
+            } else {
+                for (int i = from; i < to; i++) {
+                    buffer[offset++] = text.charAt(i);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+    }
+
+}
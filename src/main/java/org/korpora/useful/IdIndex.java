@@ -0,0 +1,182 @@
+package org.korpora.useful;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * an index of the IDs in a DOM {@link Document}, built in a single walk
+ * over the tree and attached to the document as user data
+ *
+ * <p>
+ * {@code xml:id} takes precedence: an ID is first looked up among the
+ * {@code xml:id} attributes, then among all attributes with local name
+ * {@code id}. An ID occurring on more than one element is ambiguous. The
+ * index does not notice changes to the document; call
+ * {@link #invalidate(Document)} after adding, removing or changing IDs.
+ * </p>
+ *
+ * @author bfi
+ * @see XMLUtilities#getElementByIDCached(Document, String)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class IdIndex {
+
+    private static final String USER_DATA_KEY = IdIndex.class.getName();
+
+    private final Map<String, Element> xmlIds = new HashMap<>();
+    private final Map<String, Element> anyIds = new HashMap<>();
+    private final Set<String> ambiguousXmlIds = new HashSet<>();
+    private final Set<String> ambiguousAnyIds = new HashSet<>();
+    /**
+     * the only ID to index, or {@code null} for all
+     */
+    private final String only;
+
+    private IdIndex(Document doc, String only) {
+        this.only = only;
+        Node node = doc.getDocumentElement();
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                add((Element) node);
+            }
+            // depth-first, without recursion
+            Node next = node.getFirstChild();
+            while (next == null && node != null) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                    if (node == doc) {
+                        node = null;
+                    }
+                }
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * get the index of a {@link Document}, building it on first use
+     *
+     * @param doc the document
+     * @return its index
+     */
+    public static IdIndex of(Document doc) {
+        Object index = doc.getUserData(USER_DATA_KEY);
+        if (index == null) {
+            synchronized (doc) {
+                index = doc.getUserData(USER_DATA_KEY);
+                if (index == null) {
+                    index = new IdIndex(doc, null);
+                    doc.setUserData(USER_DATA_KEY, index, null);
+                }
+            }
+        }
+        return (IdIndex) index;
+    }
+
+    /**
+     * look up one ID in a single walk over the document, without keeping
+     * an index
+     *
+     * @param doc the document
+     * @param id  the ID
+     * @return the element, or {@code null} if there is none
+     * @throws RuntimeException if the ID is ambiguous
+     */
+    static Element find(Document doc, String id) {
+        return new IdIndex(doc, id).get(id);
+    }
+
+    /**
+     * drop the index of a {@link Document}, e.g. after changing it; the
+     * next lookup will rebuild it
+     *
+     * @param doc the document
+     */
+    public static void invalidate(Document doc) {
+        synchronized (doc) {
+            doc.setUserData(USER_DATA_KEY, null, null);
+        }
+    }
+
+    /**
+     * get the element with an ID
+     *
+     * @param id the ID
+     * @return the element, or {@code null} if there is none
+     * @throws RuntimeException if the ID is ambiguous
+     */
+    public Element get(String id) {
+        if (ambiguousXmlIds.contains(id)) {
+            throw new RuntimeException("ambiguous ID " + id);
+        }
+        Element el = xmlIds.get(id);
+        if (el != null) {
+            return el;
+        }
+        if (ambiguousAnyIds.contains(id)) {
+            throw new RuntimeException("ambiguous ID " + id);
+        }
+        return anyIds.get(id);
+    }
+
+    /**
+     * whether an ID occurs in the document
+     *
+     * @param id the ID
+     * @return whether
+     */
+    public boolean contains(String id) {
+        return anyIds.containsKey(id);
+    }
+
+    private void add(Element el) {
+        NamedNodeMap attributes = el.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            String ns = attr.getNamespaceURI();
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(ns)
+                    || !"id".equals(localName(attr))) {
+                continue;
+            }
+            String value = attr.getValue();
+            if (only != null && !only.equals(value)) {
+                continue;
+            }
+            if (XMLConstants.XML_NS_URI.equals(ns)) {
+                put(xmlIds, ambiguousXmlIds, value, el);
+            }
+            put(anyIds, ambiguousAnyIds, value, el);
+        }
+    }
+
+    private static void put(Map<String, Element> ids, Set<String> ambiguous,
+                            String id, Element el) {
+        Element old = ids.putIfAbsent(id, el);
+        // an element with the same value in two ID attributes counts once
+        if (old != null && old != el) {
+            ambiguous.add(id);
+        }
+    }
+
+    private static String localName(Attr attr) {
+        String localName = attr.getLocalName();
+        if (localName == null) {
+            // not namespace-aware
+            String name = attr.getName();
+            localName = name.substring(name.indexOf(':') + 1);
+        }
+        return localName;
+    }
+
+}
@@ -0,0 +1,136 @@
+package org.korpora.useful;
+
+import java.util.List;
+
+import org.jdom2.Attribute;
+import org.jdom2.AttributeType;
+import org.jdom2.Content;
+import org.jdom2.DocType;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.ProcessingInstruction;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * walk a JDOM tree and report it as SAX events
+ *
+ * <p>
+ * This does what {@link org.jdom2.output.SAXOutputter} does for content
+ * and lexical events, but reuses its buffers; SAXOutputter on its own
+ * makes about as much garbage as building the DOM.
+ * </p>
+ *
+ * @author bfi
+ */
+final class JDOMSAXEmitter extends SAXEmitter {
+
+    private JDOMSAXEmitter(ContentHandler content, LexicalHandler lexical) {
+        super(content, lexical);
+    }
+
+    /**
+     * report a JDOM document
+     *
+     * @param doc     the document
+     * @param content where the events go
+     * @param lexical where comments, CDATA and the DOCTYPE go, or
+     *                {@code null}
+     * @throws SAXException if the handlers throw it
+     */
+    static void emit(Document doc, ContentHandler content,
+                     LexicalHandler lexical) throws SAXException {
+        JDOMSAXEmitter emitter = new JDOMSAXEmitter(content, lexical);
+        content.startDocument();
+        for (int i = 0; i < doc.getContentSize(); i++) {
+            emitter.emitContent(doc.getContent(i));
+        }
+        content.endDocument();
+    }
+
+    /**
+     * report a JDOM element as a complete document, declaring the
+     * namespaces it needs
+     *
+     * @param el      the element
+     * @param content where the events go
+     * @param lexical where comments and CDATA go, or {@code null}
+     * @throws SAXException if the handlers throw it
+     */
+    static void emit(Element el, ContentHandler content,
+                     LexicalHandler lexical) throws SAXException {
+        JDOMSAXEmitter emitter = new JDOMSAXEmitter(content, lexical);
+        content.startDocument();
+        emitter.emitElement(el);
+        content.endDocument();
+    }
+
+    private void emitContent(Content node) throws SAXException {
+        switch (node.getCType()) {
+            case Element:
+                emitElement((Element) node);
+                break;
+            case Text:
+                characters(node.getValue());
+                break;
+            case CDATA:
+                cdata(node.getValue());
+                break;
+            case Comment:
+                comment(node.getValue());
+                break;
+            case ProcessingInstruction:
+                ProcessingInstruction pi = (ProcessingInstruction) node;
+                content.processingInstruction(pi.getTarget(), pi.getData());
+                break;
+            case EntityRef:
+                content.skippedEntity(((org.jdom2.EntityRef) node).getName());
+                break;
+            case DocType:
+                DocType type = (DocType) node;
+                docType(type.getElementName(), type.getPublicID(),
+                        type.getSystemID());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void emitElement(Element el) throws SAXException {
+        int scope = bindings;
+        List<Namespace> additional = el.getAdditionalNamespaces();
+        for (int i = 0; i < additional.size(); i++) {
+            Namespace ns = additional.get(i);
+            declare(ns.getPrefix(), ns.getURI());
+        }
+        declare(el.getNamespacePrefix(), el.getNamespaceURI());
+        attributes.clear();
+        if (el.hasAttributes()) {
+            List<Attribute> attrs = el.getAttributes();
+            for (int i = 0; i < attrs.size(); i++) {
+                Attribute attr = attrs.get(i);
+                String uri = attr.getNamespaceURI();
+                if (!uri.isEmpty()) {
+                    declare(attr.getNamespacePrefix(), uri);
+                }
+                AttributeType type = attr.getAttributeType();
+                attributes.addAttribute(uri, attr.getName(),
+                        attr.getQualifiedName(),
+                        type == AttributeType.UNDECLARED ? CDATA : type.name(),
+                        attr.getValue());
+            }
+        }
+        String uri = el.getNamespaceURI();
+        String localName = el.getName();
+        String qName = el.getQualifiedName();
+        content.startElement(uri, localName, qName, attributes);
+        for (int i = 0; i < el.getContentSize(); i++) {
+            emitContent(el.getContent(i));
+        }
+        content.endElement(uri, localName, qName);
+        endScope(scope);
+    }
+
+}
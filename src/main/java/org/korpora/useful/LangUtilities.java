@@ -1,9 +1,7 @@
 package org.korpora.useful;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
@@ -22,10 +20,6 @@ public class LangUtilities {
     private LangUtilities() {
     }
 
-    private static final String LANGNAMES_PATH = "languages-639-most-tolerant.json";
-    private static final String LANGCODES_3_PATH = "language-codes-three-letters.txt";
-    private static final String LANGCODES_2_PATH = "language-codes-two-letters.txt";
-    private static final String LANGCODES_2_3_PATH = "language-list-639-1-to-639-2.json";
     private static final String LANGCODES_NAMES_PATH = "language-list-639-1-and-639-2.json";
 
     /**
@@ -36,70 +30,35 @@ public class LangUtilities {
 
     /**
      * map from language names / letter triples/tuples to ISO-639-1 code
-     * terminological ISO-639-2 code.
+     * terminological ISO-639-2 code, for lookups that allocate nothing
      */
-    private static final Map<String, String> languageMap;
+    private static final LanguageIndex languageIndex;
 
     private static final Map<String, String> twoToThree;
     /**
      * valid terminological ISO-639-2 three-letter codes, including
      * bibliographic variants
      */
-    private static final Set<String> languageCodesThree = new HashSet<>();
+    private static final Set<String> languageCodesThree;
     /**
      * valid terminological ISO-639-1 two-letter codes
      */
-    private static final Set<String> languageCodesTwo = new HashSet<>();
+    private static final Set<String> languageCodesTwo;
     /**
      * map shortest code to language names
      */
     private static Map<String, Map<String, String[]>> languageCodesNames;
 
     /*
-     * prepare variables
+     * prepare variables, from the snapshot of the language resources made
+     * by the build, see LanguageTables
      */
     static {
-        ObjectMapper mapper = new ObjectMapper();
-        try (InputStream str = LangUtilities.class.getClassLoader()
-                .getResourceAsStream(LANGNAMES_PATH)) {
-            languageMap = mapper.readValue(str,
-                    new TypeReference<Map<String, String>>() {
-                    });
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage());
-        }
-        try (InputStream str = LangUtilities.class.getClassLoader()
-                .getResourceAsStream(LANGCODES_2_3_PATH)) {
-            twoToThree = mapper.readValue(str,
-                    new TypeReference<Map<String, String>>() {
-                    });
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage());
-        }
-    }
-
-    static {
-        try (InputStream str = LangUtilities.class.getClassLoader()
-                .getResourceAsStream(LANGCODES_3_PATH)) {
-            assert str != null;
-            InputStreamReader strR = new InputStreamReader(str);
-            BufferedReader strRR = new BufferedReader(strR);
-            strRR.lines().forEach(languageCodesThree::add);
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage());
-        }
-    }
-
-    static {
-        try (InputStream str = LangUtilities.class.getClassLoader()
-                .getResourceAsStream(LANGCODES_2_PATH)) {
-            assert str != null;
-            InputStreamReader strR = new InputStreamReader(str);
-            BufferedReader strRR = new BufferedReader(strR);
-            strRR.lines().forEach(languageCodesTwo::add);
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage());
-        }
+        LanguageTables tables = LanguageTables.load();
+        languageIndex = tables.names;
+        twoToThree = tables.twoToThree;
+        languageCodesThree = tables.codesThree;
+        languageCodesTwo = tables.codesTwo;
     }
 
     public static void setupNames (){
@@ -117,15 +76,21 @@ public class LangUtilities {
         }
     }
     /**
-     * split a potential language locale, keeping only the first part
+     * look up the language of a potential language locale, e.g. "de" in
+     * "de-DE", ignoring case; allocates nothing
      *
      * @param lang
-     *     the language string, e.g. "de-DE"
-     * @return the normalized language, e.g. "deu"
+     *     the language string
+     * @param start
+     *     where it starts
+     * @param end
+     *     where it ends
+     * @return the code, or {@code null}
      */
-    private static String splitLang(String lang) {
+    private static String lookUp(CharSequence lang, int start, int end) {
         // allow for "locale" like deu-DE
-        return LOCALE_SEPARATOR.split(lang)[0];
+        return languageIndex.get(lang, start,
+                LanguageIndex.languageEnd(lang, start, end));
     }
 
     /**
@@ -136,8 +101,24 @@ public class LangUtilities {
      * @return whether
      */
     public static boolean isLanguage(String language) {
-        String lang = splitLang(language);
-        return languageMap.containsKey(lang.toLowerCase());
+        return isLanguage(language, 0, language.length());
+    }
+
+    /**
+     * Can we map a part of {@code language} to a standardised ISO 639-1
+     * triple? Allocates nothing.
+     *
+     * @param language
+     *     contains the language name / two- or three-letter code
+     * @param start
+     *     where it starts
+     * @param end
+     *     where it ends
+     * @return whether
+     */
+    public static boolean isLanguage(CharSequence language, int start,
+            int end) {
+        return getLanguageString(language, start, end) != null;
     }
 
     /**
@@ -148,8 +129,7 @@ public class LangUtilities {
      * @return the shortest letter code as an Optional
      */
     public static Optional<String> getLanguage(String language) {
-        String lang = splitLang(language);
-        return Optional.ofNullable(languageMap.get(lang.toLowerCase()));
+        return Optional.ofNullable(getLanguageString(language));
     }
 
     /**
@@ -160,8 +140,28 @@ public class LangUtilities {
      * @return the shortest letter code as string Optional
      */
     public static String getLanguageString(String language) {
-        String lang = splitLang(language);
-        return languageMap.get(lang.toLowerCase());
+        return getLanguageString(language, 0, language.length());
+    }
+
+    /**
+     * Get the ISO-639 two- or three-letter code for a part of
+     * {@code language}, e.g. an attribute value in a buffer, ignoring
+     * locale parts like "-DE"; allocates nothing
+     *
+     * @param language
+     *     contains the language name / two- or three-letter code
+     * @param start
+     *     where it starts
+     * @param end
+     *     where it ends
+     * @return the shortest letter code, or {@code null}
+     */
+    public static String getLanguageString(CharSequence language, int start,
+            int end) {
+        long time = Instrumentation.start();
+        String result = lookUp(language, start, end);
+        Instrumentation.stop(Metrics.Operation.LANGUAGE, time, -1);
+        return result;
     }
 
     /**
@@ -174,7 +174,11 @@ public class LangUtilities {
      * @return the letter code, or the default
      */
     public static String getLanguage(String lang, String defaultL) {
-        return languageMap.getOrDefault(lang.toLowerCase(), defaultL);
+        long start = Instrumentation.start();
+        // the whole of lang, not split like the others
+        String result = languageIndex.get(lang, 0, lang.length());
+        Instrumentation.stop(Metrics.Operation.LANGUAGE, start, -1);
+        return result != null ? result : defaultL;
     }
 
     /**
@@ -202,18 +206,27 @@ public class LangUtilities {
      */
     public static Optional<String> getLanguageLocale(String language,
             int maxComponents, boolean forceThree) {
-        String[] lang = LOCALE_SEPARATOR.split(language);
-        int components = Math.min(maxComponents, lang.length);
-        Optional<String> languageO = Optional
-                .ofNullable(languageMap.get(lang[0].toLowerCase()));
-        if (forceThree && languageO.isPresent()
-                && languageO.get().length() == 2) {
-            languageO = Optional.of(twoToThree.get(languageO.get()));
+        long start = Instrumentation.start();
+        int end = LanguageIndex.languageEnd(language, 0, language.length());
+        String code = languageIndex.get(language, 0, end);
+        if (code == null) {
+            Instrumentation.stop(Metrics.Operation.LANGUAGE, start, -1);
+            return Optional.empty();
+        }
+        Optional<String> languageO = Optional.of(code);
+        if (forceThree && code.length() == 2) {
+            languageO = Optional.of(twoToThree.get(code));
         }
-        if (lang.length > 1) {
-            languageO = languageO.map(s -> s + "-" + String.join("-",
-                    Arrays.copyOfRange(lang, 1, components)));
+        if (end < language.length()) {
+            // only the locale rest needs splitting
+            String[] lang = LOCALE_SEPARATOR.split(language);
+            int components = Math.min(maxComponents, lang.length);
+            if (lang.length > 1) {
+                languageO = languageO.map(s -> s + "-" + String.join("-",
+                        Arrays.copyOfRange(lang, 1, components)));
+            }
         }
+        Instrumentation.stop(Metrics.Operation.LANGUAGE, start, -1);
         return languageO;
     }
 
@@ -281,7 +294,7 @@ public class LangUtilities {
      * @return whether
      */
     public static boolean isLanguageTriple(String language) {
-        return languageCodesThree.contains(language.toLowerCase());
+        return languageCodesThree.contains(language.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -293,7 +306,7 @@ public class LangUtilities {
      * @return whether
      */
     public static boolean isTerminologicalLanguageTriple(String language) {
-        return languageCodesThree.contains(language.toLowerCase());
+        return languageCodesThree.contains(language.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -304,7 +317,7 @@ public class LangUtilities {
      * @return whether
      */
     public static boolean isLanguageTuple(String language) {
-        return languageCodesTwo.contains(language.toLowerCase());
+        return languageCodesTwo.contains(language.toLowerCase(Locale.ROOT));
     }
 
     public static String getName(String code, String inLanguage) {
@@ -0,0 +1,316 @@
+package org.korpora.useful;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * a read-only, case-insensitive map from language names and codes to
+ * language codes, for lookups that allocate nothing
+ *
+ * <p>
+ * The keys are stored lower-cased and back to back in one {@code char[]},
+ * and found by open addressing in a table of at most half load. Lookups
+ * take a range of a {@link CharSequence}, fold its case char by char
+ * while hashing and comparing, and so work directly on attribute values,
+ * buffers and the like, without a {@link String} or
+ * {@link String#toLowerCase()}. Case folding does not depend on the
+ * default locale.
+ * </p>
+ *
+ * @author bfi
+ */
+final class LanguageIndex {
+
+    /**
+     * the lower-cased keys, back to back
+     */
+    private final char[] keys;
+    /**
+     * where key {@code i} starts in {@link #keys}; it ends where key
+     * {@code i + 1} starts
+     */
+    private final int[] starts;
+    /**
+     * the value of key {@code i}
+     */
+    private final String[] values;
+    /**
+     * the hash of key {@code i}
+     */
+    private final int[] hashes;
+    /**
+     * key index + 1 per slot, 0 for an empty slot
+     */
+    private final int[] table;
+
+    /**
+     * make an index from its parts, e.g. as built by {@link #of(Map)}
+     *
+     * @param keys   the lower-cased keys, back to back
+     * @param starts where each key starts, and the end of the last one
+     * @param values the value of each key
+     */
+    LanguageIndex(char[] keys, int[] starts, String[] values) {
+        if (starts.length != values.length + 1
+                || starts[values.length] != keys.length) {
+            throw new IllegalArgumentException("keys and values do not match");
+        }
+        this.keys = keys;
+        this.starts = starts;
+        this.values = values;
+        int n = values.length;
+        hashes = new int[n];
+        table = new int[Math.max(2, Integer.highestOneBit(n * 2 + 1) << 1)];
+        int mask = table.length - 1;
+        for (int i = 0; i < n; i++) {
+            int h = hash(keys, starts[i], starts[i + 1]);
+            hashes[i] = h;
+            int slot = h & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * make an index
+     *
+     * @param map the keys, in any case, and their values
+     * @return the index
+     * @throws IllegalArgumentException if two keys differ only in case
+     */
+    static LanguageIndex of(Map<String, String> map) {
+        int length = 0;
+        for (String key : map.keySet()) {
+            length += key.length();
+        }
+        char[] keys = new char[length];
+        int[] starts = new int[map.size() + 1];
+        String[] values = new String[map.size()];
+        int i = 0;
+        int at = 0;
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            String key = e.getKey();
+            for (int j = 0; j < key.length(); j++) {
+                keys[at + j] = fold(key.charAt(j));
+            }
+            starts[i] = at;
+            values[i] = Objects.requireNonNull(e.getValue());
+            at += key.length();
+            i++;
+        }
+        starts[i] = at;
+        LanguageIndex index = new LanguageIndex(keys, starts, values);
+        if (index.distinctKeys() != map.size()) {
+            throw new IllegalArgumentException("keys differ only in case");
+        }
+        return index;
+    }
+
+    /**
+     * the value of a key, ignoring case
+     *
+     * @param s     contains the key
+     * @param start where the key starts
+     * @param end   where the key ends
+     * @return the value, or {@code null}
+     */
+    String get(CharSequence s, int start, int end) {
+        int k = find(s, start, end);
+        return k < 0 ? null : values[k];
+    }
+
+    private int find(CharSequence s, int start, int end) {
+        Objects.checkFromToIndex(start, end, s.length());
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + fold(s.charAt(i));
+        }
+        h = spread(h);
+        int mask = table.length - 1;
+        int length = end - start;
+        for (int slot = h & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int k = table[slot] - 1;
+            if (hashes[k] == h && starts[k + 1] - starts[k] == length
+                    && matches(s, start, starts[k], length)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * where the language of a locale ends, like "de" in "de-DE" or "nld"
+     * in "nld_BE"
+     *
+     * @param s     contains the locale
+     * @param start where the locale starts
+     * @param end   where the locale ends
+     * @return the position of the first {@code -} or {@code _}, or
+     * {@code end}
+     */
+    static int languageEnd(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '-' || c == '_') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * the number of keys
+     *
+     * @return the number
+     */
+    int size() {
+        return values.length;
+    }
+
+    /**
+     * write the index for {@link #read(ByteBuffer)}: the numbers of keys,
+     * key chars and distinct values, the distinct values, the keys, where
+     * they start, and the number of the value of each key
+     *
+     * @param out where to
+     * @throws IOException if it cannot be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        Map<String, Integer> distinct = new LinkedHashMap<>();
+        for (String value : values) {
+            distinct.putIfAbsent(value, distinct.size());
+        }
+        if (distinct.size() > Character.MAX_VALUE) {
+            throw new IllegalStateException("too many values");
+        }
+        out.writeInt(values.length);
+        out.writeInt(keys.length);
+        out.writeInt(distinct.size());
+        for (String value : distinct.keySet()) {
+            writeString(out, value);
+        }
+        for (char c : keys) {
+            out.writeChar(c);
+        }
+        for (int start : starts) {
+            out.writeInt(start);
+        }
+        for (String value : values) {
+            out.writeChar(distinct.get(value));
+        }
+    }
+
+    /**
+     * read an index written by {@link #write(DataOutputStream)}, copying
+     * the keys and their starts in bulk
+     *
+     * @param in the bytes, positioned at the index, which are consumed
+     * @return the index
+     */
+    static LanguageIndex read(ByteBuffer in) {
+        int n = in.getInt();
+        int length = in.getInt();
+        if (n < 0 || length < 0 || (long) Character.BYTES * length
+                + (long) Integer.BYTES * (n + 1) > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String[] distinct = new String[in.getInt()];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = readString(in);
+        }
+        char[] keys = new char[length];
+        in.asCharBuffer().get(keys);
+        in.position(in.position() + Character.BYTES * length);
+        int[] starts = new int[n + 1];
+        in.asIntBuffer().get(starts);
+        in.position(in.position() + Integer.BYTES * (n + 1));
+        String[] values = new String[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = distinct[in.getChar()];
+        }
+        return new LanguageIndex(keys, starts, values);
+    }
+
+    /**
+     * write a string as its length and its chars
+     *
+     * @param out    where to
+     * @param string the string, shorter than 64 Ki chars
+     * @throws IOException if it cannot be written
+     */
+    static void writeString(DataOutputStream out, String string)
+            throws IOException {
+        out.writeChar(string.length());
+        out.writeChars(string);
+    }
+
+    /**
+     * read a string written by {@link #writeString}
+     *
+     * @param in the bytes, positioned at the string
+     * @return the string
+     */
+    static String readString(ByteBuffer in) {
+        char[] chars = new char[in.getChar()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    private boolean matches(CharSequence s, int start, int at, int length) {
+        for (int i = 0; i < length; i++) {
+            if (fold(s.charAt(start + i)) != keys[at + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the number of keys that are not equal to an earlier key
+     */
+    private int distinctKeys() {
+        CharBuffer all = CharBuffer.wrap(keys);
+        int distinct = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (find(all, starts[i], starts[i + 1]) == i) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    private static int hash(char[] chars, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + chars[i];
+        }
+        return spread(h);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * lower case, ASCII inline, other chars without regard to the default
+     * {@link Locale}
+     */
+    static char fold(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+}
@@ -0,0 +1,264 @@
+package org.korpora.useful;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * the tables of {@link LangUtilities}, read from a binary snapshot that the
+ * build compiles from the JSON and text resources
+ *
+ * <p>
+ * The snapshot spares starting programs Jackson and the parsing: the
+ * language names come as the arrays of a {@link LanguageIndex}, copied in
+ * bulk, the code lists as strings. The snapshot records a checksum of the
+ * resources it was compiled from; without a snapshot, or if the resources
+ * have changed since, e.g. when run from an IDE that copies resources but
+ * skips the build step, the resources are parsed as before. Run
+ * {@link #main(String[])} to write a snapshot; Maven does so in the
+ * {@code process-classes} phase.
+ * </p>
+ *
+ * @author bfi
+ */
+final class LanguageTables {
+
+    /**
+     * the class path resource of the snapshot
+     */
+    static final String SNAPSHOT_PATH = "language-tables.bin";
+
+    private static final String LANGNAMES_PATH = "languages-639-most-tolerant.json";
+    private static final String LANGCODES_3_PATH = "language-codes-three-letters.txt";
+    private static final String LANGCODES_2_PATH = "language-codes-two-letters.txt";
+    private static final String LANGCODES_2_3_PATH = "language-list-639-1-to-639-2.json";
+
+    /**
+     * "LANG"
+     */
+    private static final int MAGIC = 0x4c414e47;
+    private static final int VERSION = 2;
+
+    /**
+     * language names / letter triples/tuples to the shortest code
+     */
+    final LanguageIndex names;
+    /**
+     * two-letter to three-letter codes
+     */
+    final Map<String, String> twoToThree;
+    /**
+     * three-letter codes
+     */
+    final Set<String> codesThree;
+    /**
+     * two-letter codes
+     */
+    final Set<String> codesTwo;
+
+    private LanguageTables(LanguageIndex names, Map<String, String> twoToThree,
+                           Set<String> codesThree, Set<String> codesTwo) {
+        this.names = names;
+        this.twoToThree = twoToThree;
+        this.codesThree = codesThree;
+        this.codesTwo = codesTwo;
+    }
+
+    /**
+     * the tables, from the snapshot if there is a usable one
+     *
+     * @return the tables
+     */
+    static LanguageTables load() {
+        try (InputStream str = resource(SNAPSHOT_PATH)) {
+            if (str != null) {
+                LanguageTables tables = read(
+                        ByteBuffer.wrap(str.readAllBytes()), sourceChecksum());
+                if (tables != null) {
+                    return tables;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return parse();
+    }
+
+    /**
+     * the tables, from the JSON and text resources
+     *
+     * @return the tables
+     */
+    static LanguageTables parse() {
+        ObjectMapper mapper = new ObjectMapper();
+        TypeReference<Map<String, String>> type = new TypeReference<>() {
+        };
+        Map<String, String> languageMap;
+        Map<String, String> twoToThree;
+        try (InputStream str = resource(LANGNAMES_PATH)) {
+            languageMap = mapper.readValue(str, type);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+        try (InputStream str = resource(LANGCODES_2_3_PATH)) {
+            twoToThree = mapper.readValue(str, type);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+        return new LanguageTables(LanguageIndex.of(languageMap), twoToThree,
+                lines(LANGCODES_3_PATH), lines(LANGCODES_2_PATH));
+    }
+
+    private static Set<String> lines(String path) {
+        Set<String> lines = new HashSet<>();
+        try (InputStream str = resource(path)) {
+            assert str != null;
+            new BufferedReader(new InputStreamReader(str,
+                    StandardCharsets.UTF_8)).lines().forEach(lines::add);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+        return lines;
+    }
+
+    private static InputStream resource(String path) {
+        return LanguageTables.class.getClassLoader().getResourceAsStream(path);
+    }
+
+    /**
+     * a CRC-32 of the resources the tables are parsed from, to tell
+     * whether a snapshot is up to date; reading them costs far less than
+     * parsing them
+     *
+     * @return the checksum
+     */
+    static long sourceChecksum() {
+        CRC32 crc = new CRC32();
+        for (String path : new String[]{LANGNAMES_PATH, LANGCODES_2_3_PATH,
+                LANGCODES_3_PATH, LANGCODES_2_PATH}) {
+            try (InputStream str = resource(path)) {
+                if (str == null) {
+                    return -1;
+                }
+                byte[] bytes = str.readAllBytes();
+                crc.update(bytes);
+                // so that bytes cannot move from one file to the next
+                crc.update(ByteBuffer.allocate(Integer.BYTES)
+                        .putInt(0, bytes.length));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * read a snapshot
+     *
+     * @param in       the snapshot
+     * @param checksum the {@link #sourceChecksum()} of the resources
+     * @return the tables, or {@code null} if the snapshot is of another
+     * version, of other resources, or damaged
+     */
+    static LanguageTables read(ByteBuffer in, long checksum) {
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                    || in.getLong() != checksum) {
+                return null;
+            }
+            LanguageIndex names = LanguageIndex.read(in);
+            int n = in.getInt();
+            Map<String, String> twoToThree = new HashMap<>(n * 2);
+            for (int i = 0; i < n; i++) {
+                twoToThree.put(LanguageIndex.readString(in),
+                        LanguageIndex.readString(in));
+            }
+            Set<String> codesThree = readSet(in);
+            Set<String> codesTwo = readSet(in);
+            if (in.hasRemaining()) {
+                return null;
+            }
+            return new LanguageTables(names, twoToThree, codesThree, codesTwo);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    private static Set<String> readSet(ByteBuffer in) {
+        int n = in.getInt();
+        Set<String> set = new HashSet<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            set.add(LanguageIndex.readString(in));
+        }
+        return set;
+    }
+
+    /**
+     * write a snapshot
+     *
+     * @param out where to
+     * @throws IOException if it cannot be written
+     */
+    void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(
+                new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(sourceChecksum());
+        names.write(data);
+        data.writeInt(twoToThree.size());
+        for (Map.Entry<String, String> e : twoToThree.entrySet()) {
+            LanguageIndex.writeString(data, e.getKey());
+            LanguageIndex.writeString(data, e.getValue());
+        }
+        writeSet(data, codesThree);
+        writeSet(data, codesTwo);
+        data.flush();
+    }
+
+    private static void writeSet(DataOutputStream out, Set<String> set)
+            throws IOException {
+        out.writeInt(set.size());
+        for (String s : set) {
+            LanguageIndex.writeString(out, s);
+        }
+    }
+
+    /**
+     * compile the resources on the class path into a snapshot
+     *
+     * @param args the directory to write {@value #SNAPSHOT_PATH} to
+     * @throws IOException if it cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: LanguageTables <output directory>");
+            System.exit(1);
+        }
+        Path file = Paths.get(args[0], SNAPSHOT_PATH);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            parse().write(out);
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.korpora.useful;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a limit on how often a message is logged, for logging inside loops over
+ * large corpora; share one throttle per message, e.g. in a static field
+ *
+ * <p>
+ * A throttle lets either a number of messages per period through, or
+ * every n-th message. It is thread-safe, lock-free and does not allocate.
+ * Suppressed messages are counted, so the next message that gets through
+ * can report them; the {@link Loggable} helpers do that.
+ * </p>
+ *
+ * <pre>{@code
+ * private static final LogThrottle BAD_IDS =
+ *         LogThrottle.perPeriod(10, Duration.ofMinutes(1));
+ * ...
+ * warn(BAD_IDS, "bad ID {}", id);
+ * }</pre>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LogThrottle {
+
+    private final int permits;
+    private final long period;
+    private final int every;
+
+    private final AtomicLong windowStart;
+    private final AtomicInteger used = new AtomicInteger();
+    private final AtomicLong calls = new AtomicLong();
+    private final LongAdder suppressed = new LongAdder();
+
+    private LogThrottle(int permits, long period, int every) {
+        this.permits = permits;
+        this.period = period;
+        this.every = every;
+        windowStart = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * let through at most {@code permits} messages in each period
+     *
+     * @param permits the number of messages
+     * @param period  the period
+     * @return the throttle
+     */
+    public static LogThrottle perPeriod(int permits, Duration period) {
+        if (permits <= 0 || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException(
+                    "permits and period must be positive");
+        }
+        return new LogThrottle(permits, period.toNanos(), 0);
+    }
+
+    /**
+     * let through the first and then every {@code every}-th message
+     *
+     * @param every the sampling interval
+     * @return the throttle
+     */
+    public static LogThrottle sample(int every) {
+        if (every <= 0) {
+            throw new IllegalArgumentException("every must be positive");
+        }
+        return new LogThrottle(0, 0, every);
+    }
+
+    /**
+     * whether to log this message; if not, it is counted as suppressed
+     *
+     * @return whether
+     */
+    public boolean allow() {
+        boolean allowed;
+        if (every > 0) {
+            allowed = calls.getAndIncrement() % every == 0;
+        } else {
+            long now = System.nanoTime();
+            long start = windowStart.get();
+            if (now - start >= period && windowStart.compareAndSet(start, now)) {
+                used.set(0);
+            }
+            int u;
+            do {
+                u = used.get();
+            } while (u < permits && !used.compareAndSet(u, u + 1));
+            allowed = u < permits;
+        }
+        if (!allowed) {
+            suppressed.increment();
+        }
+        return allowed;
+    }
+
+    /**
+     * the number of messages suppressed since the last call
+     *
+     * @return the number
+     */
+    public long takeSuppressed() {
+        return suppressed.sumThenReset();
+    }
+
+}
@@ -1,19 +1,286 @@
 package org.korpora.useful;
 
 import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
 
 /**
- * a simple Loggable trait which adds a log class member
+ * a simple Loggable trait which adds a logger named after the implementing
+ * class, and logging helpers that are cheap when their level is off
+ *
+ * <p>
+ * The loggers are cached per class, so {@link #logger()} is a lookup. The
+ * helpers take one or two arguments, or a {@code long}, so a disabled
+ * call neither builds an argument array nor boxes; the throttled helpers
+ * log at most what a {@link LogThrottle} allows.
+ * </p>
  */
 public interface Loggable {
 
     /**
-     * a SLF4J logger
+     * a SLF4J logger, named after the class that happened to load this
+     * interface first, which is not necessarily the implementing class
+     *
+     * @deprecated use {@link #logger()}, or {@link #loggerFor(Class)} in
+     * static code
      */
-    // Please note that this method is not safe to use as few virtual machines may omit one or more stack frames from the stack trace under special circumstances.
-    // <https://www.techiedelight.com/determine-class-name-java/>
-    static final Logger log = LoggerFactory
-            .getLogger(new Throwable().getStackTrace()[1].getClassName());
+    @Deprecated
+    Logger log = Loggers.caller();
+
+    /**
+     * the SLF4J logger of the implementing class
+     *
+     * @return the logger
+     */
+    default Logger logger() {
+        return Loggers.of(getClass());
+    }
+
+    /**
+     * the SLF4J logger of a class, cached with the class
+     *
+     * @param type the class
+     * @return the logger
+     */
+    static Logger loggerFor(Class<?> type) {
+        return Loggers.of(type);
+    }
+
+    /**
+     * log at TRACE level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg    the argument
+     */
+    default void trace(String format, Object arg) {
+        Logger l = logger();
+        if (l.isTraceEnabled()) {
+            l.trace(format, arg);
+        }
+    }
+
+    /**
+     * log at TRACE level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg    the argument, boxed only if logged
+     */
+    default void trace(String format, long arg) {
+        Logger l = logger();
+        if (l.isTraceEnabled()) {
+            l.trace(format, arg);
+        }
+    }
+
+    /**
+     * log at TRACE level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg1   the first argument
+     * @param arg2   the second argument
+     */
+    default void trace(String format, Object arg1, Object arg2) {
+        Logger l = logger();
+        if (l.isTraceEnabled()) {
+            l.trace(format, arg1, arg2);
+        }
+    }
+
+    /**
+     * log at DEBUG level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg    the argument
+     */
+    default void debug(String format, Object arg) {
+        Logger l = logger();
+        if (l.isDebugEnabled()) {
+            l.debug(format, arg);
+        }
+    }
+
+    /**
+     * log at DEBUG level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg    the argument, boxed only if logged
+     */
+    default void debug(String format, long arg) {
+        Logger l = logger();
+        if (l.isDebugEnabled()) {
+            l.debug(format, arg);
+        }
+    }
+
+    /**
+     * log at DEBUG level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg1   the first argument
+     * @param arg2   the second argument
+     */
+    default void debug(String format, Object arg1, Object arg2) {
+        Logger l = logger();
+        if (l.isDebugEnabled()) {
+            l.debug(format, arg1, arg2);
+        }
+    }
+
+    /**
+     * log at INFO level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg    the argument
+     */
+    default void info(String format, Object arg) {
+        Logger l = logger();
+        if (l.isInfoEnabled()) {
+            l.info(format, arg);
+        }
+    }
+
+    /**
+     * log at INFO level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg    the argument, boxed only if logged
+     */
+    default void info(String format, long arg) {
+        Logger l = logger();
+        if (l.isInfoEnabled()) {
+            l.info(format, arg);
+        }
+    }
+
+    /**
+     * log at INFO level, if enabled
+     *
+     * @param format the SLF4J format
+     * @param arg1   the first argument
+     * @param arg2   the second argument
+     */
+    default void info(String format, Object arg1, Object arg2) {
+        Logger l = logger();
+        if (l.isInfoEnabled()) {
+            l.info(format, arg1, arg2);
+        }
+    }
+
+    /**
+     * log at DEBUG level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg      the argument
+     */
+    default void debug(LogThrottle throttle, String format, Object arg) {
+        throttled(Level.DEBUG, throttle, format, arg, null, false);
+    }
+
+    /**
+     * log at DEBUG level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg1     the first argument
+     * @param arg2     the second argument
+     */
+    default void debug(LogThrottle throttle, String format, Object arg1,
+                       Object arg2) {
+        throttled(Level.DEBUG, throttle, format, arg1, arg2, true);
+    }
+
+    /**
+     * log at INFO level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg      the argument
+     */
+    default void info(LogThrottle throttle, String format, Object arg) {
+        throttled(Level.INFO, throttle, format, arg, null, false);
+    }
+
+    /**
+     * log at INFO level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg1     the first argument
+     * @param arg2     the second argument
+     */
+    default void info(LogThrottle throttle, String format, Object arg1,
+                      Object arg2) {
+        throttled(Level.INFO, throttle, format, arg1, arg2, true);
+    }
+
+    /**
+     * log at WARN level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg      the argument
+     */
+    default void warn(LogThrottle throttle, String format, Object arg) {
+        throttled(Level.WARN, throttle, format, arg, null, false);
+    }
+
+    /**
+     * log at WARN level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg1     the first argument
+     * @param arg2     the second argument
+     */
+    default void warn(LogThrottle throttle, String format, Object arg1,
+                      Object arg2) {
+        throttled(Level.WARN, throttle, format, arg1, arg2, true);
+    }
+
+    /**
+     * log at ERROR level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg      the argument
+     */
+    default void error(LogThrottle throttle, String format, Object arg) {
+        throttled(Level.ERROR, throttle, format, arg, null, false);
+    }
+
+    /**
+     * log at ERROR level, if enabled and the throttle allows
+     *
+     * @param throttle the throttle for this message
+     * @param format   the SLF4J format
+     * @param arg1     the first argument
+     * @param arg2     the second argument
+     */
+    default void error(LogThrottle throttle, String format, Object arg1,
+                       Object arg2) {
+        throttled(Level.ERROR, throttle, format, arg1, arg2, true);
+    }
+
+    /**
+     * log if the level is enabled and the throttle allows, first reporting
+     * the messages suppressed since the last one
+     */
+    private void throttled(Level level, LogThrottle throttle, String format,
+                           Object arg1, Object arg2, boolean two) {
+        Logger l = logger();
+        if (!l.isEnabledForLevel(level) || !throttle.allow()) {
+            return;
+        }
+        long suppressed = throttle.takeSuppressed();
+        if (suppressed > 0) {
+            l.atLevel(level).log("{} similar messages suppressed",
+                    suppressed);
+        }
+        if (two) {
+            l.atLevel(level).log(format, arg1, arg2);
+        } else {
+            l.atLevel(level).log(format, arg1);
+        }
+    }
 
 }
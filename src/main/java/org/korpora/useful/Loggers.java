@@ -0,0 +1,46 @@
+package org.korpora.useful;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the SLF4J loggers of {@link Loggable} classes, one per class
+ *
+ * @author bfi
+ */
+final class Loggers {
+    private Loggers() {
+    }
+
+    private static final ClassValue<Logger> LOGGERS = new ClassValue<>() {
+        @Override
+        protected Logger computeValue(Class<?> type) {
+            return LoggerFactory.getLogger(type);
+        }
+    };
+
+    private static final StackWalker WALKER = StackWalker
+            .getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    /**
+     * the logger of a class, cached with the class
+     *
+     * @param type the class
+     * @return its logger
+     */
+    static Logger of(Class<?> type) {
+        return LOGGERS.get(type);
+    }
+
+    /**
+     * the logger of the nearest caller outside of the logging classes
+     *
+     * @return its logger
+     */
+    static Logger caller() {
+        return of(WALKER.walk(frames -> frames
+                .<Class<?>>map(StackWalker.StackFrame::getDeclaringClass)
+                .filter(c -> c != Loggers.class && c != Loggable.class)
+                .findFirst().orElse(Loggable.class)));
+    }
+}
@@ -0,0 +1,259 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * an {@link InputStream} reading a file through a {@link FileChannel}
+ *
+ * <p>
+ * Small files are read in chunks of {@link #CHUNK_SIZE} bytes into a
+ * buffer that is borrowed from a pool and returned on {@link #close()}, so
+ * parsing many small files allocates no buffers; files up to one chunk
+ * take a single read. Larger files are memory-mapped in windows of
+ * {@link #WINDOW_SIZE} bytes, so the parser reads directly from the page
+ * cache, without intermediate stream layers. A UTF-8 byte order mark is
+ * skipped, see {@link #getEncoding()}; other byte order marks are left to
+ * the parser. Closing the stream closes the channel at once.
+ * </p>
+ *
+ * @author bfi
+ */
+final class MappedInputStream extends InputStream {
+
+    /**
+     * files up to this size are read, not mapped
+     */
+    static final int SMALL_FILE_SIZE = 1 << 20;
+
+    /**
+     * size of the pooled buffers small files are read through
+     */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * size of a mapped window
+     */
+    static final long WINDOW_SIZE = 1L << 26;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final ObjectPool<ByteBuffer> CHUNKS = new ObjectPool<>(
+            XMLProcessors.DEFAULT_POOL_SIZE, ByteBuffer::clear);
+
+    /**
+     * the channel, or {@code null} once a small file is read completely
+     */
+    private FileChannel channel;
+    private final long size;
+    private final boolean mapped;
+    /**
+     * the pooled buffer of a small file, until closed
+     */
+    private ByteBuffer chunk;
+    private ByteBuffer buffer;
+    private long bufferStart;
+    private String encoding;
+    private long mark;
+
+    private MappedInputStream(FileChannel channel) throws IOException {
+        this.channel = channel;
+        size = channel.size();
+        mapped = size > SMALL_FILE_SIZE;
+        if (mapped) {
+            map(0);
+        } else {
+            chunk = CHUNKS.poll();
+            if (chunk == null) {
+                chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            }
+            buffer = chunk;
+            try {
+                load(0);
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+            if (size <= CHUNK_SIZE) {
+                channel.close();
+                this.channel = null;
+            }
+        }
+        skipBOM();
+    }
+
+    /**
+     * open a file
+     *
+     * @param path the file
+     * @return the stream
+     * @throws IOException if the file cannot be opened or read
+     */
+    static MappedInputStream open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedInputStream(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * the encoding indicated by the skipped UTF-8 byte order mark
+     *
+     * @return {@code "UTF-8"}, or {@code null} if there was no UTF-8 byte
+     * order mark
+     */
+    String getEncoding() {
+        return encoding;
+    }
+
+    private void skipBOM() {
+        int b0 = peek(0), b1 = peek(1), b2 = peek(2);
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            encoding = "UTF-8";
+            buffer.position(3);
+        }
+        // parsers tell UTF-16 from UTF-32 by other byte order marks
+        // themselves
+        mark = bufferStart + buffer.position();
+    }
+
+    private int peek(int i) {
+        return i < buffer.limit() ? buffer.get(i) & 0xFF : -1;
+    }
+
+    private void map(long start) throws IOException {
+        bufferStart = start;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(WINDOW_SIZE, size - start));
+    }
+
+    /**
+     * read the chunk of a small file that starts at the given position
+     */
+    private void load(long start) throws IOException {
+        bufferStart = start;
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), size - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private void move(long start) throws IOException {
+        if (mapped) {
+            map(start);
+        } else {
+            load(start);
+        }
+    }
+
+    /**
+     * make sure there is something to read in the buffer
+     *
+     * @return whether there is anything left at all
+     */
+    private boolean fill() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        long next = bufferStart + buffer.limit();
+        if (channel == null || next >= size) {
+            return false;
+        }
+        move(next);
+        // the file may have shrunk
+        return buffer.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long position = bufferStart + buffer.position();
+        long target = Math.min(size, position + n);
+        seek(target);
+        return target - position;
+    }
+
+    private void seek(long target) throws IOException {
+        if (target >= bufferStart && target <= bufferStart + buffer.limit()) {
+            buffer.position((int) (target - bufferStart));
+        } else if (channel != null) {
+            move(target);
+        }
+    }
+
+    /**
+     * the size of the file
+     *
+     * @return the number of bytes
+     */
+    long size() {
+        return size;
+    }
+
+    @Override
+    public int available() {
+        long left = size - bufferStart - buffer.position();
+        return (int) Math.min(Integer.MAX_VALUE, left);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = bufferStart + buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        seek(mark);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (chunk != null) {
+            // no reading from a buffer that someone else may borrow
+            buffer = EMPTY;
+            bufferStart = size;
+            CHUNKS.release(chunk);
+            chunk = null;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+}
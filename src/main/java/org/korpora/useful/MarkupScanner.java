@@ -0,0 +1,477 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * find the tags in an XML file by byte offset, without parsing it
+ *
+ * <p>
+ * This is a small state machine over memory-mapped windows of the file:
+ * it tells markup (tags, comments, CDATA sections, processing
+ * instructions and declarations) from text, and reports start and end
+ * tags with their byte ranges. It neither checks well-formedness nor
+ * resolves entities, so it is much faster than a parser; it relies on the
+ * file being well-formed. Only encodings in which {@code <}, {@code >},
+ * quotes and ASCII names are single bytes work, e.g. UTF-8 and
+ * ISO-8859-1, not UTF-16.
+ * </p>
+ * <p>
+ * A scan can stop anywhere and be continued later from
+ * {@link #scan(FileChannel, long, long, Handler) the offset it returns},
+ * e.g. after the file was appended to.
+ * </p>
+ *
+ * @author bfi
+ */
+final class MarkupScanner {
+    private MarkupScanner() {
+    }
+
+    /**
+     * text of attributes and declarations kept as strings is decoded with
+     * this, so that it can be written back byte for byte
+     */
+    static final Charset RAW = StandardCharsets.ISO_8859_1;
+
+    private static final Pattern ENCODING = Pattern.compile(
+            "^\\s*<\\?xml\\s[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+    private static final Pattern DECLARATION = Pattern.compile(
+            "\\s(xmlns(?::[^\\s=]+)?)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+
+    private static final int TEXT = 0;
+    private static final int LT = 1;
+    private static final int BANG = 2;
+    private static final int COMMENT = 3;
+    private static final int CDATA = 4;
+    private static final int DECL = 5;
+    private static final int PI = 6;
+    private static final int START_TAG = 7;
+    private static final int END_TAG = 8;
+
+    // markup inside a DOCTYPE's internal subset, as the last bytes read
+    private static final int SUBSET_COMMENT = '<' << 24 | '!' << 16 | '-' << 8 | '-';
+    private static final int SUBSET_COMMENT_END = '-' << 16 | '-' << 8 | '>';
+    private static final int SUBSET_PI = '<' << 8 | '?';
+    private static final int SUBSET_PI_END = '?' << 8 | '>';
+
+    /**
+     * what the scanner finds
+     */
+    interface Handler {
+        /**
+         * a start tag or empty element tag
+         *
+         * @param start  the offset of {@code <}
+         * @param end    the offset after {@code >}
+         * @param tag    the bytes between {@code <} and {@code >}; only
+         *               valid during the call
+         * @param length the number of bytes
+         * @param empty  whether it is an empty element tag
+         * @throws IOException to stop the scan
+         */
+        void startTag(long start, long end, byte[] tag, int length,
+                      boolean empty) throws IOException;
+
+        /**
+         * an end tag
+         *
+         * @param start the offset of {@code <}
+         * @param end   the offset after {@code >}
+         * @throws IOException to stop the scan
+         */
+        void endTag(long start, long end) throws IOException;
+
+        /**
+         * a {@code <!DOCTYPE} declaration
+         *
+         * @param start the offset of {@code <}
+         * @param end   the offset after {@code >}
+         * @throws IOException to stop the scan
+         */
+        default void doctype(long start, long end) throws IOException {
+        }
+    }
+
+    /**
+     * scan a region of a file, which must start outside markup
+     *
+     * @param channel the file
+     * @param from    where to start
+     * @param to      where to stop
+     * @param handler gets the tags
+     * @return the offset after the last complete piece of markup or text,
+     * where a later scan can continue
+     * @throws IOException if the file cannot be read
+     */
+    static long scan(FileChannel channel, long from, long to, Handler handler)
+            throws IOException {
+        int state = TEXT;
+        // state details: dashes, brackets, quote, '?' seen, '[' nesting
+        int count = 0;
+        int quote = 0;
+        // in a DOCTYPE: inside a comment or PI, and the last four bytes
+        int inner = 0;
+        int recent = 0;
+        long markupStart = from;
+        long safe = from;
+        byte[] tag = new byte[256];
+        int length = 0;
+        for (long windowStart = from; windowStart < to;
+             windowStart += MappedInputStream.WINDOW_SIZE) {
+            int size = (int) Math.min(MappedInputStream.WINDOW_SIZE,
+                    to - windowStart);
+            MappedByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_ONLY, windowStart, size);
+            for (int i = 0; i < size; i++) {
+                int b = window.get(i);
+                switch (state) {
+                    case TEXT:
+                        if (b == '<') {
+                            state = LT;
+                            markupStart = windowStart + i;
+                        }
+                        break;
+                    case LT:
+                        if (b == '!') {
+                            state = BANG;
+                            count = 0;
+                        } else if (b == '?') {
+                            state = PI;
+                            count = 0;
+                        } else if (b == '/') {
+                            state = END_TAG;
+                        } else {
+                            state = START_TAG;
+                            quote = 0;
+                            tag[0] = (byte) b;
+                            length = 1;
+                        }
+                        break;
+                    case BANG:
+                        if (b == '-') {
+                            // "<!--"; count the dashes at the end
+                            state = COMMENT;
+                            count = -1;
+                        } else if (b == '[') {
+                            // "<![CDATA["; count the brackets at the end
+                            state = CDATA;
+                            count = 0;
+                        } else {
+                            state = DECL;
+                            quote = 0;
+                            count = 0;
+                            inner = 0;
+                            recent = 0;
+                            tag[0] = (byte) b;
+                            length = 1;
+                        }
+                        break;
+                    case COMMENT:
+                        if (b == '-') {
+                            count++;
+                        } else if (b == '>' && count >= 2) {
+                            state = TEXT;
+                        } else if (count >= 0) {
+                            count = 0;
+                        }
+                        break;
+                    case CDATA:
+                        if (b == ']') {
+                            count++;
+                        } else if (b == '>' && count >= 2) {
+                            state = TEXT;
+                        } else {
+                            count = 0;
+                        }
+                        break;
+                    case PI:
+                        if (b == '>' && count == 1) {
+                            state = TEXT;
+                        } else {
+                            count = b == '?' ? 1 : 0;
+                        }
+                        break;
+                    case DECL:
+                        if (length < tag.length) {
+                            tag[length++] = (byte) b;
+                        }
+                        recent = recent << 8 | (b & 0xFF);
+                        if (inner == COMMENT) {
+                            // quotes and brackets in comments do not count
+                            if ((recent & 0xFFFFFF) == SUBSET_COMMENT_END) {
+                                inner = 0;
+                                recent = 0;
+                            }
+                        } else if (inner == PI) {
+                            if ((recent & 0xFFFF) == SUBSET_PI_END) {
+                                inner = 0;
+                                recent = 0;
+                            }
+                        } else if (quote != 0) {
+                            if (b == quote) {
+                                quote = 0;
+                            }
+                        } else if (recent == SUBSET_COMMENT) {
+                            inner = COMMENT;
+                            recent = 0;
+                        } else if ((recent & 0xFFFF) == SUBSET_PI) {
+                            inner = PI;
+                            recent = 0;
+                        } else if (b == '"' || b == '\'') {
+                            quote = b;
+                        } else if (b == '[') {
+                            count++;
+                        } else if (b == ']') {
+                            count--;
+                        } else if (b == '>' && count <= 0) {
+                            state = TEXT;
+                            if (length >= 7 && new String(tag, 0, 7, RAW)
+                                    .equals("DOCTYPE")) {
+                                handler.doctype(markupStart,
+                                        windowStart + i + 1);
+                            }
+                        }
+                        break;
+                    case START_TAG:
+                        if (quote != 0) {
+                            if (b == quote) {
+                                quote = 0;
+                            }
+                        } else if (b == '"' || b == '\'') {
+                            quote = b;
+                        } else if (b == '>') {
+                            state = TEXT;
+                            boolean empty = tag[length - 1] == '/';
+                            handler.startTag(markupStart, windowStart + i + 1,
+                                    tag, empty ? length - 1 : length, empty);
+                            break;
+                        }
+                        if (length == tag.length) {
+                            tag = Arrays.copyOf(tag, 2 * length);
+                        }
+                        tag[length++] = (byte) b;
+                        break;
+                    case END_TAG:
+                        if (b == '>') {
+                            state = TEXT;
+                            handler.endTag(markupStart, windowStart + i + 1);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
+                if (state == TEXT) {
+                    safe = windowStart + i + 1;
+                }
+            }
+        }
+        return state == TEXT ? to : Math.min(safe, markupStart);
+    }
+
+    /**
+     * the name in a start tag
+     *
+     * @param tag    the tag bytes
+     * @param length their number
+     * @return the qualified name
+     */
+    static String name(byte[] tag, int length) {
+        int end = 0;
+        while (end < length && !isSpace(tag[end])) {
+            end++;
+        }
+        return new String(tag, 0, end, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * the namespace declarations in a start tag, as written
+     *
+     * @param tag    the tag bytes
+     * @param length their number
+     * @return the declarations, each preceded by a space, or {@code ""}
+     */
+    static String declarations(byte[] tag, int length) {
+        if (!contains(tag, length, XMLNS)) {
+            return "";
+        }
+        StringBuilder declarations = new StringBuilder();
+        Matcher m = DECLARATION.matcher(new String(tag, 0, length, RAW));
+        while (m.find()) {
+            declarations.append(' ').append(m.group(1)).append('=')
+                    .append(m.group(2));
+        }
+        return declarations.toString();
+    }
+
+    /**
+     * combine the namespace declarations in scope with those of an element
+     * inside
+     *
+     * @param outer the declarations in scope
+     * @param inner the element's declarations
+     * @return the declarations in scope inside the element, one per prefix
+     */
+    static String inScope(String outer, String inner) {
+        if (inner.isEmpty()) {
+            return outer;
+        }
+        if (outer.isEmpty()) {
+            return inner;
+        }
+        Map<String, String> byPrefix = new LinkedHashMap<>();
+        for (String declarations : new String[]{outer, inner}) {
+            Matcher m = DECLARATION.matcher(declarations);
+            while (m.find()) {
+                byPrefix.remove(m.group(1));
+                byPrefix.put(m.group(1), m.group(2));
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        byPrefix.forEach((name, value) -> result.append(' ').append(name)
+                .append('=').append(value));
+        return result.toString();
+    }
+
+    /**
+     * the value of an attribute in a start tag, with character and
+     * predefined entity references resolved
+     *
+     * @param tag     the tag bytes
+     * @param length  their number
+     * @param name    the qualified attribute name, ASCII
+     * @param charset the encoding of the file
+     * @return the value, or {@code null} if there is no such attribute
+     */
+    static String attribute(byte[] tag, int length, byte[] name,
+                            Charset charset) {
+        if (!contains(tag, length, name)) {
+            return null;
+        }
+        int i = 0;
+        // skip the element name
+        while (i < length && !isSpace(tag[i])) {
+            i++;
+        }
+        while (i < length) {
+            while (i < length && isSpace(tag[i])) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < length && tag[i] != '=' && !isSpace(tag[i])) {
+                i++;
+            }
+            int nameEnd = i;
+            while (i < length && tag[i] != '"' && tag[i] != '\'') {
+                i++;
+            }
+            if (i >= length) {
+                return null;
+            }
+            byte quote = tag[i++];
+            int valueStart = i;
+            while (i < length && tag[i] != quote) {
+                i++;
+            }
+            if (nameEnd - nameStart == name.length && Arrays.equals(tag,
+                    nameStart, nameEnd, name, 0, name.length)) {
+                return unescape(new String(tag, valueStart, i - valueStart,
+                        charset));
+            }
+            i++;
+        }
+        return null;
+    }
+
+    /**
+     * the encoding declared in the XML declaration at the start of a file
+     *
+     * @param head the first bytes of the file
+     * @return the encoding, or {@code null} if none is declared
+     */
+    static String declaredEncoding(byte[] head) {
+        if (head.length >= 2 && (head[0] == 0 || head[1] == 0
+                || (head[0] == (byte) 0xFE && head[1] == (byte) 0xFF)
+                || (head[0] == (byte) 0xFF && head[1] == (byte) 0xFE))) {
+            throw new IllegalArgumentException(
+                    "UTF-16 and UTF-32 files cannot be scanned");
+        }
+        Matcher m = ENCODING.matcher(new String(head, RAW));
+        return m.find() ? m.group(1) : null;
+    }
+
+    private static final byte[] XMLNS = "xmlns".getBytes(RAW);
+
+    private static boolean contains(byte[] tag, int length, byte[] what) {
+        outer:
+        for (int i = 0; i + what.length <= length; i++) {
+            for (int j = 0; j < what.length; j++) {
+                if (tag[i + j] != what[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    private static String unescape(String value) {
+        int amp = value.indexOf('&');
+        if (amp < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        int i = 0;
+        while (amp >= 0) {
+            int semicolon = value.indexOf(';', amp);
+            if (semicolon < 0) {
+                break;
+            }
+            result.append(value, i, amp);
+            String entity = value.substring(amp + 1, semicolon);
+            switch (entity) {
+                case "amp":
+                    result.append('&');
+                    break;
+                case "lt":
+                    result.append('<');
+                    break;
+                case "gt":
+                    result.append('>');
+                    break;
+                case "quot":
+                    result.append('"');
+                    break;
+                case "apos":
+                    result.append('\'');
+                    break;
+                default:
+                    if (entity.startsWith("#x")) {
+                        result.appendCodePoint(Integer.parseInt(
+                                entity.substring(2), 16));
+                    } else if (entity.startsWith("#")) {
+                        result.appendCodePoint(Integer.parseInt(
+                                entity.substring(1)));
+                    } else {
+                        result.append('&').append(entity).append(';');
+                    }
+            }
+            i = semicolon + 1;
+            amp = value.indexOf('&', i);
+        }
+        return result.append(value, i, value.length()).toString();
+    }
+
+}
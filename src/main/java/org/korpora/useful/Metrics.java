@@ -0,0 +1,108 @@
+package org.korpora.useful;
+
+/**
+ * a receiver of timings and cache outcomes from the hot paths of this
+ * library, to find out where the time goes
+ *
+ * <p>
+ * Nothing is measured until an implementation is {@link #install installed};
+ * until then, the instrumented methods only check for one. Use
+ * {@link MetricsRecorder} for counts, latency histograms, JMX and a
+ * periodic log summary, or implement this interface to bridge to another
+ * metrics library. Implementations are called concurrently from the
+ * threads doing the work and must be fast and thread-safe.
+ * </p>
+ * <p>
+ * Only calls that complete normally are timed.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public interface Metrics {
+
+    /**
+     * the timed operations
+     */
+    enum Operation {
+        /**
+         * parsing to DOM, in {@link XMLUtilities}
+         */
+        PARSE_DOM,
+        /**
+         * parsing to JDOM, in {@link XMLUtilities}
+         */
+        PARSE_JDOM,
+        /**
+         * serializing DOM, in {@link XMLUtilities}
+         */
+        SERIALIZE,
+        /**
+         * evaluating XPath, in {@link XPathCache}
+         */
+        XPATH,
+        /**
+         * looking up language names and codes, in {@link LangUtilities}
+         */
+        LANGUAGE
+    }
+
+    /**
+     * the caches that report hits and misses
+     */
+    enum Cache {
+        /**
+         * compiled expressions of {@link XPathCache}
+         */
+        XPATH,
+        /**
+         * compiled stylesheets of {@link TemplatesCache}
+         */
+        TEMPLATES,
+        /**
+         * DTDs and other entities of {@link CachingResolver}
+         */
+        ENTITIES,
+        /**
+         * parsed documents of {@link DocumentCache}
+         */
+        DOCUMENTS
+    }
+
+    /**
+     * an operation has completed
+     *
+     * @param operation the operation
+     * @param nanos     how long it took, in nanoseconds
+     * @param bytes     the size of the input or output, in bytes or, for
+     *                  strings, chars; -1 if unknown
+     */
+    void timed(Operation operation, long nanos, long bytes);
+
+    /**
+     * a cache has been asked
+     *
+     * @param cache the cache
+     * @param hit   whether it had the answer
+     */
+    void cache(Cache cache, boolean hit);
+
+    /**
+     * report to the given metrics from now on
+     *
+     * @param metrics the metrics, or {@code null} to stop measuring
+     */
+    static void install(Metrics metrics) {
+        Instrumentation.metrics = metrics;
+    }
+
+    /**
+     * the metrics reported to
+     *
+     * @return the installed metrics, or {@code null}
+     */
+    static Metrics installed() {
+        return Instrumentation.metrics;
+    }
+
+}
@@ -0,0 +1,433 @@
+package org.korpora.useful;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Metrics} that count calls, bytes and cache hits, and keep a
+ * latency histogram per operation
+ *
+ * <p>
+ * Recording is lock-free, with {@link LongAdder}s. Latencies go into
+ * buckets of four per power of two nanoseconds, so percentiles are upper
+ * bounds within 25 %. The numbers can be read directly, through JMX
+ * after {@link #register()}, or as a summary logged
+ * {@link #logEvery(Duration) periodically}:
+ * </p>
+ *
+ * <pre>{@code
+ * MetricsRecorder metrics = new MetricsRecorder().install();
+ * metrics.register();
+ * metrics.logEvery(Duration.ofMinutes(5));
+ * }</pre>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MetricsRecorder implements Metrics, MetricsRecorderMXBean {
+
+    /**
+     * the JMX name used by {@link #register()}
+     */
+    public static final String OBJECT_NAME = "org.korpora.useful:type=Metrics";
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(MetricsRecorder.class);
+    private static volatile ScheduledExecutorService scheduler;
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Cache[] CACHES = Cache.values();
+
+    private final Timer[] timers = new Timer[OPERATIONS.length];
+    private final LongAdder[] hits = new LongAdder[CACHES.length];
+    private final LongAdder[] misses = new LongAdder[CACHES.length];
+
+    /**
+     * make a recorder; it is not yet {@link #install() installed}
+     */
+    public MetricsRecorder() {
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new LongAdder();
+            misses[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * {@link Metrics#install(Metrics) install} this recorder
+     *
+     * @return this recorder
+     */
+    public MetricsRecorder install() {
+        Metrics.install(this);
+        return this;
+    }
+
+    @Override
+    public void timed(Operation operation, long nanos, long bytes) {
+        timers[operation.ordinal()].record(nanos, bytes);
+    }
+
+    @Override
+    public void cache(Cache cache, boolean hit) {
+        (hit ? hits : misses)[cache.ordinal()].increment();
+    }
+
+    /**
+     * completed calls
+     *
+     * @param operation the operation
+     * @return the count
+     */
+    public long count(Operation operation) {
+        return timers[operation.ordinal()].count.sum();
+    }
+
+    /**
+     * bytes (or chars) processed, where known
+     *
+     * @param operation the operation
+     * @return the sum
+     */
+    public long bytes(Operation operation) {
+        return timers[operation.ordinal()].bytes.sum();
+    }
+
+    /**
+     * mean latency
+     *
+     * @param operation the operation
+     * @return milliseconds, 0 if never called
+     */
+    public double meanMillis(Operation operation) {
+        Timer timer = timers[operation.ordinal()];
+        long count = timer.count.sum();
+        return count == 0 ? 0 : millis(timer.nanos.sum()) / count;
+    }
+
+    /**
+     * a latency percentile, as the upper bound of its histogram bucket
+     *
+     * @param operation  the operation
+     * @param percentile between 0 and 100
+     * @return milliseconds, 0 if never called
+     */
+    public double percentileMillis(Operation operation, double percentile) {
+        return millis(timers[operation.ordinal()].percentile(percentile));
+    }
+
+    /**
+     * maximal latency
+     *
+     * @param operation the operation
+     * @return milliseconds, 0 if never called
+     */
+    public double maxMillis(Operation operation) {
+        return millis(timers[operation.ordinal()].max.get());
+    }
+
+    /**
+     * the share of cache hits
+     *
+     * @param cache the cache
+     * @return between 0 and 1; {@link Double#NaN} if never asked
+     */
+    public double hitRatio(Cache cache) {
+        long hit = hits[cache.ordinal()].sum();
+        long total = hit + misses[cache.ordinal()].sum();
+        return total == 0 ? Double.NaN : (double) hit / total;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Operation op : OPERATIONS) {
+            long count = count(op);
+            if (count > 0) {
+                map.put(name(op), count);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getBytes() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Operation op : OPERATIONS) {
+            if (count(op) > 0) {
+                map.put(name(op), bytes(op));
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        return perOperation(this::meanMillis);
+    }
+
+    @Override
+    public Map<String, Double> getMedianMillis() {
+        return perOperation(op -> percentileMillis(op, 50));
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return perOperation(op -> percentileMillis(op, 99));
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        return perOperation(this::maxMillis);
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRatios() {
+        Map<String, Double> map = new TreeMap<>();
+        for (Cache cache : CACHES) {
+            double ratio = hitRatio(cache);
+            if (!Double.isNaN(ratio)) {
+                map.put(name(cache), ratio);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation op : OPERATIONS) {
+            long count = count(op);
+            if (count == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.ROOT,
+                    "%s: %d calls, mean %.3f ms, median %.3f ms,"
+                            + " p99 %.3f ms, max %.3f ms",
+                    name(op), count, meanMillis(op), percentileMillis(op, 50),
+                    percentileMillis(op, 99), maxMillis(op)));
+            long bytes = bytes(op);
+            if (bytes > 0) {
+                sb.append(String.format(Locale.ROOT, ", %.1f MB",
+                        bytes / 1e6));
+            }
+            sb.append('\n');
+        }
+        for (Cache cache : CACHES) {
+            long hit = hits[cache.ordinal()].sum();
+            long total = hit + misses[cache.ordinal()].sum();
+            if (total > 0) {
+                sb.append(String.format(Locale.ROOT,
+                        "%s cache: %.1f %% hits of %d\n", name(cache),
+                        100.0 * hit / total, total));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (Timer timer : timers) {
+            timer.reset();
+        }
+        for (int i = 0; i < hits.length; i++) {
+            hits[i].reset();
+            misses[i].reset();
+        }
+    }
+
+    /**
+     * register with the platform MBean server as {@link #OBJECT_NAME},
+     * replacing another recorder
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * unregister from the platform MBean server, if registered
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * log the {@link #getSummary() summary} at INFO level periodically, on a
+     * daemon thread, when something has been recorded since the last time
+     *
+     * @param period the time between summaries
+     * @return the schedule, to {@link ScheduledFuture#cancel cancel} it
+     */
+    public ScheduledFuture<?> logEvery(Duration period) {
+        long[] last = {-1};
+        return scheduler().scheduleAtFixedRate(() -> {
+            long total = 0;
+            for (Timer timer : timers) {
+                total += timer.count.sum();
+            }
+            for (int i = 0; i < hits.length; i++) {
+                total += hits[i].sum() + misses[i].sum();
+            }
+            if (total != last[0] && LOG.isInfoEnabled()) {
+                last[0] = total;
+                LOG.info("metrics:\n{}", getSummary());
+            }
+        }, period.toNanos(), period.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private static ScheduledExecutorService scheduler() {
+        ScheduledExecutorService s = scheduler;
+        if (s == null) {
+            synchronized (MetricsRecorder.class) {
+                s = scheduler;
+                if (s == null) {
+                    scheduler = s = Executors
+                            .newSingleThreadScheduledExecutor(r -> {
+                                Thread t = new Thread(r, "metrics-summary");
+                                t.setDaemon(true);
+                                return t;
+                            });
+                }
+            }
+        }
+        return s;
+    }
+
+    private Map<String, Double> perOperation(
+            ToDoubleFunction<Operation> value) {
+        Map<String, Double> map = new TreeMap<>();
+        for (Operation op : OPERATIONS) {
+            if (count(op) > 0) {
+                map.put(name(op), value.applyAsDouble(op));
+            }
+        }
+        return map;
+    }
+
+    private static String name(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * counts and a log-linear histogram of one operation
+     */
+    private static final class Timer {
+        /**
+         * bucket {@code i >= 4} holds latencies from
+         * {@code (4 + i % 4) << (i / 4 - 1)} nanoseconds, below the next
+         */
+        private static final int BUCKETS = 248;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Timer() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long elapsed, long size) {
+            long n = Math.max(0, elapsed);
+            count.increment();
+            nanos.add(n);
+            if (size > 0) {
+                bytes.add(size);
+            }
+            max.accumulate(n);
+            buckets[bucket(n)].increment();
+        }
+
+        static int bucket(long n) {
+            if (n < 4) {
+                return (int) n;
+            }
+            int top = 63 - Long.numberOfLeadingZeros(n);
+            return ((top - 1) << 2) | (int) ((n >>> (top - 2)) & 3);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < 4) {
+                return bucket + 1;
+            }
+            int shift = (bucket >>> 2) - 1;
+            long bound = (long) (4 + (bucket & 3) + 1) << shift;
+            return bound < 0 ? Long.MAX_VALUE : bound;
+        }
+
+        long percentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            count.reset();
+            nanos.reset();
+            bytes.reset();
+            max.reset();
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.korpora.useful;
+
+import java.util.Map;
+
+/**
+ * the JMX view of a {@link MetricsRecorder}; maps are keyed by the
+ * lower-case names of the {@link Metrics.Operation}s or
+ * {@link Metrics.Cache}s seen so far
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public interface MetricsRecorderMXBean {
+
+    /**
+     * completed calls
+     *
+     * @return the counts per operation
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * bytes (or chars) processed, where known
+     *
+     * @return the sizes per operation
+     */
+    Map<String, Long> getBytes();
+
+    /**
+     * mean latency
+     *
+     * @return milliseconds per operation
+     */
+    Map<String, Double> getMeanMillis();
+
+    /**
+     * median latency, within 25 %
+     *
+     * @return milliseconds per operation
+     */
+    Map<String, Double> getMedianMillis();
+
+    /**
+     * 99th percentile latency, within 25 %
+     *
+     * @return milliseconds per operation
+     */
+    Map<String, Double> getP99Millis();
+
+    /**
+     * maximal latency
+     *
+     * @return milliseconds per operation
+     */
+    Map<String, Double> getMaxMillis();
+
+    /**
+     * the share of hits
+     *
+     * @return the hit ratio, between 0 and 1, per cache
+     */
+    Map<String, Double> getCacheHitRatios();
+
+    /**
+     * all of it, as text
+     *
+     * @return one line per operation and cache
+     */
+    String getSummary();
+
+    /**
+     * start counting from zero
+     */
+    void reset();
+
+}
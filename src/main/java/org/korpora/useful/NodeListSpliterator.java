@@ -0,0 +1,114 @@
+package org.korpora.useful;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * an index-based {@link Spliterator} over a snapshot of a {@link NodeList}
+ *
+ * <p>
+ * The nodes are copied once, in one sequential pass, so that live lists
+ * such as those from {@link org.w3c.dom.Element#getElementsByTagName(String)}
+ * are not walked again for every {@code item(i)}. The spliterator is
+ * sized and splits evenly, so parallel streams and presized collection
+ * both work.
+ * </p>
+ *
+ * @author bfi
+ * @see XMLUtilities#toStream(NodeList)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class NodeListSpliterator implements Spliterator<Node> {
+
+    private static final int CHARACTERISTICS = Spliterator.SIZED
+            | Spliterator.SUBSIZED | Spliterator.ORDERED | Spliterator.NONNULL
+            | Spliterator.DISTINCT | Spliterator.IMMUTABLE;
+
+    private final Node[] nodes;
+    private int index;
+    private final int fence;
+
+    /**
+     * make a {@link Spliterator} for a {@link NodeList}
+     *
+     * @param list the list, which is copied at once
+     * @throws IllegalArgumentException in case of null NodeList
+     */
+    public NodeListSpliterator(NodeList list) {
+        this(snapshot(list), 0);
+    }
+
+    private NodeListSpliterator(Node[] nodes, int index) {
+        this(nodes, index, nodes.length);
+    }
+
+    private NodeListSpliterator(Node[] nodes, int index, int fence) {
+        this.nodes = nodes;
+        this.index = index;
+        this.fence = fence;
+    }
+
+    /**
+     * copy the nodes of a {@link NodeList}
+     *
+     * @param list the list
+     * @return the nodes
+     * @throws IllegalArgumentException in case of null NodeList
+     */
+    static Node[] snapshot(NodeList list) {
+        if (list == null) {
+            throw new IllegalArgumentException();
+        }
+        int length = list.getLength();
+        Node[] nodes = new Node[length];
+        for (int i = 0; i < length; i++) {
+            nodes[i] = list.item(i);
+        }
+        return nodes;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Node> action) {
+        if (index < fence) {
+            action.accept(nodes[index++]);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Node> action) {
+        Node[] a = nodes;
+        int hi = fence;
+        int i = index;
+        index = hi;
+        for (; i < hi; i++) {
+            action.accept(a[i]);
+        }
+    }
+
+    @Override
+    public Spliterator<Node> trySplit() {
+        int lo = index;
+        int mid = (lo + fence) >>> 1;
+        if (lo >= mid) {
+            return null;
+        }
+        index = mid;
+        return new NodeListSpliterator(nodes, lo, mid);
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.korpora.useful;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * a small bounded pool of reusable, non-thread-safe objects
+ *
+ * <p>
+ * {@link #poll()} never blocks: if no idle object is available, it returns
+ * {@code null} and the caller makes a fresh one. {@link #release(Object)}
+ * resets the object and keeps it unless the pool already holds
+ * {@code capacity} idle objects. Since the pool is not bound to threads, it
+ * works just as well with many short-lived (virtual) threads as with a
+ * fixed thread pool.
+ * </p>
+ *
+ * @param <T> the type of the pooled objects
+ * @author bfi
+ */
+final class ObjectPool<T> {
+
+    private final ArrayBlockingQueue<T> idle;
+    private final Consumer<? super T> reset;
+
+    /**
+     * make a pool
+     *
+     * @param capacity maximal number of idle objects kept
+     * @param reset    how to reset an object before it is reused
+     */
+    ObjectPool(int capacity, Consumer<? super T> reset) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        idle = new ArrayBlockingQueue<>(capacity);
+        this.reset = reset;
+    }
+
+    /**
+     * get an idle object
+     *
+     * @return an idle object, or {@code null} if there is none
+     */
+    T poll() {
+        return idle.poll();
+    }
+
+    /**
+     * give an object back to the pool
+     *
+     * @param object the object, will be dropped if the reset fails or the
+     *               pool is full
+     */
+    void release(T object) {
+        if (object == null) {
+            return;
+        }
+        try {
+            reset.accept(object);
+        } catch (RuntimeException e) {
+            // do not keep objects in an unknown state
+            return;
+        }
+        idle.offer(object);
+    }
+
+    /**
+     * drop all idle objects
+     */
+    void clear() {
+        idle.clear();
+    }
+
+}
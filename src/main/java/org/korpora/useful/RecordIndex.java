@@ -0,0 +1,850 @@
+package org.korpora.useful;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * the byte ranges of the records, e.g. {@code <TEI>} or {@code <u>}
+ * elements, in a large XML file, for cutting it into shards that are
+ * parsed separately
+ *
+ * <p>
+ * The index is made in one pass over the memory-mapped file with a
+ * {@link MarkupScanner}, without parsing, and kept in a small sidecar
+ * file next to it. Records are the outermost elements with the given
+ * qualified name, as written in the file. When the file is opened again,
+ * the sidecar is reused if the file is unchanged, and only the new part is
+ * scanned if it was appended to (checked by size and a checksum of the
+ * bytes before the end of the last scan).
+ * </p>
+ * <p>
+ * A {@link Shard} is a run of records with the same namespace context.
+ * It is parsed as a small document whose element {@value #WRAPPER}
+ * carries the namespace declarations of the records' ancestors and
+ * contains the records; the DOCTYPE of the file is kept, so that entities
+ * still work. Shards can be parsed concurrently, see
+ * {@link #parseAll(long, int, boolean)}. The file must be in an encoding
+ * like UTF-8 or ISO-8859-1, not UTF-16.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class RecordIndex {
+
+    /**
+     * the name of the document element of a parsed shard
+     */
+    public static final String WRAPPER = "records";
+
+    private static final int MAGIC = 0x4B524958;
+    private static final int VERSION = 2;
+    private static final int CHECKED_BYTES = 1 << 16;
+    private static final int HEAD_SIZE = 1024;
+
+    private final Path file;
+    private final String recordName;
+    private final String encoding;
+    private final long size;
+    private final long modified;
+    private final String doctype;
+    private final List<String> contexts;
+    private final long[] starts;
+    private final int[] lengths;
+    private final int[] recordContexts;
+    private final int count;
+
+    private RecordIndex(Path file, String recordName, Scan scan) {
+        this.file = file;
+        this.recordName = recordName;
+        encoding = scan.encoding;
+        size = scan.size;
+        modified = scan.modified;
+        doctype = scan.doctype;
+        contexts = Collections.unmodifiableList(scan.contexts);
+        starts = scan.starts;
+        lengths = scan.lengths;
+        recordContexts = scan.recordContexts;
+        count = scan.count;
+    }
+
+    /**
+     * index the records of a file, using and updating the sidecar file
+     * {@link #sidecar(Path, String)}
+     *
+     * @param file       the XML file
+     * @param recordName the qualified name of the records, as in the file
+     * @return the index
+     * @throws IOException if the file cannot be read or the sidecar cannot
+     *                     be written
+     */
+    public static RecordIndex open(Path file, String recordName)
+            throws IOException {
+        return open(file, recordName, sidecar(file, recordName));
+    }
+
+    /**
+     * index the records of a file
+     *
+     * @param file       the XML file
+     * @param recordName the qualified name of the records, as in the file
+     * @param sidecar    where to keep the index, or {@code null} to always
+     *                   scan the whole file
+     * @return the index
+     * @throws IOException if the file cannot be read or the sidecar cannot
+     *                     be written
+     */
+    public static RecordIndex open(Path file, String recordName,
+                                   Path sidecar) throws IOException {
+        Scan scan = sidecar == null ? null : Scan.read(sidecar, recordName);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (scan != null && (size != scan.size
+                    || modified != scan.modified)) {
+                if (!scan.isPrefixOf(channel)) {
+                    scan = null;
+                }
+            }
+            if (scan == null) {
+                scan = new Scan(recordName, head(channel));
+            }
+            if (scan.size != size || scan.modified != modified) {
+                scan.continueScan(channel, size, modified);
+                if (sidecar != null) {
+                    scan.write(sidecar);
+                }
+            }
+        }
+        return new RecordIndex(file, recordName, scan);
+    }
+
+    /**
+     * where {@link #open(Path, String)} keeps the index
+     *
+     * @param file       the XML file
+     * @param recordName the qualified name of the records
+     * @return the sidecar file, in the same directory
+     */
+    public static Path sidecar(Path file, String recordName) {
+        return file.resolveSibling(file.getFileName() + "."
+                + recordName.replace(':', '_') + ".records");
+    }
+
+    /**
+     * the indexed file
+     *
+     * @return the file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * the qualified name of the records
+     *
+     * @return the name
+     */
+    public String getRecordName() {
+        return recordName;
+    }
+
+    /**
+     * whether the file has changed since it was indexed; records stay valid
+     * if it was only appended to
+     *
+     * @return whether
+     */
+    public boolean isStale() {
+        try {
+            return Files.size(file) != size || Files.getLastModifiedTime(file)
+                    .toMillis() != modified;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * the number of complete records
+     *
+     * @return the number
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * where a record starts
+     *
+     * @param record the index of the record
+     * @return the offset of its {@code <}
+     */
+    public long start(int record) {
+        return starts[check(record)];
+    }
+
+    /**
+     * where a record ends
+     *
+     * @param record the index of the record
+     * @return the offset after its last {@code >}
+     */
+    public long end(int record) {
+        return starts[check(record)] + lengths[record];
+    }
+
+    /**
+     * the namespace declarations in scope for a record, from its ancestors
+     *
+     * @param record the index of the record
+     * @return the declarations as in XML, e.g.
+     * {@code xmlns="http://www.tei-c.org/ns/1.0"}, or {@code ""}
+     */
+    public String namespaces(int record) {
+        return contexts.get(recordContexts[check(record)]).trim();
+    }
+
+    /**
+     * cut the records into runs of about the given size; records of
+     * different namespace contexts do not share a shard
+     *
+     * @param maxBytes the size of a shard, unless a record is larger
+     * @return the shards, in file order
+     */
+    public List<Shard> shards(long maxBytes) {
+        List<Shard> shards = new ArrayList<>();
+        int from = 0;
+        while (from < count) {
+            int to = from + 1;
+            long bytes = lengths[from];
+            while (to < count && recordContexts[to] == recordContexts[from]
+                    && bytes + lengths[to] <= maxBytes
+                    && starts[to] + lengths[to] - starts[from]
+                    <= Integer.MAX_VALUE) {
+                bytes += lengths[to];
+                to++;
+            }
+            shards.add(new Shard(from, to, bytes));
+            from = to;
+        }
+        return shards;
+    }
+
+    /**
+     * the XML of a shard, as a small document; see {@link #WRAPPER}
+     *
+     * @param shard the shard
+     * @return the input, in the encoding of the file
+     * @throws IOException if the file cannot be read
+     */
+    public InputSource inputSource(Shard shard) throws IOException {
+        long[] ranges = new long[2 * (shard.to - shard.from)];
+        for (int r = shard.from, i = 0; r < shard.to; r++) {
+            ranges[i++] = starts[r];
+            ranges[i++] = starts[r] + lengths[r];
+        }
+        return inputSource(file, encoding, doctype,
+                contexts.get(recordContexts[shard.from]), ranges);
+    }
+
+    /**
+     * byte ranges of a file in a {@link #WRAPPER} element, as a small
+     * document
+     *
+     * @param file         the file
+     * @param encoding     its declared encoding, or {@code null}
+     * @param doctype      its DOCTYPE, or {@code ""}
+     * @param declarations the namespace declarations in scope, as written
+     * @param ranges       start and end offsets, in file order
+     * @return the input
+     * @throws IOException if the file cannot be read
+     */
+    static InputSource inputSource(Path file, String encoding,
+                                   String doctype, String declarations,
+                                   long[] ranges) throws IOException {
+        long regionStart = ranges[0];
+        long regionEnd = ranges[ranges.length - 1];
+        if (regionEnd - regionStart > Integer.MAX_VALUE) {
+            throw new IOException("range too large: " + regionStart + "–"
+                    + regionEnd);
+        }
+        MappedByteBuffer region;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            if (channel.size() < regionEnd) {
+                throw new IOException("file has shrunk: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                    regionEnd - regionStart);
+        }
+        StringBuilder prefix = new StringBuilder();
+        if (encoding != null) {
+            prefix.append("<?xml version=\"1.0\" encoding=\"")
+                    .append(encoding).append("\"?>");
+        }
+        prefix.append(doctype).append('<').append(WRAPPER)
+                .append(declarations).append('>');
+        List<InputStream> parts = new ArrayList<>(ranges.length / 2 + 2);
+        // all ASCII, apart from what was read as raw bytes
+        parts.add(new ByteArrayInputStream(prefix.toString()
+                .getBytes(MarkupScanner.RAW)));
+        for (int i = 0; i < ranges.length; i += 2) {
+            parts.add(new BufferInputStream(region.slice(
+                    (int) (ranges[i] - regionStart),
+                    (int) (ranges[i + 1] - ranges[i]))));
+        }
+        parts.add(new ByteArrayInputStream(("</" + WRAPPER + ">")
+                .getBytes(MarkupScanner.RAW)));
+        InputSource source = new InputSource(new SequenceInputStream(
+                Collections.enumeration(parts)));
+        if (encoding != null) {
+            source.setEncoding(encoding);
+        }
+        source.setSystemId(file.toUri().toString());
+        return source;
+    }
+
+    /**
+     * parse a shard to a DOM {@link Document}; see {@link #WRAPPER}
+     *
+     * @param shard the shard
+     * @return the document
+     * @throws IOException  if the file cannot be read
+     * @throws SAXException if the shard is not well-formed
+     */
+    public Document parse(Shard shard) throws IOException, SAXException {
+        try {
+            return XMLProcessors.getDefault().parse(inputSource(shard));
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * parse one record to a DOM {@link Element}, the document element of
+     * its own {@link Document}, with the namespace declarations of its
+     * ancestors
+     *
+     * @param record the index of the record
+     * @return the element
+     * @throws IOException  if the file cannot be read
+     * @throws SAXException if the record is not well-formed
+     */
+    public Element parseRecord(int record) throws IOException, SAXException {
+        check(record);
+        return unwrap(parse(new Shard(record, record + 1, lengths[record])));
+    }
+
+    /**
+     * make the one element in the {@link #WRAPPER} of a parsed document its
+     * document element, keeping the namespace declarations
+     *
+     * @param doc the document
+     * @return the element
+     */
+    static Element unwrap(Document doc) {
+        Element wrapper = doc.getDocumentElement();
+        Element el = DOMTraversal.firstChild(wrapper, e -> true);
+        NamedNodeMap declarations = wrapper.getAttributes();
+        for (int i = 0; i < declarations.getLength(); i++) {
+            Attr declaration = (Attr) declarations.item(i);
+            if (!el.hasAttributeNS(declaration.getNamespaceURI(),
+                    declaration.getLocalName())) {
+                el.setAttributeNS(declaration.getNamespaceURI(),
+                        declaration.getName(), declaration.getValue());
+            }
+        }
+        doc.removeChild(wrapper);
+        wrapper.removeChild(el);
+        doc.appendChild(el);
+        return el;
+    }
+
+    /**
+     * detach the one element in the {@link #WRAPPER} of a parsed JDOM
+     * document, keeping the namespace declarations
+     *
+     * @param doc the document
+     * @return the detached element
+     */
+    static org.jdom2.Element unwrap(org.jdom2.Document doc) {
+        org.jdom2.Element wrapper = doc.getRootElement();
+        org.jdom2.Element el = wrapper.getChildren().get(0).detach();
+        for (org.jdom2.Namespace ns : wrapper.getAdditionalNamespaces()) {
+            if (el.getNamespace(ns.getPrefix()) == null) {
+                el.addNamespaceDeclaration(ns);
+            }
+        }
+        return el;
+    }
+
+    /**
+     * parse all records in shards, concurrently
+     *
+     * @param maxBytes    the size of a shard, see {@link #shards(long)}
+     * @param parallelism the maximal number of shards in flight
+     * @param ordered     whether to return results in file order, rather
+     *                    than as they are ready
+     * @return the parsed shards
+     */
+    public Stream<XMLBatch.Result<Document>> parseAll(long maxBytes,
+                                                      int parallelism,
+                                                      boolean ordered) {
+        return XMLBatch.processAll(shards(maxBytes), this::parse, parallelism,
+                ordered, null);
+    }
+
+    private int check(int record) {
+        if (record < 0 || record >= count) {
+            throw new IndexOutOfBoundsException(record);
+        }
+        return record;
+    }
+
+    /**
+     * the start of a file, enough for its XML declaration
+     *
+     * @param channel the file
+     * @return the bytes
+     * @throws IOException if the file cannot be read
+     */
+    static byte[] head(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(HEAD_SIZE,
+                channel.size()));
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+            // read on
+        }
+        return Arrays.copyOf(head.array(), head.position());
+    }
+
+    /**
+     * a piece of markup as raw bytes, e.g. a DOCTYPE the
+     * {@link MarkupScanner} found
+     *
+     * @param channel the file
+     * @param start   the offset of the markup
+     * @param end     the offset after it
+     * @return the bytes, decoded with {@link MarkupScanner#RAW}
+     * @throws IOException if the file cannot be read
+     */
+    static String markup(FileChannel channel, long start, long end)
+            throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        while (bytes.hasRemaining() && channel.read(bytes,
+                start + bytes.position()) > 0) {
+            // read on
+        }
+        return new String(bytes.array(), 0, bytes.position(),
+                MarkupScanner.RAW);
+    }
+
+    /**
+     * write a sidecar to a temporary file next to it and move it into
+     * place, so that readers never see a partial one
+     *
+     * @param sidecar the sidecar
+     * @param writer  writes the content
+     * @throws IOException if it cannot be written
+     */
+    static void writeSidecar(Path sidecar, SidecarWriter writer)
+            throws IOException {
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            writer.write(out);
+        }
+        try {
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * the content of a sidecar
+     */
+    @FunctionalInterface
+    interface SidecarWriter {
+        /**
+         * write it
+         *
+         * @param out where to
+         * @throws IOException if it cannot be written
+         */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * a run of records
+     */
+    public static final class Shard {
+        private final int from;
+        private final int to;
+        private final long bytes;
+
+        Shard(int from, int to, long bytes) {
+            this.from = from;
+            this.to = to;
+            this.bytes = bytes;
+        }
+
+        /**
+         * the first record
+         *
+         * @return its index
+         */
+        public int getFrom() {
+            return from;
+        }
+
+        /**
+         * after the last record
+         *
+         * @return the index
+         */
+        public int getTo() {
+            return to;
+        }
+
+        /**
+         * the size of the records
+         *
+         * @return the number of bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "records " + from + "–" + to + " (" + bytes + " bytes)";
+        }
+    }
+
+    /**
+     * an {@link InputStream} over a (mapped) buffer
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * the state of a scan, as kept in the sidecar file: the records so
+     * far, and the open elements where the scan stopped
+     */
+    private static final class Scan implements MarkupScanner.Handler {
+        private final String recordName;
+        private final byte[] recordNameBytes;
+        private String encoding;
+        private long size;
+        private long modified;
+        /**
+         * where the next scan continues
+         */
+        private long scanned;
+        private long checksum;
+        private String doctype = "";
+        private final List<String> contexts = new ArrayList<>();
+        private final Map<String, Integer> contextIds = new HashMap<>();
+        private long[] starts = new long[64];
+        private int[] lengths = new int[64];
+        private int[] recordContexts = new int[64];
+        private int count;
+        /**
+         * the declarations in scope in the open elements outside records
+         */
+        private final List<String> open = new ArrayList<>();
+        /**
+         * the open record: where it starts, its context, and the depth
+         * inside it
+         */
+        private long recordStart = -1;
+        private int recordContext;
+        private int recordDepth;
+        /**
+         * the file, while scanning
+         */
+        private FileChannel channel;
+
+        Scan(String recordName, byte[] head) {
+            this.recordName = recordName;
+            recordNameBytes = recordName.getBytes(StandardCharsets.UTF_8);
+            encoding = MarkupScanner.declaredEncoding(head);
+        }
+
+        void continueScan(FileChannel channel, long size, long modified)
+                throws IOException {
+            this.channel = channel;
+            scanned = MarkupScanner.scan(channel, scanned, size, this);
+            this.size = size;
+            this.modified = modified;
+            checksum = checksum(channel, scanned);
+        }
+
+        /**
+         * whether the file still starts with what was scanned
+         */
+        boolean isPrefixOf(FileChannel channel) throws IOException {
+            return channel.size() >= scanned
+                    && checksum(channel, scanned) == checksum;
+        }
+
+        private static long checksum(FileChannel channel, long end)
+                throws IOException {
+            long start = Math.max(0, end - CHECKED_BYTES);
+            ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+            while (bytes.hasRemaining() && channel.read(bytes,
+                    start + bytes.position()) > 0) {
+                // read on
+            }
+            bytes.flip();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return crc.getValue();
+        }
+
+        @Override
+        public void startTag(long start, long end, byte[] tag, int length,
+                             boolean empty) {
+            if (recordStart >= 0) {
+                if (!empty) {
+                    recordDepth++;
+                }
+                return;
+            }
+            String outer = open.isEmpty() ? "" : open.get(open.size() - 1);
+            if (isRecord(tag, length)) {
+                Integer id = contextIds.get(outer);
+                if (id == null) {
+                    id = contexts.size();
+                    contexts.add(outer);
+                    contextIds.put(outer, id);
+                }
+                recordStart = start;
+                recordContext = id;
+                recordDepth = 1;
+                if (empty) {
+                    endTag(start, end);
+                }
+            } else if (!empty) {
+                open.add(MarkupScanner.inScope(outer,
+                        MarkupScanner.declarations(tag, length)));
+            }
+        }
+
+        private boolean isRecord(byte[] tag, int length) {
+            int n = recordNameBytes.length;
+            return length >= n && Arrays.equals(tag, 0, n, recordNameBytes,
+                    0, n) && (length == n || tag[n] == ' ' || tag[n] == '\t'
+                    || tag[n] == '\n' || tag[n] == '\r');
+        }
+
+        @Override
+        public void endTag(long start, long end) {
+            if (recordStart < 0) {
+                if (!open.isEmpty()) {
+                    open.remove(open.size() - 1);
+                }
+                return;
+            }
+            if (--recordDepth > 0) {
+                return;
+            }
+            if (end - recordStart > Integer.MAX_VALUE) {
+                throw new IllegalStateException("record too large at "
+                        + recordStart);
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * count);
+                lengths = Arrays.copyOf(lengths, 2 * count);
+                recordContexts = Arrays.copyOf(recordContexts, 2 * count);
+            }
+            starts[count] = recordStart;
+            lengths[count] = (int) (end - recordStart);
+            recordContexts[count] = recordContext;
+            count++;
+            recordStart = -1;
+        }
+
+        @Override
+        public void doctype(long start, long end) throws IOException {
+            doctype = markup(channel, start, end);
+        }
+
+        void write(Path sidecar) throws IOException {
+            writeSidecar(sidecar, out -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(recordName);
+                out.writeUTF(encoding == null ? "" : encoding);
+                out.writeLong(size);
+                out.writeLong(modified);
+                out.writeLong(scanned);
+                out.writeLong(checksum);
+                writeRaw(out, doctype);
+                out.writeInt(open.size());
+                for (String declarations : open) {
+                    writeRaw(out, declarations);
+                }
+                out.writeLong(recordStart);
+                out.writeInt(recordContext);
+                out.writeInt(recordDepth);
+                out.writeInt(contexts.size());
+                for (String context : contexts) {
+                    writeRaw(out, context);
+                }
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(starts[i]);
+                    out.writeInt(lengths[i]);
+                    out.writeInt(recordContexts[i]);
+                }
+            });
+        }
+
+        /**
+         * a string of raw markup as its length and its bytes, as it may
+         * be too long for {@link DataOutputStream#writeUTF(String)}
+         */
+        private static void writeRaw(DataOutputStream out, String string)
+                throws IOException {
+            byte[] bytes = string.getBytes(MarkupScanner.RAW);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readRaw(DataInputStream in, long limit)
+                throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > limit) {
+                throw new StreamCorruptedException("bad string length");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, MarkupScanner.RAW);
+        }
+
+        /**
+         * the saved scan, or {@code null} if there is none that fits or it
+         * is damaged, so that the file is scanned again
+         */
+        static Scan read(Path sidecar, String recordName) throws IOException {
+            long limit;
+            try {
+                limit = Files.size(sidecar);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(sidecar)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION
+                        || !in.readUTF().equals(recordName)) {
+                    return null;
+                }
+                Scan scan = new Scan(recordName, new byte[0]);
+                String encoding = in.readUTF();
+                scan.encoding = encoding.isEmpty() ? null : encoding;
+                scan.size = in.readLong();
+                scan.modified = in.readLong();
+                scan.scanned = in.readLong();
+                scan.checksum = in.readLong();
+                scan.doctype = readRaw(in, limit);
+                for (int i = in.readInt(); i > 0; i--) {
+                    scan.open.add(readRaw(in, limit));
+                }
+                scan.recordStart = in.readLong();
+                scan.recordContext = in.readInt();
+                scan.recordDepth = in.readInt();
+                for (int i = in.readInt(); i > 0; i--) {
+                    String context = readRaw(in, limit);
+                    scan.contextIds.put(context, scan.contexts.size());
+                    scan.contexts.add(context);
+                }
+                int count = in.readInt();
+                if (count < 0 || count > limit / 16) {
+                    return null;
+                }
+                scan.starts = new long[Math.max(64, count)];
+                scan.lengths = new int[scan.starts.length];
+                scan.recordContexts = new int[scan.starts.length];
+                for (int i = 0; i < count; i++) {
+                    scan.starts[i] = in.readLong();
+                    scan.lengths[i] = in.readInt();
+                    scan.recordContexts[i] = in.readInt();
+                }
+                scan.count = count;
+                return scan;
+            } catch (NoSuchFileException | EOFException
+                     | UTFDataFormatException | StreamCorruptedException e) {
+                return null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.korpora.useful;
+
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * common parts of walking a tree and reporting it as SAX events
+ *
+ * <p>
+ * Namespace declarations are reported with
+ * {@link ContentHandler#startPrefixMapping(String, String)}, not as
+ * attributes, and are added where the tree does not contain them, as in
+ * {@link DOMSerializer}. Text is passed on through one reused buffer.
+ * </p>
+ *
+ * @author bfi
+ */
+abstract class SAXEmitter {
+
+    static final String CDATA = "CDATA";
+
+    final ContentHandler content;
+    final LexicalHandler lexical;
+    final AttributesImpl attributes = new AttributesImpl();
+    private char[] text = new char[256];
+    /**
+     * namespace bindings in scope, innermost last
+     */
+    private String[] prefixes = new String[16];
+    private String[] uris = new String[16];
+    int bindings;
+    private int generatedPrefixes;
+
+    SAXEmitter(ContentHandler content, LexicalHandler lexical) {
+        this.content = content;
+        this.lexical = lexical;
+    }
+
+    /**
+     * report text as CDATA section, if there is a {@link LexicalHandler}
+     */
+    void cdata(String s) throws SAXException {
+        if (lexical != null) {
+            lexical.startCDATA();
+            characters(s);
+            lexical.endCDATA();
+        } else {
+            characters(s);
+        }
+    }
+
+    void comment(String s) throws SAXException {
+        if (lexical != null) {
+            lexical.comment(chars(s), 0, s.length());
+        }
+    }
+
+    void docType(String name, String publicId, String systemId)
+            throws SAXException {
+        if (lexical != null) {
+            lexical.startDTD(name, publicId, systemId);
+            lexical.endDTD();
+        }
+    }
+
+    /**
+     * end the prefix mappings started since {@code scope}
+     */
+    void endScope(int scope) throws SAXException {
+        for (int i = bindings - 1; i >= scope; i--) {
+            content.endPrefixMapping(prefixes[i]);
+        }
+        bindings = scope;
+    }
+
+    void characters(String s) throws SAXException {
+        content.characters(chars(s), 0, s.length());
+    }
+
+    private char[] chars(String s) {
+        if (text.length < s.length()) {
+            text = new char[Math.max(s.length(), 2 * text.length)];
+        }
+        s.getChars(0, s.length(), text, 0);
+        return text;
+    }
+
+    /**
+     * make sure that {@code prefix} is bound to {@code uri}, reporting a
+     * mapping if necessary
+     */
+    void declare(String prefix, String uri) throws SAXException {
+        String p = prefix == null ? "" : prefix;
+        String u = uri == null ? "" : uri;
+        if (XMLConstants.XML_NS_PREFIX.equals(p) || u.equals(lookup(p))) {
+            return;
+        }
+        bind(p, u);
+        content.startPrefixMapping(p, u);
+    }
+
+    /**
+     * find or make a non-empty prefix for a namespace URI
+     */
+    String prefixFor(String uri) throws SAXException {
+        for (int i = bindings - 1; i >= 0; i--) {
+            if (uris[i].equals(uri) && !prefixes[i].isEmpty()
+                    && uri.equals(lookup(prefixes[i]))) {
+                return prefixes[i];
+            }
+        }
+        String prefix;
+        do {
+            prefix = "ns" + ++generatedPrefixes;
+        } while (lookup(prefix) != null);
+        declare(prefix, uri);
+        return prefix;
+    }
+
+    private String lookup(String prefix) {
+        for (int i = bindings - 1; i >= 0; i--) {
+            if (prefixes[i].equals(prefix)) {
+                return uris[i];
+            }
+        }
+        return prefix.isEmpty() ? "" : null;
+    }
+
+    private void bind(String prefix, String uri) {
+        if (bindings == prefixes.length) {
+            prefixes = Arrays.copyOf(prefixes, 2 * bindings);
+            uris = Arrays.copyOf(uris, 2 * bindings);
+        }
+        prefixes[bindings] = prefix;
+        uris[bindings] = uri;
+        bindings++;
+    }
+
+}
@@ -0,0 +1,375 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * validate XML against a compiled W3C XML {@link Schema}
+ *
+ * <p>
+ * Each schema is compiled once per URI and shared: {@link Schema}s are
+ * thread-safe, and the {@link Validator}s made from them are pooled. All
+ * problems in a document are collected as {@link Issue}s instead of
+ * stopping at the first one; files and streams are validated while they
+ * are read, without building a DOM. Schema imports and includes, like
+ * external DTDs, are resolved with {@link CachingResolver#getDefault()}.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class SchemaValidator {
+
+    private static final SchemaFactory FACTORY = SchemaFactory
+            .newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+    private static final Map<String, SchemaValidator> VALIDATORS =
+            new ConcurrentHashMap<>();
+
+    static {
+        FACTORY.setResourceResolver(CachingResolver.getDefault());
+    }
+
+    private final Schema schema;
+    private final String uri;
+    private final ObjectPool<Validator> validators = new ObjectPool<>(
+            XMLProcessors.DEFAULT_POOL_SIZE, Validator::reset);
+
+    private SchemaValidator(Schema schema, String uri) {
+        this.schema = schema;
+        this.uri = uri;
+    }
+
+    /**
+     * the validator for a schema at a URI, compiled on first use
+     *
+     * @param schema the schema URI
+     * @return the validator
+     * @throws SAXException if the schema does not compile
+     */
+    public static SchemaValidator of(URI schema) throws SAXException {
+        String key = schema.toString();
+        SchemaValidator validator = VALIDATORS.get(key);
+        if (validator == null) {
+            Schema compiled;
+            // JAXP factories are not thread-safe
+            synchronized (FACTORY) {
+                compiled = FACTORY.newSchema(new StreamSource(key));
+            }
+            validator = new SchemaValidator(compiled, key);
+            SchemaValidator old = VALIDATORS.putIfAbsent(key, validator);
+            if (old != null) {
+                validator = old;
+            }
+        }
+        return validator;
+    }
+
+    /**
+     * the validator for a schema file, compiled on first use
+     *
+     * @param schema the schema file
+     * @return the validator
+     * @throws SAXException if the schema does not compile
+     */
+    public static SchemaValidator of(Path schema) throws SAXException {
+        return of(schema.toAbsolutePath().normalize().toUri());
+    }
+
+    /**
+     * the validator for a class path schema, compiled on first use
+     *
+     * @param resource the resource name, e.g. {@code "xsd/tei.xsd"}
+     * @return the validator
+     * @throws SAXException if the schema is missing or does not compile
+     */
+    public static SchemaValidator ofResource(String resource)
+            throws SAXException {
+        String name = resource.startsWith("/") ? resource.substring(1)
+                : resource;
+        URL url = SchemaValidator.class.getClassLoader().getResource(name);
+        if (url == null) {
+            throw new SAXException("schema not found: " + name);
+        }
+        try {
+            return of(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * use an already compiled schema; this is not cached
+     *
+     * @param schema the schema
+     * @return the validator
+     */
+    public static SchemaValidator of(Schema schema) {
+        return new SchemaValidator(Objects.requireNonNull(schema), null);
+    }
+
+    /**
+     * forget all compiled schemas, e.g. after they changed
+     */
+    public static void clear() {
+        VALIDATORS.clear();
+    }
+
+    /**
+     * the compiled schema
+     *
+     * @return the schema
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * the schema URI
+     *
+     * @return the URI, or {@code null} if the schema was given compiled
+     */
+    public String getURI() {
+        return uri;
+    }
+
+    /**
+     * validate a DOM {@link Node}, e.g. a {@link org.w3c.dom.Document}
+     *
+     * @param node the node
+     * @return the problems, empty if the node is valid
+     */
+    public List<Issue> validate(Node node) {
+        try {
+            return validate(new DOMSource(node));
+        } catch (IOException e) {
+            // nothing is read
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * validate a file while reading it
+     *
+     * @param file the file
+     * @return the problems, empty if the file is valid
+     * @throws IOException if the file cannot be read
+     */
+    public List<Issue> validate(Path file) throws IOException {
+        try (MappedInputStream in = XMLUtilities.openXML(file)) {
+            return validate(new SAXSource(XMLUtilities.inputSource(file, in)));
+        }
+    }
+
+    /**
+     * validate a stream while reading it
+     *
+     * @param input    the stream
+     * @param systemId the system ID for relative references and messages,
+     *                 may be {@code null}
+     * @return the problems, empty if the stream is valid
+     * @throws IOException if the stream cannot be read
+     */
+    public List<Issue> validate(InputStream input, String systemId)
+            throws IOException {
+        return validate(new StreamSource(input, systemId));
+    }
+
+    /**
+     * validate any {@link Source} a {@link Validator} accepts
+     *
+     * @param source the source
+     * @return the problems, empty if the source is valid
+     * @throws IOException if the source cannot be read
+     */
+    public List<Issue> validate(Source source) throws IOException {
+        Collector collector = new Collector();
+        Validator validator = validators.poll();
+        if (validator == null) {
+            validator = schema.newValidator();
+        }
+        try {
+            // reset() forgets both
+            validator.setErrorHandler(collector);
+            validator.setResourceResolver(CachingResolver.getDefault());
+            validator.validate(source);
+        } catch (SAXParseException e) {
+            collector.add(Severity.FATAL, e);
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        } finally {
+            validators.release(validator);
+        }
+        return collector.issues.isEmpty() ? Collections.emptyList()
+                : collector.issues;
+    }
+
+    /**
+     * validate many files concurrently, sharing the compiled schema
+     *
+     * @param files       the files
+     * @param parallelism the maximal number of files in flight
+     * @param ordered     whether to return results in input order, rather
+     *                    than as they are ready
+     * @return the problems per file; files that could not be read have an
+     * error instead
+     * @see XMLBatch#processAll(Collection, XMLBatch.Task, int, boolean,
+     * java.util.concurrent.Executor)
+     */
+    public Stream<XMLBatch.Result<List<Issue>>> validateAll(
+            Collection<Path> files, int parallelism, boolean ordered) {
+        return XMLBatch.processAll(files, this::validate, parallelism,
+                ordered, null);
+    }
+
+    /**
+     * how bad a problem is
+     */
+    public enum Severity {
+        /**
+         * a warning
+         */
+        WARNING,
+        /**
+         * a validity error
+         */
+        ERROR,
+        /**
+         * a fatal error, e.g. not well-formed; validation stopped there
+         */
+        FATAL
+    }
+
+    /**
+     * a problem found when validating
+     */
+    public static final class Issue {
+        private final Severity severity;
+        private final String message;
+        private final String systemId;
+        private final int line;
+        private final int column;
+
+        Issue(Severity severity, String message, String systemId, int line,
+              int column) {
+            this.severity = severity;
+            this.message = message;
+            this.systemId = systemId;
+            this.line = line;
+            this.column = column;
+        }
+
+        /**
+         * how bad it is
+         *
+         * @return the severity
+         */
+        public Severity getSeverity() {
+            return severity;
+        }
+
+        /**
+         * the validator's message
+         *
+         * @return the message
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * where it is
+         *
+         * @return the system ID, or {@code null} if unknown
+         */
+        public String getSystemId() {
+            return systemId;
+        }
+
+        /**
+         * the line
+         *
+         * @return the line, or -1 if unknown
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * the column
+         *
+         * @return the column, or -1 if unknown
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        @Override
+        public String toString() {
+            return (systemId == null ? "" : systemId + ":") + line + ":"
+                    + column + ": " + severity + ": " + message;
+        }
+    }
+
+    /**
+     * collects all problems instead of stopping at the first
+     */
+    private static final class Collector implements ErrorHandler {
+        private final List<Issue> issues = new ArrayList<>();
+        private SAXParseException fatal;
+
+        void add(Severity severity, SAXParseException e) {
+            if (e == fatal) {
+                // reported and then thrown
+                return;
+            }
+            issues.add(new Issue(severity, e.getMessage(), e.getSystemId(),
+                    e.getLineNumber(), e.getColumnNumber()));
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+            add(Severity.WARNING, exception);
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            add(Severity.ERROR, exception);
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception)
+                throws SAXException {
+            add(Severity.FATAL, exception);
+            fatal = exception;
+            throw exception;
+        }
+    }
+
+}
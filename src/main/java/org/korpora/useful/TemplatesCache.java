@@ -0,0 +1,347 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * a thread-safe registry of compiled XSLT stylesheets
+ *
+ * <p>
+ * Each stylesheet, from the class path or from the file system, is
+ * compiled into {@link Templates} once; {@link Templates} are thread-safe,
+ * and the {@link Transformer}s made from them for each call are cheap. A
+ * stylesheet that is a file, also on the class path, is compiled again
+ * when its modification time changes. The {@link TransformerFactory} is
+ * given explicitly, e.g. {@code new net.sf.saxon.TransformerFactoryImpl()}
+ * for XSLT 2 or 3, instead of through a system property.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TemplatesCache {
+
+    private static volatile TemplatesCache defaultCache;
+
+    private final TransformerFactory factory;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * make a cache using the default {@link TransformerFactory}
+     */
+    public TemplatesCache() {
+        this(TransformerFactory.newInstance());
+    }
+
+    /**
+     * make a cache compiling with the given factory; the factory must not
+     * be changed afterwards
+     *
+     * @param factory the factory
+     */
+    public TemplatesCache(TransformerFactory factory) {
+        this.factory = Objects.requireNonNull(factory);
+    }
+
+    /**
+     * a cache using the default {@link TransformerFactory}
+     *
+     * @return the cache
+     */
+    public static TemplatesCache getDefault() {
+        TemplatesCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (TemplatesCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    cache = new TemplatesCache();
+                    defaultCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * the compiled stylesheet from a class path resource
+     *
+     * @param resource the resource name, e.g. {@code "xsl/tei2html.xsl"}
+     * @return the compiled stylesheet
+     * @throws TransformerConfigurationException if the stylesheet is missing
+     *                                           or does not compile
+     */
+    public Templates get(String resource)
+            throws TransformerConfigurationException {
+        String name = resource.startsWith("/") ? resource.substring(1)
+                : resource;
+        return get("classpath:" + name, () -> {
+            URL url = TemplatesCache.class.getClassLoader().getResource(name);
+            if (url == null && Thread.currentThread()
+                    .getContextClassLoader() != null) {
+                url = Thread.currentThread().getContextClassLoader()
+                        .getResource(name);
+            }
+            if (url == null) {
+                throw new TransformerConfigurationException(
+                        "stylesheet not found: " + name);
+            }
+            return url;
+        });
+    }
+
+    /**
+     * the compiled stylesheet from a file
+     *
+     * @param file the file
+     * @return the compiled stylesheet
+     * @throws TransformerConfigurationException if the stylesheet is missing
+     *                                           or does not compile
+     */
+    public Templates get(Path file) throws TransformerConfigurationException {
+        Path path = file.toAbsolutePath().normalize();
+        return get(path.toString(), () -> {
+            try {
+                return path.toUri().toURL();
+            } catch (IOException e) {
+                throw new TransformerConfigurationException(e);
+            }
+        });
+    }
+
+    private Templates get(String key, Locator locator)
+            throws TransformerConfigurationException {
+        Entry entry = entries.get(key);
+        boolean fresh = entry != null && entry.isFresh();
+        Instrumentation.cache(Metrics.Cache.TEMPLATES, fresh);
+        if (fresh) {
+            return entry.templates;
+        }
+        URL url = entry != null ? entry.url : locator.locate();
+        Path file = toFile(url);
+        long modified = modified(file);
+        Templates templates;
+        // JAXP factories are not thread-safe
+        synchronized (factory) {
+            templates = factory.newTemplates(
+                    new StreamSource(url.toExternalForm()));
+        }
+        entries.put(key, new Entry(templates, url, file, modified));
+        return templates;
+    }
+
+    /**
+     * a new {@link Transformer} from a class path stylesheet
+     *
+     * @param resource the resource name
+     * @return the transformer, for use by one thread
+     * @throws TransformerConfigurationException if the stylesheet is missing
+     *                                           or does not compile
+     */
+    public Transformer newTransformer(String resource)
+            throws TransformerConfigurationException {
+        return get(resource).newTransformer();
+    }
+
+    /**
+     * a new {@link Transformer} from a stylesheet file
+     *
+     * @param file the file
+     * @return the transformer, for use by one thread
+     * @throws TransformerConfigurationException if the stylesheet is missing
+     *                                           or does not compile
+     */
+    public Transformer newTransformer(Path file)
+            throws TransformerConfigurationException {
+        return get(file).newTransformer();
+    }
+
+    /**
+     * transform a DOM {@link Node} to a new DOM {@link Document}
+     *
+     * @param resource   the class path stylesheet
+     * @param input      the input, e.g. a {@link Document}
+     * @param parameters stylesheet parameters, may be empty
+     * @return the result
+     * @throws TransformerException in case of problems
+     */
+    public Document transform(String resource, Node input,
+                              Map<String, ?> parameters)
+            throws TransformerException {
+        return transform(get(resource), input, parameters);
+    }
+
+    /**
+     * transform a DOM {@link Node} to a new DOM {@link Document}
+     *
+     * @param file       the stylesheet file
+     * @param input      the input, e.g. a {@link Document}
+     * @param parameters stylesheet parameters, may be empty
+     * @return the result
+     * @throws TransformerException in case of problems
+     */
+    public Document transform(Path file, Node input,
+                              Map<String, ?> parameters)
+            throws TransformerException {
+        return transform(get(file), input, parameters);
+    }
+
+    /**
+     * transform a DOM {@link Node} to some {@link Result}, e.g. a
+     * {@link javax.xml.transform.stream.StreamResult}
+     *
+     * @param templates  the compiled stylesheet
+     * @param input      the input, e.g. a {@link Document}
+     * @param parameters stylesheet parameters, may be empty
+     * @param out        where the result goes
+     * @throws TransformerException in case of problems
+     */
+    public static void transform(Templates templates, Node input,
+                                 Map<String, ?> parameters, Result out)
+            throws TransformerException {
+        Transformer transformer = templates.newTransformer();
+        parameters.forEach(transformer::setParameter);
+        transformer.transform(new DOMSource(input), out);
+    }
+
+    /**
+     * transform a DOM {@link Node} to a new DOM {@link Document}
+     *
+     * @param templates  the compiled stylesheet
+     * @param input      the input, e.g. a {@link Document}
+     * @param parameters stylesheet parameters, may be empty
+     * @return the result
+     * @throws TransformerException in case of problems
+     */
+    public static Document transform(Templates templates, Node input,
+                                      Map<String, ?> parameters)
+            throws TransformerException {
+        DOMResult result = new DOMResult();
+        transform(templates, input, parameters, result);
+        return (Document) result.getNode();
+    }
+
+    /**
+     * transform a DOM {@link Node} to a new DOM {@link Document}, without
+     * parameters
+     *
+     * @param resource the class path stylesheet
+     * @param input    the input, e.g. a {@link Document}
+     * @return the result
+     * @throws TransformerException in case of problems
+     */
+    public Document transform(String resource, Node input)
+            throws TransformerException {
+        return transform(resource, input, Collections.emptyMap());
+    }
+
+    /**
+     * drop a compiled stylesheet from a class path resource
+     *
+     * @param resource the resource name
+     */
+    public void invalidate(String resource) {
+        entries.remove("classpath:" + (resource.startsWith("/")
+                ? resource.substring(1) : resource));
+    }
+
+    /**
+     * drop a compiled stylesheet from a file
+     *
+     * @param file the file
+     */
+    public void invalidate(Path file) {
+        entries.remove(file.toAbsolutePath().normalize().toString());
+    }
+
+    /**
+     * drop all compiled stylesheets
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * the file behind a URL, if it is one
+     */
+    private static Path toFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long modified(Path file)
+            throws TransformerConfigurationException {
+        if (file == null) {
+            return 0;
+        }
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (NoSuchFileException e) {
+            throw new TransformerConfigurationException(
+                    "stylesheet not found: " + file);
+        } catch (IOException e) {
+            throw new TransformerConfigurationException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Locator {
+        URL locate() throws TransformerConfigurationException;
+    }
+
+    private static final class Entry {
+        private final Templates templates;
+        private final URL url;
+        /**
+         * the file, or {@code null} for stylesheets in a jar
+         */
+        private final Path file;
+        private final long modified;
+
+        Entry(Templates templates, URL url, Path file, long modified) {
+            this.templates = templates;
+            this.url = url;
+            this.file = file;
+            this.modified = modified;
+        }
+
+        boolean isFresh() {
+            if (file == null) {
+                return true;
+            }
+            try {
+                return Files.getLastModifiedTime(file).toMillis() == modified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+}
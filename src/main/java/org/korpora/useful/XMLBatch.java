@@ -0,0 +1,390 @@
+package org.korpora.useful;
+
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.w3c.dom.Document;
+
+/**
+ * process many XML files concurrently, with a bounded number of documents
+ * in memory
+ *
+ * <p>
+ * The results come as a lazy {@link Stream}, either in input order or in
+ * completion order. At most {@code parallelism} files are being processed
+ * or waiting to be consumed at any time, so memory use stays bounded no
+ * matter how many files there are. A failure on one file is reported in
+ * its {@link Result} and does not abort the batch.
+ * </p>
+ * <p>
+ * Unless an {@link Executor} is given, each batch runs on virtual threads
+ * if the Java runtime has them, and on a pool of daemon threads
+ * otherwise. That executor is shut down when the stream is closed or
+ * consumed to the end, so close streams that may be abandoned early, e.g.
+ * with try-with-resources; pending tasks are cancelled then. The threads
+ * of a stream that is neither closed nor consumed end after
+ * {@value #IDLE_SECONDS} seconds without work.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class XMLBatch {
+    private XMLBatch() {
+    }
+
+    /**
+     * how long the threads of an abandoned batch are kept without work
+     */
+    static final int IDLE_SECONDS = 10;
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR;
+
+    static {
+        Method method;
+        try {
+            method = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            method = null;
+        }
+        NEW_VIRTUAL_THREAD_EXECUTOR = method;
+    }
+
+    /**
+     * parse XML files to DOM {@link Document}s, results in input order
+     *
+     * @param paths       the files
+     * @param parallelism maximal number of documents in flight
+     * @return the results
+     * @see XMLUtilities#parseXML(Path)
+     */
+    public static Stream<Result<Document>> parseAll(Collection<Path> paths,
+                                                    int parallelism) {
+        return parseAll(paths, parallelism, true);
+    }
+
+    /**
+     * parse XML files to DOM {@link Document}s
+     *
+     * @param paths       the files
+     * @param parallelism maximal number of documents in flight
+     * @param ordered     whether to return results in input order, rather
+     *                    than as they are ready
+     * @return the results
+     * @see XMLUtilities#parseXML(Path)
+     */
+    public static Stream<Result<Document>> parseAll(Collection<Path> paths,
+                                                    int parallelism,
+                                                    boolean ordered) {
+        return processAll(paths, XMLUtilities::parseXML, parallelism, ordered,
+                null);
+    }
+
+    /**
+     * parse XML files to JDOM {@link org.jdom2.Document}s
+     *
+     * @param paths       the files
+     * @param parallelism maximal number of documents in flight
+     * @param ordered     whether to return results in input order, rather
+     *                    than as they are ready
+     * @return the results
+     * @see XMLUtilities#parseXMLviaJDOM(Path)
+     */
+    public static Stream<Result<org.jdom2.Document>> parseAllViaJDOM(
+            Collection<Path> paths, int parallelism, boolean ordered) {
+        return processAll(paths, XMLUtilities::parseXMLviaJDOM, parallelism,
+                ordered, null);
+    }
+
+    /**
+     * apply a function to many inputs, e.g. files, concurrently
+     *
+     * @param inputs      the inputs, e.g. files
+     * @param function    what to do with each input
+     * @param parallelism maximal number of results in flight
+     * @param ordered     whether to return results in input order, rather
+     *                    than as they are ready
+     * @param executor    where to run the function, or {@code null} for a
+     *                    new executor that is shut down when the stream is
+     *                    closed or consumed to the end
+     * @param <I>         the type of the inputs
+     * @param <T>         the type of the results
+     * @return the results
+     */
+    public static <I, T> Stream<Result<T>> processAll(Collection<I> inputs,
+                                                      Task<? super I, ? extends T> function,
+                                                      int parallelism,
+                                                      boolean ordered,
+                                                      Executor executor) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        Objects.requireNonNull(function);
+        ExecutorService owned = executor == null
+                ? newExecutor(parallelism) : null;
+        BatchSpliterator<I, T> spliterator = new BatchSpliterator<>(
+                inputs, function, parallelism, ordered,
+                owned != null ? owned : executor, owned);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(spliterator::close);
+    }
+
+    /**
+     * make an executor for a batch: virtual threads if available, else
+     * daemon threads
+     *
+     * @param parallelism number of platform threads, if needed
+     * @return the executor
+     */
+    static ExecutorService newExecutor(int parallelism) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // fall back to platform threads
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism,
+                parallelism, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r,
+                    "xml-batch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // no threads left behind by a stream that is never closed
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * something to do with an input that may fail
+     *
+     * @param <I> the input type
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    public interface Task<I, T> {
+        /**
+         * do it
+         *
+         * @param input the input
+         * @return the result
+         * @throws Exception in case of problems
+         */
+        T apply(I input) throws Exception;
+    }
+
+    /**
+     * the outcome for one input: a value or an error
+     *
+     * @param <T> the type of the value
+     */
+    public static final class Result<T> {
+        private final Object input;
+        private final T value;
+        private final Exception error;
+
+        private Result(Object input, T value, Exception error) {
+            this.input = input;
+            this.value = value;
+            this.error = error;
+        }
+
+        /**
+         * the input, e.g. a {@link Path}
+         *
+         * @return the input
+         */
+        public Object getInput() {
+            return input;
+        }
+
+        /**
+         * the input as a {@link Path}
+         *
+         * @return the path
+         * @throws ClassCastException if the input was something else
+         */
+        public Path getPath() {
+            return (Path) input;
+        }
+
+        /**
+         * the value
+         *
+         * @return the value, or {@code null} in case of failure
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * the error
+         *
+         * @return the error, or {@code null} in case of success
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * whether processing succeeded
+         *
+         * @return whether
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return isSuccess() ? input + ": OK" : input + ": " + error;
+        }
+    }
+
+    private static final class BatchSpliterator<I, T>
+            extends Spliterators.AbstractSpliterator<Result<T>> {
+
+        private final Iterator<I> inputs;
+        private final Task<? super I, ? extends T> function;
+        private final int parallelism;
+        private final Executor executor;
+        private final ExecutorService owned;
+        /**
+         * submitted tasks, in input order
+         */
+        private final Deque<Future<Result<T>>> pending = new ArrayDeque<>();
+        /**
+         * for results in completion order
+         */
+        private final CompletionService<Result<T>> completion;
+        private int inFlight;
+        private boolean closed;
+
+        BatchSpliterator(Collection<I> inputs,
+                         Task<? super I, ? extends T> function,
+                         int parallelism, boolean ordered, Executor executor,
+                         ExecutorService owned) {
+            // not SIZED, which would let count() skip the work
+            super(inputs.size(), Spliterator.NONNULL
+                    | (ordered ? Spliterator.ORDERED : 0));
+            this.inputs = inputs.iterator();
+            this.function = function;
+            this.parallelism = parallelism;
+            this.executor = executor;
+            this.owned = owned;
+            completion = ordered ? null
+                    : new ExecutorCompletionService<>(executor);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Result<T>> action) {
+            if (closed) {
+                return false;
+            }
+            fill();
+            if (inFlight == 0) {
+                close();
+                return false;
+            }
+            Future<Result<T>> next;
+            try {
+                if (completion == null) {
+                    next = pending.removeFirst();
+                } else {
+                    next = completion.take();
+                    pending.remove(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new RuntimeException(e);
+            }
+            inFlight--;
+            // hand over before refilling, so that no more than parallelism
+            // documents are alive; the next call refills
+            action.accept(await(next));
+            return true;
+        }
+
+        private void fill() {
+            while (inFlight < parallelism && inputs.hasNext()) {
+                I input = inputs.next();
+                if (completion == null) {
+                    FutureTask<Result<T>> task = new FutureTask<>(
+                            () -> run(input));
+                    executor.execute(task);
+                    pending.addLast(task);
+                } else {
+                    pending.addLast(completion.submit(() -> run(input)));
+                }
+                inFlight++;
+            }
+        }
+
+        private Result<T> run(I input) {
+            try {
+                return new Result<>(input, function.apply(input), null);
+            } catch (Exception e) {
+                return new Result<>(input, null, e);
+            }
+        }
+
+        private Result<T> await(Future<Result<T>> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // only Errors get here, exceptions end up in the Result
+                close();
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.forEach(f -> f.cancel(true));
+            pending.clear();
+            if (owned != null) {
+                owned.shutdownNow();
+            }
+        }
+    }
+
+}
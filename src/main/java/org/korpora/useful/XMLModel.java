@@ -0,0 +1,241 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.jdom2.JDOMException;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * a tree model for XML documents – {@link #DOM}, {@link #JDOM} or
+ * {@link #COMPACT} – so that code can parse straight into the model it
+ * needs instead of parsing into one and converting to the other
+ *
+ * <p>
+ * Conversions between the models build the other tree from the first,
+ * see {@link XMLUtilities#convertDOMtoJDOM(Document)}
+ * and {@link XMLUtilities#convertJDOMToDOM(org.jdom2.Document)}; converting
+ * to the same model returns the document itself.
+ * </p>
+ *
+ * @param <T> the document type
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class XMLModel<T> {
+
+    /**
+     * W3C DOM, parsed with {@link XMLProcessors#getDefault()}
+     */
+    public static final XMLModel<Document> DOM = new DOMModel(null);
+
+    /**
+     * JDOM 2, parsed with pooled SAX engines
+     */
+    public static final XMLModel<org.jdom2.Document> JDOM = new JDOMModel();
+
+    /**
+     * {@link CompactDocument}, immutable and shareable between threads
+     */
+    public static final XMLModel<CompactDocument> COMPACT = new CompactModel();
+
+    private XMLModel() {
+    }
+
+    /**
+     * W3C DOM, parsed with the given processors
+     *
+     * @param processors the processors
+     * @return the model
+     */
+    static XMLModel<Document> dom(XMLProcessors processors) {
+        return new DOMModel(processors);
+    }
+
+    /**
+     * parse a document
+     *
+     * @param input the document
+     * @return the document in this model
+     * @throws SAXException if the document is not well-formed
+     * @throws IOException  if reading fails
+     */
+    public abstract T parse(InputSource input)
+            throws SAXException, IOException;
+
+    /**
+     * parse a file, read as in {@link XMLUtilities#parseXML(Path)}
+     *
+     * @param input the file
+     * @return the document in this model
+     * @throws SAXException if the document is not well-formed
+     * @throws IOException  if reading fails
+     */
+    public T parse(Path input) throws SAXException, IOException {
+        try (MappedInputStream in = XMLUtilities.openXML(input)) {
+            return parse(XMLUtilities.inputSource(input, in));
+        }
+    }
+
+    /**
+     * bring a DOM document into this model
+     *
+     * @param doc the DOM document
+     * @return the document in this model
+     */
+    public abstract T fromDOM(Document doc);
+
+    /**
+     * bring a JDOM document into this model
+     *
+     * @param doc the JDOM document
+     * @return the document in this model
+     */
+    public abstract T fromJDOM(org.jdom2.Document doc);
+
+    /**
+     * make a DOM document from a document in this model
+     *
+     * @param doc the document
+     * @return the DOM document
+     */
+    public abstract Document toDOM(T doc);
+
+    /**
+     * make a JDOM document from a document in this model
+     *
+     * @param doc the document
+     * @return the JDOM document
+     */
+    public abstract org.jdom2.Document toJDOM(T doc);
+
+    private static final class DOMModel extends XMLModel<Document> {
+        /**
+         * or {@code null} for {@link XMLProcessors#getDefault()}
+         */
+        private final XMLProcessors processors;
+
+        DOMModel(XMLProcessors processors) {
+            this.processors = processors;
+        }
+
+        @Override
+        public Document parse(InputSource input)
+                throws SAXException, IOException {
+            try {
+                return (processors != null ? processors
+                        : XMLProcessors.getDefault()).parse(input);
+            } catch (ParserConfigurationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Document fromDOM(Document doc) {
+            return doc;
+        }
+
+        @Override
+        public Document fromJDOM(org.jdom2.Document doc) {
+            try {
+                return XMLUtilities.convertJDOMToDOM(doc);
+            } catch (JDOMException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Document toDOM(Document doc) {
+            return doc;
+        }
+
+        @Override
+        public org.jdom2.Document toJDOM(Document doc) {
+            return XMLUtilities.convertDOMtoJDOM(doc);
+        }
+
+        @Override
+        public String toString() {
+            return "DOM";
+        }
+    }
+
+    private static final class JDOMModel extends XMLModel<org.jdom2.Document> {
+        @Override
+        public org.jdom2.Document parse(InputSource input)
+                throws SAXException, IOException {
+            try {
+                return FragmentParser.build(input);
+            } catch (JDOMException e) {
+                if (e.getCause() instanceof SAXException) {
+                    throw (SAXException) e.getCause();
+                }
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public org.jdom2.Document fromDOM(Document doc) {
+            return XMLUtilities.convertDOMtoJDOM(doc);
+        }
+
+        @Override
+        public org.jdom2.Document fromJDOM(org.jdom2.Document doc) {
+            return doc;
+        }
+
+        @Override
+        public Document toDOM(org.jdom2.Document doc) {
+            return DOM.fromJDOM(doc);
+        }
+
+        @Override
+        public org.jdom2.Document toJDOM(org.jdom2.Document doc) {
+            return doc;
+        }
+
+        @Override
+        public String toString() {
+            return "JDOM";
+        }
+    }
+
+    private static final class CompactModel
+            extends XMLModel<CompactDocument> {
+        @Override
+        public CompactDocument parse(InputSource input)
+                throws SAXException, IOException {
+            return CompactDocument.parse(input);
+        }
+
+        @Override
+        public CompactDocument fromDOM(Document doc) {
+            return CompactDocument.of(doc);
+        }
+
+        @Override
+        public CompactDocument fromJDOM(org.jdom2.Document doc) {
+            return CompactDocument.of(doc);
+        }
+
+        @Override
+        public Document toDOM(CompactDocument doc) {
+            return doc.toDOM();
+        }
+
+        @Override
+        public org.jdom2.Document toJDOM(CompactDocument doc) {
+            return doc.toJDOM();
+        }
+
+        @Override
+        public String toString() {
+            return "COMPACT";
+        }
+    }
+
+}
@@ -0,0 +1,399 @@
+package org.korpora.useful;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * a reusable configuration of XML parsers and transformers
+ *
+ * <p>
+ * Looking up JAXP factories and making new {@link DocumentBuilder}s and
+ * {@link Transformer}s is expensive compared to parsing or serialising a
+ * small document. An {@code XMLProcessors} object keeps its factories and
+ * a bounded pool of idle builders, SAX parsers and identity transformers,
+ * which are {@code reset()} and reused. It can be shared freely between
+ * threads; each builder, parser or transformer is only used by one thread
+ * at a time.
+ * </p>
+ * <p>
+ * External DTDs and entities can be resolved by an {@link EntityResolver}.
+ * {@link #XMLProcessors()}, and so {@link #getDefault()}, use
+ * {@link CachingResolver#getDefault()}, which keeps remote and catalogued
+ * ones in memory; processors made from given factories leave resolution
+ * to the parser unless they are given a resolver.
+ * </p>
+ * <p>
+ * The static methods in {@link XMLUtilities} use {@link #getDefault()},
+ * which can be replaced by {@link #setDefault(XMLProcessors)}.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public class XMLProcessors {
+
+    /**
+     * default maximal number of idle objects per pool
+     */
+    public static final int DEFAULT_POOL_SIZE = Math.max(4,
+            2 * Runtime.getRuntime().availableProcessors());
+
+    private static final String LEXICAL_HANDLER =
+            "http://xml.org/sax/properties/lexical-handler";
+
+    private static volatile XMLProcessors defaultProcessors;
+
+    private final DocumentBuilderFactory builderFactory;
+    private final TransformerFactory transformerFactory;
+    private final SAXParserFactory saxParserFactory;
+    private final EntityResolver resolver;
+    private final ObjectPool<DocumentBuilder> builders;
+    private final ObjectPool<SAXParser> saxParsers;
+    private final ObjectPool<Transformer> transformers;
+
+    /**
+     * make processors with namespace-aware parsing, the default
+     * {@link TransformerFactory} and {@link CachingResolver#getDefault()}
+     */
+    public XMLProcessors() {
+        this(defaultBuilderFactory(), TransformerFactory.newInstance(),
+                DEFAULT_POOL_SIZE, CachingResolver.getDefault());
+    }
+
+    /**
+     * make processors from the given factories, which resolve external
+     * entities as configured; the factories must not be changed afterwards
+     *
+     * @param builderFactory     the factory for {@link DocumentBuilder}s
+     * @param transformerFactory the factory for {@link Transformer}s
+     */
+    public XMLProcessors(DocumentBuilderFactory builderFactory,
+                         TransformerFactory transformerFactory) {
+        this(builderFactory, transformerFactory, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * make processors from the given factories, which resolve external
+     * entities as configured; the factories must not be changed afterwards
+     *
+     * @param builderFactory     the factory for {@link DocumentBuilder}s
+     * @param transformerFactory the factory for {@link Transformer}s
+     * @param poolSize           the maximal number of idle builders and
+     *                           transformers to keep, each
+     */
+    public XMLProcessors(DocumentBuilderFactory builderFactory,
+                         TransformerFactory transformerFactory, int poolSize) {
+        this(builderFactory, transformerFactory, poolSize, null);
+    }
+
+    /**
+     * make processors from the given factories; the factories must not be
+     * changed afterwards
+     *
+     * @param builderFactory     the factory for {@link DocumentBuilder}s
+     * @param transformerFactory the factory for {@link Transformer}s
+     * @param poolSize           the maximal number of idle builders and
+     *                           transformers to keep, each
+     * @param resolver           resolves external entities and DTDs when
+     *                           parsing, or {@code null} for the parser's
+     *                           own behaviour
+     */
+    public XMLProcessors(DocumentBuilderFactory builderFactory,
+                         TransformerFactory transformerFactory, int poolSize,
+                         EntityResolver resolver) {
+        this.resolver = resolver;
+        this.builderFactory = Objects.requireNonNull(builderFactory);
+        this.transformerFactory = Objects.requireNonNull(transformerFactory);
+        saxParserFactory = SAXParserFactory.newInstance();
+        saxParserFactory.setNamespaceAware(builderFactory.isNamespaceAware());
+        saxParserFactory.setValidating(builderFactory.isValidating());
+        saxParserFactory.setXIncludeAware(builderFactory.isXIncludeAware());
+        builders = new ObjectPool<>(poolSize, DocumentBuilder::reset);
+        saxParsers = new ObjectPool<>(poolSize, SAXParser::reset);
+        transformers = new ObjectPool<>(poolSize, Transformer::reset);
+    }
+
+    /**
+     * a namespace-aware {@link DocumentBuilderFactory}, as used by
+     * {@link XMLUtilities#parseXML(InputSource)}
+     *
+     * @return a new factory
+     */
+    public static DocumentBuilderFactory defaultBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory;
+    }
+
+    /**
+     * the processors used by the static methods of {@link XMLUtilities}
+     *
+     * @return the default processors
+     */
+    public static XMLProcessors getDefault() {
+        XMLProcessors processors = defaultProcessors;
+        if (processors == null) {
+            synchronized (XMLProcessors.class) {
+                processors = defaultProcessors;
+                if (processors == null) {
+                    processors = new XMLProcessors();
+                    defaultProcessors = processors;
+                }
+            }
+        }
+        return processors;
+    }
+
+    /**
+     * replace the processors used by the static methods of
+     * {@link XMLUtilities}
+     *
+     * @param processors the new default processors
+     */
+    public static void setDefault(XMLProcessors processors) {
+        defaultProcessors = Objects.requireNonNull(processors);
+    }
+
+    /**
+     * parse XML document from {@link InputSource} to a DOM Document
+     *
+     * @param input contains a document
+     * @return a DOM document
+     * @throws ParserConfigurationException if no builder can be made
+     * @throws SAXException                 on parse errors
+     * @throws IOException                  on read errors
+     */
+    public Document parse(InputSource input)
+            throws ParserConfigurationException, SAXException, IOException {
+        return withDocumentBuilder(builder -> builder.parse(input));
+    }
+
+    /**
+     * parse XML document from {@link InputSource} with a pooled
+     * {@link SAXParser}, configured like the {@link DocumentBuilder}s;
+     * handlers that are also {@link LexicalHandler}s get lexical events
+     *
+     * @param input   contains a document
+     * @param handler gets the events
+     * @throws ParserConfigurationException if no parser can be made
+     * @throws SAXException                 on parse errors
+     * @throws IOException                  on read errors
+     */
+    public void parse(InputSource input, DefaultHandler handler)
+            throws ParserConfigurationException, SAXException, IOException {
+        SAXParser parser = borrowSAXParser();
+        try {
+            if (handler instanceof LexicalHandler) {
+                parser.setProperty(LEXICAL_HANDLER, handler);
+            }
+            // not SAXParser.parse(input, handler), which would make the
+            // handler the entity resolver
+            XMLReader reader = parser.getXMLReader();
+            reader.setContentHandler(handler);
+            reader.setDTDHandler(handler);
+            reader.setErrorHandler(handler);
+            reader.setEntityResolver(resolver != null ? resolver : handler);
+            reader.parse(input);
+        } finally {
+            saxParsers.release(parser);
+        }
+    }
+
+    /**
+     * make an empty DOM {@link Document}
+     *
+     * @return the document
+     * @throws ParserConfigurationException if no builder can be made
+     */
+    public Document newDocument() throws ParserConfigurationException {
+        DocumentBuilder builder = borrowDocumentBuilder();
+        try {
+            return builder.newDocument();
+        } finally {
+            builders.release(builder);
+        }
+    }
+
+    /**
+     * run an action with a pooled {@link DocumentBuilder}; the builder must
+     * not escape the action
+     *
+     * @param action the action
+     * @param <R>    the result type
+     * @return the result of the action
+     * @throws ParserConfigurationException if no builder can be made
+     * @throws SAXException                 from the action
+     * @throws IOException                  from the action
+     */
+    public <R> R withDocumentBuilder(BuilderAction<R> action)
+            throws ParserConfigurationException, SAXException, IOException {
+        DocumentBuilder builder = borrowDocumentBuilder();
+        try {
+            return action.apply(builder);
+        } finally {
+            builders.release(builder);
+        }
+    }
+
+    /**
+     * serialise a DOM {@link Node} with a pooled identity
+     * {@link Transformer}
+     *
+     * @param node        the node
+     * @param out         where to write to
+     * @param indent      whether to indent
+     * @param declaration whether to output an XML declaration
+     * @throws TransformerException in case of problems
+     */
+    public void transform(Node node, Result out, boolean indent,
+                          boolean declaration) throws TransformerException {
+        withTransformer(transformer -> {
+            transformer.setOutputProperty(OutputKeys.INDENT,
+                    indent ? "yes" : "no");
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION,
+                    declaration ? "no" : "yes");
+            transformer.transform(new DOMSource(node), out);
+            return null;
+        });
+    }
+
+    /**
+     * run a {@link Source} through a pooled identity {@link Transformer}
+     *
+     * @param source the source
+     * @param out    where to write to
+     * @throws TransformerException in case of problems
+     */
+    public void transform(Source source, Result out)
+            throws TransformerException {
+        withTransformer(transformer -> {
+            transformer.transform(source, out);
+            return null;
+        });
+    }
+
+    /**
+     * run an action with a pooled identity {@link Transformer}; the
+     * transformer must not escape the action, output properties and
+     * parameters set by the action are reset afterwards
+     *
+     * @param action the action
+     * @param <R>    the result type
+     * @return the result of the action
+     * @throws TransformerException from the action, or if no transformer can
+     *                              be made
+     */
+    public <R> R withTransformer(TransformerAction<R> action)
+            throws TransformerException {
+        Transformer transformer = borrowTransformer();
+        try {
+            return action.apply(transformer);
+        } finally {
+            transformers.release(transformer);
+        }
+    }
+
+    /**
+     * drop all idle builders, parsers and transformers
+     */
+    public void clear() {
+        builders.clear();
+        saxParsers.clear();
+        transformers.clear();
+    }
+
+    private DocumentBuilder borrowDocumentBuilder()
+            throws ParserConfigurationException {
+        DocumentBuilder builder = builders.poll();
+        if (builder == null) {
+            // JAXP factories are not thread-safe
+            synchronized (builderFactory) {
+                builder = builderFactory.newDocumentBuilder();
+            }
+        }
+        // reset() forgets the resolver
+        builder.setEntityResolver(resolver);
+        return builder;
+    }
+
+    private SAXParser borrowSAXParser()
+            throws ParserConfigurationException, SAXException {
+        SAXParser parser = saxParsers.poll();
+        if (parser == null) {
+            synchronized (saxParserFactory) {
+                parser = saxParserFactory.newSAXParser();
+            }
+        }
+        return parser;
+    }
+
+    private Transformer borrowTransformer()
+            throws TransformerConfigurationException {
+        Transformer transformer = transformers.poll();
+        if (transformer == null) {
+            synchronized (transformerFactory) {
+                transformer = transformerFactory.newTransformer();
+            }
+        }
+        return transformer;
+    }
+
+    /**
+     * something to do with a {@link DocumentBuilder}
+     *
+     * @param <R> the result type
+     */
+    @FunctionalInterface
+    public interface BuilderAction<R> {
+        /**
+         * do it
+         *
+         * @param builder the builder
+         * @return the result
+         * @throws SAXException in case of problems
+         * @throws IOException  in case of problems
+         */
+        R apply(DocumentBuilder builder) throws SAXException, IOException;
+    }
+
+    /**
+     * something to do with a {@link Transformer}
+     *
+     * @param <R> the result type
+     */
+    @FunctionalInterface
+    public interface TransformerAction<R> {
+        /**
+         * do it
+         *
+         * @param transformer the transformer
+         * @return the result
+         * @throws TransformerException in case of problems
+         */
+        R apply(Transformer transformer) throws TransformerException;
+    }
+
+}
@@ -7,18 +7,9 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.*;
-
-import org.apache.commons.io.input.BOMInputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
 import org.jdom2.JDOMException;
 import org.jdom2.Namespace;
 import org.jdom2.filter.ElementFilter;
@@ -43,21 +34,18 @@ public class XMLUtilities {
     }
 
     /**
-     * setup XpathExpression for toStringValue
+     * shared JDOM outputters; their {@link org.jdom2.output.Format}s are
+     * never changed, so they are thread-safe
      */
-    private static XPathExpression toString = null;
-
-    static {
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        try {
-            toString = xpath.compile("string(.)");
-        } catch (XPathExpressionException e) {
-            throw new RuntimeException(e);
-        }
-    }
+    private static final org.jdom2.output.XMLOutputter RAW_OUTPUTTER =
+            new org.jdom2.output.XMLOutputter();
+    private static final org.jdom2.output.XMLOutputter PRETTY_OUTPUTTER =
+            new org.jdom2.output.XMLOutputter(
+                    org.jdom2.output.Format.getPrettyFormat());
 
     /**
-     * Make a {@link HashMap} with attributes from a DOM {@link Element} node
+     * Make a {@link HashMap} with attributes from a DOM {@link Element} node;
+     * use {@link #attributeView(Element)} unless you want to change the map
      *
      * @param el a DOM {@link Element}
      * @return a {@link HashMap} containing {@code el}'s attribute-value pairs
@@ -76,7 +64,8 @@ public class XMLUtilities {
     }
 
     /**
-     * make list of attribute Names
+     * make list of attribute Names; use {@link #attributeNamesView(Element)}
+     * unless you want to change the list
      *
      * @param el – an DOM {@link Element} {@link Node}
      * @return list of attribute names
@@ -94,6 +83,64 @@ public class XMLUtilities {
         return attributes;
     }
 
+    /**
+     * read-only view of the attributes of a DOM {@link Element}, by
+     * qualified name; nothing is copied, and changes to the element show
+     * through
+     *
+     * @param el a DOM {@link Element}
+     * @return a {@link Map} view of {@code el}'s attribute-value pairs
+     */
+    public static Map<String, String> attributeView(Element el) {
+        if (el == null) {
+            throw new IllegalArgumentException();
+        }
+        return AttributeViews.byName(el);
+    }
+
+    /**
+     * read-only view of the attributes of a namespace-aware DOM
+     * {@link Element}, by {@code {namespace}localName} – or just
+     * {@code localName} for attributes in no namespace
+     *
+     * @param el a DOM {@link Element}
+     * @return a {@link Map} view of {@code el}'s attribute-value pairs
+     */
+    public static Map<String, String> attributeViewNS(Element el) {
+        if (el == null) {
+            throw new IllegalArgumentException();
+        }
+        return AttributeViews.byExpandedName(el);
+    }
+
+    /**
+     * read-only view of the attribute names of a DOM {@link Element}
+     *
+     * @param el a DOM {@link Element}
+     * @return a {@link List} view of {@code el}'s attribute names
+     */
+    public static List<String> attributeNamesView(Element el) {
+        if (el == null) {
+            throw new IllegalArgumentException();
+        }
+        return AttributeViews.names(el);
+    }
+
+    /**
+     * a content fingerprint of an element, for noticing unchanged subtrees;
+     * to hash unchanged subtrees only once, use a {@link Fingerprints.Cache}
+     *
+     * @param el a DOM {@link Element}
+     * @return the SHA-256 fingerprint, in hexadecimal
+     * @see Fingerprints
+     */
+    public static String fingerprint(Element el) {
+        if (el == null) {
+            throw new IllegalArgumentException();
+        }
+        return Fingerprints.fingerprint(el);
+    }
+
     /**
      * convert DOM {@link Document} to JDOM {@link org.jdom2.Document}
      *
@@ -106,6 +153,18 @@ public class XMLUtilities {
         return builder.build(input);
     }
 
+    /**
+     * convert DOM {@link Element} to a detached JDOM
+     * {@link org.jdom2.Element}, without converting the rest of its document
+     *
+     * @param input DOM element
+     * @return JDOM element
+     */
+    public static org.jdom2.Element convertDOMtoJDOM(Element input) {
+        DOMBuilder builder = new DOMBuilder();
+        return builder.build(input).detach();
+    }
+
     /**
      * convert JDOM document to DOM {@link Document}
      *
@@ -120,6 +179,22 @@ public class XMLUtilities {
         return outPutter.output(jdomDoc);
     }
 
+    /**
+     * convert JDOM element to a DOM {@link Element} owned by the given
+     * {@link Document}, but not yet inserted into it
+     *
+     * @param element the JDOM element
+     * @param owner   the owner of the DOM element
+     * @return the DOM element
+     * @throws JDOMException on occasion
+     */
+    public static Element convertJDOMToDOM(org.jdom2.Element element,
+                                           Document owner)
+            throws JDOMException {
+        DOMOutputter outPutter = new DOMOutputter();
+        return outPutter.output(owner, element);
+    }
+
     /**
      * remove all children of XML DOM {@link Element}
      *
@@ -159,7 +234,8 @@ public class XMLUtilities {
     }
 
     /**
-     * convert XML DOM {@link Node} to {@link String} representation
+     * convert XML DOM {@link Node} to {@link String} representation, with
+     * {@link DOMSerializer}
      *
      * @param node        the XML element
      * @param indent      whether to indent
@@ -168,22 +244,11 @@ public class XMLUtilities {
      */
     public static String nodeToString(Node node, boolean indent,
                                       boolean declaration) {
-        TransformerFactory stf = TransformerFactory.newInstance();
-        Transformer transformer;
-        try {
-            transformer = stf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT,
-                    indent ? "yes" : "no");
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION,
-                    declaration ? "no" : "yes");
-            DOMSource source = new DOMSource(node);
-            StringWriter outStream = new StringWriter();
-            StreamResult out = new StreamResult(outStream);
-            transformer.transform(source, out);
-            return outStream.toString();
-        } catch (TransformerException e) {
-            throw new RuntimeException(e);
-        }
+        long start = Instrumentation.start();
+        String result = DOMSerializer.toString(node, indent, declaration);
+        Instrumentation.stop(Metrics.Operation.SERIALIZE, start,
+                result.length());
+        return result;
     }
 
     /**
@@ -264,11 +329,8 @@ public class XMLUtilities {
      */
     public static String elementToString(org.jdom2.Element element,
                                          boolean prettyPrint) {
-        org.jdom2.output.XMLOutputter xmlOutputter = new org.jdom2.output.XMLOutputter();
-        if (prettyPrint) {
-            xmlOutputter.setFormat(org.jdom2.output.Format.getPrettyFormat());
-        }
-        return xmlOutputter.outputString(element);
+        return (prettyPrint ? PRETTY_OUTPUTTER : RAW_OUTPUTTER)
+                .outputString(element);
     }
 
     /**
@@ -285,21 +347,58 @@ public class XMLUtilities {
     }
 
     /**
-     * convert Node to String value
+     * convert Node to String value, as XPath's {@code string(.)}: the text
+     * of an element or document, without comments and processing
+     * instructions, or the value of other nodes; collected by walking the
+     * tree, without XPath
      *
      * @param node the node
-     * @return
+     * @return the string value
      */
     public static String toStringValue(Node node) {
-        try {
-            return (String) toString.evaluate(node, XPathConstants.STRING);
-        } catch (XPathExpressionException e) {
-            throw new RuntimeException(e);
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+            case Node.DOCUMENT_NODE:
+            case Node.DOCUMENT_FRAGMENT_NODE:
+            case Node.ENTITY_REFERENCE_NODE:
+                Node first = node.getFirstChild();
+                if (first != null && first.getNextSibling() == null
+                        && isText(first)) {
+                    // the common case of a single text node
+                    return first.getNodeValue();
+                }
+                StringBuilder text = new StringBuilder();
+                appendText(node, text);
+                return text.toString();
+            case Node.DOCUMENT_TYPE_NODE:
+            case Node.NOTATION_NODE:
+                return "";
+            default:
+                String value = node.getNodeValue();
+                return value == null ? "" : value;
+        }
+    }
+
+    private static boolean isText(Node node) {
+        return node.getNodeType() == Node.TEXT_NODE
+                || node.getNodeType() == Node.CDATA_SECTION_NODE;
+    }
+
+    private static void appendText(Node parent, StringBuilder text) {
+        for (Node c = parent.getFirstChild(); c != null;
+             c = c.getNextSibling()) {
+            if (isText(c)) {
+                text.append(c.getNodeValue());
+            } else if (c.getNodeType() == Node.ELEMENT_NODE
+                    || c.getNodeType() == Node.ENTITY_REFERENCE_NODE) {
+                appendText(c, text);
+            }
         }
     }
 
     /**
-     * deeply search for Element in given DOM Element
+     * deeply search for Element in given DOM Element, stopping at the first
+     * match
      *
      * @param el        the parent
      * @param tagName   the sought tag name
@@ -308,48 +407,41 @@ public class XMLUtilities {
      */
     public static Element getElementByTagNameNS(Element el, String nameSpace,
                                                 String tagName) {
-        Element element = null;
-        NodeList elements = el.getElementsByTagNameNS(nameSpace, tagName);
-        if (elements.getLength() > 0) {
-            element = (Element) elements.item(0);
-        }
-        return element;
+        return DOMTraversal.firstDescendant(el,
+                DOMTraversal.named(nameSpace, tagName));
     }
 
     /**
      * get an XML DOM {@link Element} by ID, using any attribute with local name
-     * "id"
+     * "id", where {@code xml:id} takes precedence. Each call walks the
+     * document once, so it always sees the current state; for many lookups
+     * in a document that does not change, use
+     * {@link #getElementByIDCached(Document, String)}.
      *
      * @param doc XML DOM {@link Document}
      * @param id  the ID
      * @return the Element
+     * @throws RuntimeException if the ID is ambiguous
      */
     public static Element getElementByID(Document doc, String id) {
-        XPath xPath = XPathFactory.newInstance().newXPath();
-        String idXPath = "//*[@*[local-name() = 'id' and namespace-uri() = '"
-                + "http://www.w3.org/XML/1998/namespace" + "' and string() = '"
-                + id + "']]";
-        String idXXPath = "//*[@*[local-name() = 'id'" + " and string() = '"
-                + id + "']]";
-        try {
-            NodeList res = (NodeList) xPath.compile(idXPath).evaluate(doc,
-                    XPathConstants.NODESET);
-            if (res.getLength() > 1)
-                throw new RuntimeException("ambiguous ID " + id);
-            else if (res.getLength() == 1)
-                return (Element) res.item(0);
-            else {
-                res = (NodeList) xPath.compile(idXXPath).evaluate(doc,
-                        XPathConstants.NODESET);
-                if (res.getLength() > 1)
-                    throw new RuntimeException("ambiguous ID " + id);
-                else
-                    return (Element) res.item(0);
-            }
-        } catch (XPathExpressionException e) {
-            throw new RuntimeException("XPATH ERROR");
-        }
+        return IdIndex.find(doc, id);
+    }
 
+    /**
+     * get an XML DOM {@link Element} by ID like
+     * {@link #getElementByID(Document, String)}, but from an
+     * {@link IdIndex} attached to {@code doc}, built on first use. The index
+     * does not notice changes: after adding, removing or changing IDs, or
+     * removing elements, call {@link IdIndex#invalidate(Document)}, or this
+     * returns stale or detached elements.
+     *
+     * @param doc XML DOM {@link Document}
+     * @param id  the ID
+     * @return the Element
+     * @throws RuntimeException if the ID is ambiguous
+     */
+    public static Element getElementByIDCached(Document doc, String id) {
+        return IdIndex.of(doc).get(id);
     }
 
     /**
@@ -364,19 +456,15 @@ public class XMLUtilities {
     }
 
     /**
-     * deeply search for XML DOM {@link Element} in given DOM {@link Element}
+     * deeply search for XML DOM {@link Element} in given DOM {@link Element},
+     * stopping at the first match
      *
      * @param el      the parent XML DOM {@link Document}
      * @param tagName the sought-after tag name
      * @return the first matching {@link Element} or null
      */
     public static Element getElementByTagName(Element el, String tagName) {
-        Element element = null;
-        NodeList elements = el.getElementsByTagName(tagName);
-        if (elements.getLength() > 0) {
-            element = (Element) elements.item(0);
-        }
-        return element;
+        return DOMTraversal.firstDescendant(el, DOMTraversal.tagNamed(tagName));
     }
 
     /**
@@ -423,16 +511,7 @@ public class XMLUtilities {
      */
     @Deprecated
     public static Node[] toArray(NodeList list) {
-        if (list == null) {
-            throw new IllegalArgumentException();
-        }
-        // from
-        // http://www.java2s.com/Code/Java/XML/ConvertNodeListToNodeArray.htm
-        int length = list.getLength();
-        Node[] copy = new Node[length];
-        for (int n = 0; n < length; ++n)
-            copy[n] = list.item(n);
-        return copy;
+        return NodeListSpliterator.snapshot(list);
     }
 
     /**
@@ -451,7 +530,8 @@ public class XMLUtilities {
     }
 
     /**
-     * make Java 8+ {@link Stream} of a {@link NodeList}
+     * make Java 8+ {@link Stream} of a {@link NodeList}; the stream is sized
+     * and ordered and can be run in parallel, the list is copied once
      *
      * @param list – the {@link NodeList}
      * @return the {@link Stream}{@code <}{@link Node}{@code >}
@@ -460,13 +540,7 @@ public class XMLUtilities {
         if (list == null) {
             throw new IllegalArgumentException();
         }
-        return StreamSupport.stream(Spliterators
-                        .spliteratorUnknownSize(new NodeListIterable(list).iterator(),
-                                Spliterator.DISTINCT
-                                        // | Spliterator.IMMUTABLE
-                                        // | Spliterator.ORDERED
-                                        | Spliterator.NONNULL),
-                false);
+        return StreamSupport.stream(new NodeListSpliterator(list), false);
     }
 
     /**
@@ -488,8 +562,12 @@ public class XMLUtilities {
      * @see #toIterator(NodeList)
      */
     public static List<Element> toElementList(NodeList list) {
-        return XMLUtilities.toStream(list).map(w -> (Element) w)
-                .collect(Collectors.toList());
+        Node[] nodes = NodeListSpliterator.snapshot(list);
+        List<Element> elements = new ArrayList<>(nodes.length);
+        for (Node node : nodes) {
+            elements.add((Element) node);
+        }
+        return elements;
     }
 
     /**
@@ -581,11 +659,12 @@ public class XMLUtilities {
      */
     public static void outputXML(File file, Document doc,
                                  boolean indent) throws FileNotFoundException {
-        outputXML(new FileOutputStream(file), doc.getDocumentElement(), indent);
+        outputXML(file, doc.getDocumentElement(), indent);
     }
 
     /**
-     * output an XML DOM {@link Element}
+     * output an XML DOM {@link Element} as UTF-8, with {@link DOMSerializer};
+     * the stream is flushed, but not closed
      *
      * @param outStream an {@link OutputStream}
      * @param el        an XML DOM {@link Element}
@@ -593,22 +672,22 @@ public class XMLUtilities {
      */
     public static void outputXML(OutputStream outStream, Element el,
                                  boolean indent) {
-        TransformerFactory stf = TransformerFactory.newInstance();
-        Transformer transformer;
+        long start = Instrumentation.start();
+        CountingOutputStream counted = start == 0 ? null
+                : new CountingOutputStream(outStream);
         try {
-            transformer = stf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT,
-                    indent ? "yes" : "no");
-            DOMSource source = new DOMSource(el);
-            StreamResult out = new StreamResult(outStream);
-            transformer.transform(source, out);
-        } catch (TransformerException e) {
-            throw new RuntimeException(e);
+            DOMSerializer.serialize(el, counted == null ? outStream : counted,
+                    indent, true);
+            Instrumentation.stop(Metrics.Operation.SERIALIZE, start,
+                    counted == null ? -1 : counted.getByteCount());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
     /**
-     * parse XML document from {@link InputSource} to a DOM Document
+     * parse XML document from {@link InputSource} to a DOM Document, using
+     * the pooled builders of {@link XMLProcessors#getDefault()}
      *
      * @param input contains a document
      * @return a DOM document
@@ -618,11 +697,15 @@ public class XMLUtilities {
      */
     public static Document parseXML(InputSource input)
             throws ParserConfigurationException, SAXException, IOException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        DocumentBuilder builder;
-        builder = factory.newDocumentBuilder();
-        return builder.parse(input);
+        return parseXML(input, -1);
+    }
+
+    private static Document parseXML(InputSource input, long size)
+            throws ParserConfigurationException, SAXException, IOException {
+        long start = Instrumentation.start();
+        Document doc = XMLProcessors.getDefault().parse(input);
+        Instrumentation.stop(Metrics.Operation.PARSE_DOM, start, size);
+        return doc;
     }
 
     /**
@@ -648,7 +731,13 @@ public class XMLUtilities {
      */
     public static void outputXML(File file, Element element,
                                  boolean indent) throws FileNotFoundException {
-        outputXML(new FileOutputStream(file), element, indent);
+        try (OutputStream outStream = new FileOutputStream(file)) {
+            outputXML(outStream, element, indent);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -676,12 +765,14 @@ public class XMLUtilities {
      */
     public static Document parseXML(File input)
             throws ParserConfigurationException, SAXException, IOException {
-        return parseXML(new InputSource(
-                new BOMInputStream(new FileInputStream(input))));
+        return parseXML(input.toPath());
     }
 
     /**
-     * * * parse XML to DOM from {@link Path}
+     * parse XML to DOM from {@link Path}; the file is read through a
+     * {@link java.nio.channels.FileChannel}, memory-mapped if large, and
+     * closed before returning; see {@link DocumentCache} for files that are
+     * parsed again and again
      *
      * @param input {@link Path} to XML file
      * @return DOM document
@@ -691,7 +782,9 @@ public class XMLUtilities {
      */
     public static Document parseXML(Path input)
             throws ParserConfigurationException, SAXException, IOException {
-        return parseXML(input.toFile());
+        try (MappedInputStream in = openXML(input)) {
+            return parseXML(inputSource(input, in), in.size());
+        }
     }
 
     /**
@@ -705,7 +798,8 @@ public class XMLUtilities {
      */
     public static Document parseXML(String input)
             throws ParserConfigurationException, SAXException, IOException {
-        return parseXML(new InputSource(new StringReader(input)));
+        return parseXML(new InputSource(new StringReader(input)),
+                input.length());
     }
 
     /**
@@ -719,8 +813,16 @@ public class XMLUtilities {
      */
     public static org.jdom2.Document parseXMLviaJDOM(InputSource input)
             throws JDOMException, IOException {
-        org.jdom2.input.SAXBuilder saxBuilder = new org.jdom2.input.SAXBuilder();
-        return saxBuilder.build(input);
+        return parseXMLviaJDOM(input, -1);
+    }
+
+    private static org.jdom2.Document parseXMLviaJDOM(InputSource input,
+                                                      long size)
+            throws JDOMException, IOException {
+        long start = Instrumentation.start();
+        org.jdom2.Document doc = FragmentParser.build(input);
+        Instrumentation.stop(Metrics.Operation.PARSE_JDOM, start, size);
+        return doc;
     }
 
     /**
@@ -746,12 +848,12 @@ public class XMLUtilities {
      */
     public static org.jdom2.Document parseXMLviaJDOM(File input)
             throws JDOMException, IOException {
-        return parseXMLviaJDOM(new InputSource(
-                new BOMInputStream(new FileInputStream(input))));
+        return parseXMLviaJDOM(input.toPath());
     }
 
     /**
-     * parse XML document from {@link Path} to JDOM {@link org.jdom2.Document}
+     * parse XML document from {@link Path} to JDOM {@link org.jdom2.Document};
+     * the file is read as in {@link #parseXML(Path)}
      *
      * @param input {@link Path} to XML document
      * @return JDOM {@link org.jdom2.Document}
@@ -760,7 +862,95 @@ public class XMLUtilities {
      */
     public static org.jdom2.Document parseXMLviaJDOM(Path input)
             throws JDOMException, IOException {
-        return parseXMLviaJDOM(input.toFile());
+        try (MappedInputStream in = openXML(input)) {
+            return parseXMLviaJDOM(inputSource(input, in), in.size());
+        }
+    }
+
+    /**
+     * open an XML file for reading, skipping a byte order mark
+     *
+     * @param input {@link Path} to XML file
+     * @return the {@link MappedInputStream}
+     * @throws IOException if the file cannot be opened
+     */
+    static MappedInputStream openXML(Path input) throws IOException {
+        return MappedInputStream.open(input);
+    }
+
+    /**
+     * make an {@link InputSource} for an opened XML file
+     *
+     * @param input {@link Path} to XML file
+     * @param in    the opened file
+     * @return the {@link InputSource}, with the encoding of the byte order
+     * mark, if any, and the file's URI as system ID
+     */
+    static InputSource inputSource(Path input, MappedInputStream in) {
+        InputSource source = new InputSource(in);
+        source.setEncoding(in.getEncoding());
+        source.setSystemId(input.toUri().toString());
+        return source;
+    }
+
+    /**
+     * lazily extract matching elements from an XML file as small DOM
+     * subtrees, built one at a time with StAX, so that memory use does not
+     * depend on the size of the file. Each {@link Element} is the document
+     * element of its own {@link Document} and keeps the namespace
+     * declarations of its ancestors. Matching elements inside a matching
+     * element are not reported separately. Close the {@link Stream} (e.g.
+     * with try-with-resources) to close the file early.
+     *
+     * @param input     {@link Path} to XML file
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the {@link Stream} of {@link Element}s
+     * @throws IOException if the file cannot be opened
+     */
+    public static Stream<Element> streamElements(Path input, String namespace,
+                                                 String localName)
+            throws IOException {
+        MappedInputStream in = openXML(input);
+        return ElementStreams.dom(in, in.getEncoding(), namespace, localName);
+    }
+
+    /**
+     * lazily extract matching elements from an XML {@link InputStream} as
+     * small DOM subtrees
+     *
+     * @param input     the XML {@link InputStream}, closed with the stream
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the {@link Stream} of {@link Element}s
+     * @see #streamElements(Path, String, String)
+     */
+    public static Stream<Element> streamElements(InputStream input,
+                                                 String namespace,
+                                                 String localName) {
+        return ElementStreams.dom(input, null, namespace, localName);
+    }
+
+    /**
+     * lazily extract matching elements from an XML file as detached
+     * {@link org.jdom2.Element}s, built one at a time with StAX
+     *
+     * @param input     {@link Path} to XML file
+     * @param namespace the namespace URI, {@code "*"} for any, {@code null}
+     *                  for none
+     * @param localName the local name, {@code "*"} for any
+     * @return the {@link Stream} of {@link org.jdom2.Element}s
+     * @throws IOException if the file cannot be opened
+     * @see #streamElements(Path, String, String)
+     */
+    public static Stream<org.jdom2.Element> streamJDOMElements(Path input,
+                                                               String namespace,
+                                                               String localName)
+            throws IOException {
+        MappedInputStream in = openXML(input);
+        return ElementStreams.jdom(in, in.getEncoding(), namespace, localName);
     }
 
     /**
@@ -773,9 +963,7 @@ public class XMLUtilities {
      */
     public static org.jdom2.Document readJDOMFromString(String doc)
             throws JDOMException, IOException {
-        org.jdom2.input.SAXBuilder saxBuilder = new org.jdom2.input.SAXBuilder();
-        java.io.StringReader sr = new java.io.StringReader(doc);
-        return saxBuilder.build(sr);
+        return FragmentParser.build(new java.io.StringReader(doc));
     }
 
     /**
@@ -783,16 +971,30 @@ public class XMLUtilities {
      *
      * @param tx the text
      * @return the list of JDOM2 XML {@link org.jdom2.Content}
+     * @see FragmentParser
      */
     public static List<org.jdom2.Content> makeContentList(String tx) {
-        List<org.jdom2.Content> ret;
         try {
-            ret = readJDOMFromString("<X>" + tx + "</X>").getRootElement()
-                    .removeContent();
-        } catch (JDOMException | IOException e) {
+            return FragmentParser.parse(tx);
+        } catch (JDOMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * make {@link org.jdom2.Content} lists from many XML texts at once
+     *
+     * @param texts the texts
+     * @return the list of JDOM2 XML {@link org.jdom2.Content} for each text
+     * @see FragmentParser#parseAll(List)
+     */
+    public static List<List<org.jdom2.Content>> makeContentLists(
+            List<? extends CharSequence> texts) {
+        try {
+            return FragmentParser.parseAll(texts);
+        } catch (JDOMException e) {
             throw new RuntimeException(e);
         }
-        return ret;
     }
 
     /**
@@ -813,8 +1015,9 @@ public class XMLUtilities {
      *
      * This will NOT add Saxon as a DEPENDENCY!
      *
-     * Better use {@code new net.sf.saxon.TransformerFactoryImpl()}
-     *
+     * @deprecated this changes the factory for the whole JVM; better use
+     * {@code new TemplatesCache(new net.sf.saxon.TransformerFactoryImpl())},
+     * see {@link TemplatesCache}
      */
     @Deprecated
     public static void useSaxonXSLT () {
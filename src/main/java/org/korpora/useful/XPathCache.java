@@ -0,0 +1,442 @@
+package org.korpora.useful;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * a thread-safe cache of compiled XPath expressions
+ *
+ * <p>
+ * {@link XPathExpression}s are not thread-safe, so the cache keeps a small
+ * pool of compiled copies per expression string and
+ * {@link NamespaceContext}; each evaluation borrows one copy. Lookups take
+ * no lock, and expressions without a namespace context are found by their
+ * string alone. The number of cached expressions is bounded; when a new
+ * one exceeds it, one that was not used since the last sweep is dropped,
+ * approximating least recently used. Namespace contexts are compared
+ * with {@code equals}, so use one shared object per context, or
+ * {@link #namespaces(Map)}.
+ * </p>
+ *
+ * @author bfi
+ */
+@SuppressWarnings("WeakerAccess")
+public final class XPathCache {
+
+    /**
+     * default maximal number of cached expressions
+     */
+    public static final int DEFAULT_MAX_EXPRESSIONS = 256;
+
+    private static final XPathCache DEFAULT = new XPathCache(
+            DEFAULT_MAX_EXPRESSIONS);
+
+    private final XPathFactory factory;
+    private final int maxExpressions;
+    /**
+     * the expressions without a namespace context, by their string
+     */
+    private final Map<String, Entry> plain = new ConcurrentHashMap<>();
+    /**
+     * the expressions with a namespace context
+     */
+    private final Map<Key, Entry> qualified = new ConcurrentHashMap<>();
+    /**
+     * held while dropping expressions
+     */
+    private final Object evicting = new Object();
+
+    /**
+     * make a cache with the default {@link XPathFactory}
+     *
+     * @param maxExpressions maximal number of cached expressions
+     */
+    public XPathCache(int maxExpressions) {
+        this(XPathFactory.newInstance(), maxExpressions);
+    }
+
+    /**
+     * make a cache
+     *
+     * @param factory        the factory to compile expressions with; must
+     *                       not be changed afterwards
+     * @param maxExpressions maximal number of cached expressions
+     */
+    public XPathCache(XPathFactory factory, int maxExpressions) {
+        if (maxExpressions < 1) {
+            throw new IllegalArgumentException(
+                    "maxExpressions must be positive");
+        }
+        this.factory = Objects.requireNonNull(factory);
+        this.maxExpressions = maxExpressions;
+    }
+
+    /**
+     * the shared default cache
+     *
+     * @return the cache
+     */
+    public static XPathCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * make a {@link NamespaceContext} suitable as a cache key
+     *
+     * @param prefixes map from prefixes to namespace URIs
+     * @return the namespace context
+     */
+    public static NamespaceContext namespaces(Map<String, String> prefixes) {
+        return new Namespaces(prefixes);
+    }
+
+    /**
+     * evaluate an XPath expression
+     *
+     * @param expression the XPath expression
+     * @param namespaces the namespace context, or {@code null}
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @param returnType one of the {@link XPathConstants}
+     * @return the result, of the type corresponding to {@code returnType}
+     * @throws IllegalArgumentException if the expression cannot be compiled
+     */
+    public Object evaluate(String expression, NamespaceContext namespaces,
+                           Object item, QName returnType) {
+        Entry entry = entry(expression, namespaces);
+        ObjectPool<XPathExpression> pool = entry.pool;
+        long start = Instrumentation.start();
+        XPathExpression compiled = pool.poll();
+        Instrumentation.cache(Metrics.Cache.XPATH, compiled != null);
+        if (compiled == null) {
+            compiled = compile(entry);
+        }
+        try {
+            Object result = compiled.evaluate(item, returnType);
+            Instrumentation.stop(Metrics.Operation.XPATH, start, -1);
+            return result;
+        } catch (XPathExpressionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.release(compiled);
+        }
+    }
+
+    /**
+     * evaluate an XPath expression to a {@link String}
+     *
+     * @param expression the XPath expression
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @return the string value
+     */
+    public String evaluateString(String expression, Object item) {
+        return evaluateString(expression, null, item);
+    }
+
+    /**
+     * evaluate an XPath expression to a {@link String}
+     *
+     * @param expression the XPath expression
+     * @param namespaces the namespace context, or {@code null}
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @return the string value
+     */
+    public String evaluateString(String expression,
+                                 NamespaceContext namespaces, Object item) {
+        return (String) evaluate(expression, namespaces, item,
+                XPathConstants.STRING);
+    }
+
+    /**
+     * evaluate an XPath expression to a boolean
+     *
+     * @param expression the XPath expression
+     * @param namespaces the namespace context, or {@code null}
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @return the boolean value
+     */
+    public boolean evaluateBoolean(String expression,
+                                   NamespaceContext namespaces, Object item) {
+        return (Boolean) evaluate(expression, namespaces, item,
+                XPathConstants.BOOLEAN);
+    }
+
+    /**
+     * evaluate an XPath expression to a {@link Stream} of {@link Node}s
+     *
+     * @param expression the XPath expression
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @return the nodes
+     */
+    public Stream<Node> evaluateNodes(String expression, Object item) {
+        return evaluateNodes(expression, null, item);
+    }
+
+    /**
+     * evaluate an XPath expression to a {@link Stream} of {@link Node}s
+     *
+     * @param expression the XPath expression
+     * @param namespaces the namespace context, or {@code null}
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @return the nodes
+     */
+    public Stream<Node> evaluateNodes(String expression,
+                                      NamespaceContext namespaces,
+                                      Object item) {
+        return XMLUtilities.toStream((NodeList) evaluate(expression,
+                namespaces, item, XPathConstants.NODESET));
+    }
+
+    /**
+     * evaluate an XPath expression to a {@link Stream} of {@link Element}s,
+     * skipping other nodes
+     *
+     * @param expression the XPath expression
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @return the elements
+     */
+    public Stream<Element> evaluateElements(String expression, Object item) {
+        return evaluateElements(expression, null, item);
+    }
+
+    /**
+     * evaluate an XPath expression to a {@link Stream} of {@link Element}s,
+     * skipping other nodes
+     *
+     * @param expression the XPath expression
+     * @param namespaces the namespace context, or {@code null}
+     * @param item       the context item, e.g. a DOM {@link Node}
+     * @return the elements
+     */
+    public Stream<Element> evaluateElements(String expression,
+                                            NamespaceContext namespaces,
+                                            Object item) {
+        return evaluateNodes(expression, namespaces, item)
+                .filter(n -> n.getNodeType() == Node.ELEMENT_NODE)
+                .map(n -> (Element) n);
+    }
+
+    /**
+     * number of cached expressions
+     *
+     * @return the number
+     */
+    public int size() {
+        return plain.size() + qualified.size();
+    }
+
+    /**
+     * drop all cached expressions
+     */
+    public void clear() {
+        synchronized (evicting) {
+            plain.clear();
+            qualified.clear();
+        }
+    }
+
+    private Entry entry(String expression, NamespaceContext namespaces) {
+        Entry entry = namespaces == null ? plain.get(expression)
+                : qualified.get(new Key(expression, namespaces));
+        if (entry != null) {
+            entry.touch();
+            return entry;
+        }
+        Entry created = new Entry(expression, namespaces);
+        entry = namespaces == null ? plain.putIfAbsent(expression, created)
+                : qualified.putIfAbsent(new Key(expression, namespaces),
+                created);
+        if (entry != null) {
+            return entry;
+        }
+        if (size() > maxExpressions) {
+            evict(created);
+        }
+        return created;
+    }
+
+    /**
+     * drop expressions until the cache is within bounds, sparing those
+     * used since the last sweep as long as there are others
+     */
+    private void evict(Entry keep) {
+        synchronized (evicting) {
+            int sweeps = 0;
+            while (size() > maxExpressions) {
+                boolean force = ++sweeps > 2;
+                if (!evictOne(plain, keep, force)
+                        && !evictOne(qualified, keep, force)
+                        && force) {
+                    // only the new one is left
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean evictOne(Map<?, Entry> map, Entry keep,
+                                    boolean force) {
+        for (Iterator<Entry> it = map.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry == keep) {
+                continue;
+            }
+            if (entry.used && !force) {
+                entry.used = false;
+            } else {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private XPathExpression compile(Entry key) {
+        XPath xpath;
+        // XPathFactory is not thread-safe
+        synchronized (factory) {
+            xpath = factory.newXPath();
+        }
+        if (key.namespaces != null) {
+            xpath.setNamespaceContext(key.namespaces);
+        }
+        try {
+            return xpath.compile(key.expression);
+        } catch (XPathExpressionException e) {
+            throw new IllegalArgumentException(
+                    "invalid XPath " + key.expression, e);
+        }
+    }
+
+    /**
+     * the compiled copies of one expression
+     */
+    private static final class Entry {
+        private final String expression;
+        private final NamespaceContext namespaces;
+        private final ObjectPool<XPathExpression> pool = new ObjectPool<>(
+                XMLProcessors.DEFAULT_POOL_SIZE, e -> {
+        });
+        /**
+         * whether used since the last sweep; racy, but only a hint
+         */
+        private volatile boolean used;
+
+        Entry(String expression, NamespaceContext namespaces) {
+            this.expression = expression;
+            this.namespaces = namespaces;
+        }
+
+        void touch() {
+            // read first, so hot entries are not written to all the time
+            if (!used) {
+                used = true;
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String expression;
+        private final NamespaceContext namespaces;
+        private final int hash;
+
+        Key(String expression, NamespaceContext namespaces) {
+            this.expression = Objects.requireNonNull(expression);
+            this.namespaces = namespaces;
+            hash = 31 * expression.hashCode() + Objects.hashCode(namespaces);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && expression.equals(other.expression)
+                    && Objects.equals(namespaces, other.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * a fixed {@link NamespaceContext} with value semantics
+     */
+    private static final class Namespaces implements NamespaceContext {
+        private final Map<String, String> prefixes;
+
+        Namespaces(Map<String, String> prefixes) {
+            this.prefixes = Map.copyOf(prefixes);
+        }
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            if (prefix == null) {
+                throw new IllegalArgumentException();
+            }
+            switch (prefix) {
+                case XMLConstants.XML_NS_PREFIX:
+                    return XMLConstants.XML_NS_URI;
+                case XMLConstants.XMLNS_ATTRIBUTE:
+                    return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+                default:
+                    return prefixes.getOrDefault(prefix,
+                            XMLConstants.NULL_NS_URI);
+            }
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            Iterator<String> prefixes = getPrefixes(namespaceURI);
+            return prefixes.hasNext() ? prefixes.next() : null;
+        }
+
+        @Override
+        public Iterator<String> getPrefixes(String namespaceURI) {
+            if (namespaceURI == null) {
+                throw new IllegalArgumentException();
+            }
+            if (XMLConstants.XML_NS_URI.equals(namespaceURI)) {
+                return Collections.singleton(XMLConstants.XML_NS_PREFIX)
+                        .iterator();
+            }
+            return prefixes.entrySet().stream()
+                    .filter(e -> e.getValue().equals(namespaceURI))
+                    .map(Map.Entry::getKey).iterator();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Namespaces
+                    && prefixes.equals(((Namespaces) o).prefixes);
+        }
+
+        @Override
+        public int hashCode() {
+            return prefixes.hashCode();
+        }
+    }
+
+}
@@ -3,6 +3,11 @@ package org.korpora.useful;
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
 
 import org.junit.jupiter.api.Test;
 
@@ -41,4 +46,55 @@ class LangUtilitiesTest {
         assertFalse(LangUtilities.isLanguageTriple("nl"));
     }
 
-}
\ No newline at end of file
+    @Test
+    void testLookupInRange() {
+        String attributes = "lang=\"DE-at\" other=\"Deutsch\"";
+        assertEquals("de", LangUtilities.getLanguageString(attributes, 6, 11));
+        assertEquals("de", LangUtilities.getLanguageString(attributes, 20, 27));
+        assertTrue(LangUtilities.isLanguage(new StringBuilder("xNLD"), 1, 4));
+        assertFalse(LangUtilities.isLanguage(attributes, 0, 4));
+        assertFalse(LangUtilities.isLanguage("-de"));
+        assertFalse(LangUtilities.isLanguage("-"));
+        // case folding does not depend on the default locale
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr"));
+            assertTrue(LangUtilities.isLanguage("INDONESIAN"));
+            assertEquals("id", LangUtilities.getLanguage("INDONESIAN", null));
+        } finally {
+            Locale.setDefault(locale);
+        }
+        // unlike the others, this does not split
+        assertEquals("xx", LangUtilities.getLanguage("de-DE", "xx"));
+        assertEquals("deu-", LangUtilities.getLanguageLocale("de-DE", "xx", 1,
+                true));
+    }
+
+    @Test
+    void testLanguageTablesSnapshot() throws Exception {
+        LanguageTables parsed = LanguageTables.parse();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parsed.write(out);
+        long checksum = LanguageTables.sourceChecksum();
+        LanguageTables read = LanguageTables.read(
+                ByteBuffer.wrap(out.toByteArray()), checksum);
+        assertEquals(parsed.names.size(), read.names.size());
+        for (String name : new String[]{"deu", "Deutsch", "aceh-sprache",
+                "altfranzösisch", "NL", "xxx"}) {
+            assertEquals(parsed.names.get(name, 0, name.length()),
+                    read.names.get(name, 0, name.length()));
+        }
+        assertEquals(parsed.twoToThree, read.twoToThree);
+        assertEquals(parsed.codesThree, read.codesThree);
+        assertEquals(parsed.codesTwo, read.codesTwo);
+        // damaged or foreign snapshots are not used
+        byte[] bytes = out.toByteArray();
+        assertNull(LanguageTables.read(ByteBuffer.wrap(bytes, 0,
+                bytes.length - 1), checksum));
+        // nor those of other resources
+        assertNull(LanguageTables.read(ByteBuffer.wrap(bytes), checksum + 1));
+        bytes[7]++;
+        assertNull(LanguageTables.read(ByteBuffer.wrap(bytes), checksum));
+    }
+
+}
@@ -1,9 +1,12 @@
 package org.korpora.useful;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Duration;
+
 import org.junit.jupiter.api.Test;
 
 class UtilitiesTest {
@@ -44,4 +47,51 @@ class UtilitiesTest {
         assertThrows(IllegalArgumentException.class,
                 () -> Utilities.isEmpty(null));
     }
+
+    private static final class First implements Loggable {
+    }
+
+    private static final class Second implements Loggable {
+    }
+
+    @Test
+    void testLoggable() {
+        First first = new First();
+        assertEquals(First.class.getName(), first.logger().getName());
+        assertEquals(Second.class.getName(), new Second().logger().getName());
+        assertSame(first.logger(), new First().logger());
+        assertSame(first.logger(), Loggable.loggerFor(First.class));
+        first.debug("{} and {}", 1, "2");
+        first.trace("{} bytes", 42L);
+    }
+
+    @Test
+    void testLogThrottle() {
+        LogThrottle limited = LogThrottle.perPeriod(3, Duration.ofHours(1));
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (limited.allow()) {
+                allowed++;
+            }
+        }
+        assertEquals(3, allowed);
+        assertEquals(7, limited.takeSuppressed());
+        assertEquals(0, limited.takeSuppressed());
+
+        LogThrottle sampled = LogThrottle.sample(4);
+        allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (sampled.allow()) {
+                allowed++;
+            }
+        }
+        assertEquals(3, allowed);
+        assertThrows(IllegalArgumentException.class,
+                () -> LogThrottle.sample(0));
+
+        First first = new First();
+        for (int i = 0; i < 10; i++) {
+            first.warn(limited, "warning {}", i);
+        }
+    }
 }
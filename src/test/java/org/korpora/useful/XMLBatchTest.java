@@ -0,0 +1,110 @@
+package org.korpora.useful;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+
+class XMLBatchTest {
+
+    private static List<Path> makeFiles(Path dir, int n) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Path file = dir.resolve("f" + i + ".xml");
+            Files.writeString(file, i == 3 ? "<broken>" : "<doc n=\"" + i + "\"/>");
+            paths.add(file);
+        }
+        return paths;
+    }
+
+    @Test
+    void testParseAllOrdered(@TempDir Path dir) throws IOException {
+        List<Path> paths = makeFiles(dir, 20);
+        try (Stream<XMLBatch.Result<Document>> results = XMLBatch
+                .parseAll(paths, 4)) {
+            List<XMLBatch.Result<Document>> list = results
+                    .collect(Collectors.toList());
+            assertEquals(20, list.size());
+            for (int i = 0; i < 20; i++) {
+                XMLBatch.Result<Document> result = list.get(i);
+                assertEquals(paths.get(i), result.getPath());
+                if (i == 3) {
+                    assertFalse(result.isSuccess());
+                } else {
+                    assertEquals(String.valueOf(i), result.getValue()
+                            .getDocumentElement().getAttribute("n"));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testParseAllUnorderedJDOM(@TempDir Path dir) throws IOException {
+        List<Path> paths = makeFiles(dir, 20);
+        try (Stream<XMLBatch.Result<org.jdom2.Document>> results = XMLBatch
+                .parseAllViaJDOM(paths, 3, false)) {
+            Set<Path> seen = results.filter(XMLBatch.Result::isSuccess)
+                    .map(XMLBatch.Result::getPath).collect(Collectors.toSet());
+            assertEquals(19, seen.size());
+        }
+    }
+
+    @Test
+    void testBoundedInFlight() {
+        AtomicInteger running = new AtomicInteger();
+        Set<Integer> maxima = ConcurrentHashMap.newKeySet();
+        List<Integer> inputs = IntStream.range(0, 50).boxed()
+                .collect(Collectors.toList());
+        try (Stream<XMLBatch.Result<Integer>> results = XMLBatch.processAll(
+                inputs, i -> {
+                    maxima.add(running.incrementAndGet());
+                    Thread.sleep(2);
+                    running.decrementAndGet();
+                    return i * i;
+                }, 5, true, null)) {
+            assertEquals(IntStream.range(0, 50).map(i -> i * i).sum(),
+                    results.mapToInt(XMLBatch.Result::getValue).sum());
+        }
+        assertTrue(maxima.stream().allMatch(m -> m <= 5));
+    }
+
+    @Test
+    void testBoundedAlive() {
+        // results count until the consumer is done with them
+        AtomicInteger alive = new AtomicInteger();
+        Set<Integer> maxima = ConcurrentHashMap.newKeySet();
+        List<Integer> inputs = IntStream.range(0, 20).boxed()
+                .collect(Collectors.toList());
+        try (Stream<XMLBatch.Result<Integer>> results = XMLBatch.processAll(
+                inputs, i -> {
+                    alive.incrementAndGet();
+                    return i;
+                }, 3, true, null)) {
+            results.forEach(result -> {
+                try {
+                    // time for any task started too early to finish
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                maxima.add(alive.getAndDecrement());
+            });
+        }
+        assertTrue(maxima.stream().allMatch(m -> m <= 3));
+    }
+}
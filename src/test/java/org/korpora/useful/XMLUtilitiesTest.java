@@ -0,0 +1,814 @@
+package org.korpora.useful;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+class XMLUtilitiesTest {
+
+    private static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
+
+    private static final String SAMPLE = "<TEI xmlns=\"" + TEI_NS + "\">"
+            + "<text><body>"
+            + "<u who=\"#A\" xml:id=\"u1\"><w xml:id=\"w1\">Hallo</w> <w id=\"w2\">Welt</w></u>"
+            + "<u who=\"#B\" xml:id=\"u2\"><w>Tschüss</w></u>"
+            + "</body></text></TEI>";
+
+    @Test
+    void testParseAndSerialize() throws Exception {
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        assertEquals("TEI", doc.getDocumentElement().getLocalName());
+        String again = XMLUtilities.documentToString(doc, false, false);
+        assertEquals(SAMPLE, again);
+    }
+
+    @Test
+    void testConcurrentParsing() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(pool.submit(() -> XMLUtilities.nodeToString(
+                        XMLUtilities.parseXML(SAMPLE).getDocumentElement())));
+            }
+            for (Future<String> result : results) {
+                assertEquals(SAMPLE, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testStreamElements(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("sample.xml");
+        Files.write(file, ("\uFEFF" + SAMPLE).getBytes(StandardCharsets.UTF_8));
+        try (Stream<Element> us = XMLUtilities.streamElements(file, TEI_NS,
+                "u")) {
+            List<Element> list = us.collect(Collectors.toList());
+            assertEquals(2, list.size());
+            assertEquals("u2", list.get(1).getAttribute("xml:id"));
+            assertEquals(list.get(0),
+                    list.get(0).getOwnerDocument().getDocumentElement());
+            assertTrue(XMLUtilities.elementToString(list.get(1))
+                    .contains("xmlns=\"" + TEI_NS + "\""));
+        }
+        try (Stream<org.jdom2.Element> ws = XMLUtilities
+                .streamJDOMElements(file, "*", "w")) {
+            assertEquals("Hallo Welt Tschüss", ws
+                    .map(org.jdom2.Element::getText)
+                    .collect(Collectors.joining(" ")));
+        }
+    }
+
+    @Test
+    void testGetElementByID() throws Exception {
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        assertEquals("Welt",
+                XMLUtilities.getElementByID(doc, "w2").getTextContent());
+        assertEquals("u", XMLUtilities.getElementByID(doc, "u1").getLocalName());
+        assertNull(XMLUtilities.getElementByID(doc, "it's"));
+        assertEquals("Welt",
+                XMLUtilities.getElementByIDCached(doc, "w2").getTextContent());
+        Element w = XMLUtilities.getElementByTagName(doc, "w");
+        w.setAttribute("id", "w2");
+        assertThrows(RuntimeException.class,
+                () -> XMLUtilities.getElementByID(doc, "w2"));
+        // still the old index
+        assertEquals("Welt",
+                XMLUtilities.getElementByIDCached(doc, "w2").getTextContent());
+        IdIndex.invalidate(doc);
+        assertThrows(RuntimeException.class,
+                () -> XMLUtilities.getElementByIDCached(doc, "w2"));
+        // xml:id wins
+        w.setAttribute("id", "u2");
+        assertEquals("u", XMLUtilities.getElementByID(doc, "u2").getLocalName());
+        IdIndex.invalidate(doc);
+        assertEquals("u", XMLUtilities.getElementByIDCached(doc, "u2")
+                .getLocalName());
+    }
+
+    @Test
+    void testXPathCache() throws Exception {
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        XPathCache cache = new XPathCache(2);
+        NamespaceContext tei = XPathCache.namespaces(Map.of("tei", TEI_NS));
+        assertEquals(3, cache.evaluateElements("//tei:w", tei, doc).count());
+        assertEquals("#B", cache.evaluateString(
+                "//tei:u[@xml:id='u2']/@who", tei, doc));
+        assertEquals(0, cache.evaluateNodes("//w", doc).count());
+        assertEquals(2, cache.size());
+        assertEquals("Hallo Welt", XMLUtilities.toStringValue(
+                XMLUtilities.getElementByID(doc, "u1")));
+        // the same as XPath, without it
+        for (Node node : List.of(doc, doc.getDocumentElement(),
+                XMLUtilities.getElementByID(doc, "u2")
+                        .getAttributeNode("who"))) {
+            assertEquals(cache.evaluateString("string(.)", node),
+                    XMLUtilities.toStringValue(node));
+        }
+        // bounded, but without losing the expression just added
+        for (int i = 0; i < 10; i++) {
+            assertEquals(String.valueOf(i),
+                    cache.evaluateString("string(" + i + ")", doc));
+            assertTrue(cache.size() <= 2);
+        }
+    }
+
+    @Test
+    void testParsePath(@TempDir Path dir) throws Exception {
+        Path small = dir.resolve("small.xml");
+        Files.write(small, ("\uFEFF" + SAMPLE).getBytes(StandardCharsets.UTF_8));
+        assertEquals(SAMPLE, XMLUtilities.documentToString(
+                XMLUtilities.parseXML(small), false, false));
+        assertEquals("TEI", XMLUtilities.parseXMLviaJDOM(small.toFile())
+                .getRootElement().getName());
+        // large enough to be memory-mapped; UTF_16 writes a byte order mark
+        Path large = dir.resolve("large.xml");
+        StringBuilder xml = new StringBuilder("<r>");
+        while (xml.length() <= MappedInputStream.SMALL_FILE_SIZE) {
+            xml.append("<u>Tschüss</u>\n");
+        }
+        xml.append("<u>Ende</u></r>");
+        Files.write(large, xml.toString().getBytes(StandardCharsets.UTF_16));
+        Document doc = XMLUtilities.parseXML(large);
+        assertEquals("Ende", doc.getDocumentElement().getLastChild()
+                .getTextContent());
+        Files.delete(large);
+        // only the UTF-8 byte order mark is taken as the encoding
+        try (MappedInputStream in = MappedInputStream.open(small)) {
+            assertEquals("UTF-8", in.getEncoding());
+        }
+        Path wide = dir.resolve("wide.xml");
+        Files.write(wide, ("\uFEFF<r/>").getBytes(
+                java.nio.charset.Charset.forName("UTF-32LE")));
+        try (MappedInputStream in = MappedInputStream.open(wide)) {
+            assertNull(in.getEncoding());
+            assertEquals(0xFF, in.read());
+        }
+        // read through pooled chunks, across their borders
+        Path medium = dir.resolve("medium.xml");
+        Files.write(medium, xml.substring(0, xml.lastIndexOf("\n",
+                        4 * MappedInputStream.CHUNK_SIZE) + 1)
+                .concat("</r>").getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = Files.readAllBytes(medium);
+        try (MappedInputStream in = MappedInputStream.open(medium)) {
+            assertEquals(bytes.length, in.available());
+            in.skip(MappedInputStream.CHUNK_SIZE - 2);
+            in.mark(0);
+            byte[] read = in.readAllBytes();
+            assertEquals(bytes.length - MappedInputStream.CHUNK_SIZE + 2,
+                    read.length);
+            in.reset();
+            assertEquals(bytes[MappedInputStream.CHUNK_SIZE - 2], in.read());
+        }
+        assertEquals(XMLUtilities.documentToString(XMLUtilities.parseXML(
+                        new String(bytes, StandardCharsets.UTF_8)), false),
+                XMLUtilities.documentToString(XMLUtilities.parseXML(medium),
+                        false));
+    }
+
+    @Test
+    void testSerializeConstructed() throws Exception {
+        Document doc = XMLProcessors.getDefault().newDocument();
+        Element root = doc.createElementNS(TEI_NS, "TEI");
+        doc.appendChild(root);
+        Element p = doc.createElementNS(TEI_NS, "p");
+        root.appendChild(p);
+        p.setAttributeNS("urn:x", "x:n", "1 < 2");
+        p.setAttributeNS("urn:y", "m", "\"");
+        p.appendChild(doc.createTextNode("a & "));
+        p.appendChild(doc.createElementNS(null, "hi"));
+        assertEquals("<TEI xmlns=\"" + TEI_NS + "\"><p xmlns:ns1=\"urn:y\""
+                        + " ns1:m=\"&quot;\" xmlns:x=\"urn:x\" x:n=\"1 &lt; 2\">"
+                        + "a &amp; <hi xmlns=\"\"/></p></TEI>",
+                XMLUtilities.elementToString(root));
+        // mixed content is not indented
+        assertEquals("<TEI xmlns=\"" + TEI_NS + "\">\n    <p xmlns:ns1=\"urn:y\""
+                        + " ns1:m=\"&quot;\" xmlns:x=\"urn:x\" x:n=\"1 &lt; 2\">"
+                        + "a &amp; <hi xmlns=\"\"/></p>\n</TEI>\n",
+                XMLUtilities.elementToString(root, true));
+    }
+
+    @Test
+    void testNodeListStreams() throws Exception {
+        StringBuilder xml = new StringBuilder("<r>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<w n=\"").append(i).append("\"/>");
+        }
+        Document doc = XMLUtilities.parseXML(xml.append("</r>").toString());
+        NodeList ws = doc.getElementsByTagName("w");
+        Spliterator<Node> spliterator = new NodeListSpliterator(ws);
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED
+                | Spliterator.SUBSIZED | Spliterator.ORDERED));
+        assertEquals(1000, spliterator.estimateSize());
+        assertEquals(500, spliterator.trySplit().estimateSize());
+        assertEquals(499500, XMLUtilities.toElementStream(ws).parallel()
+                .mapToInt(w -> Integer.parseInt(w.getAttribute("n"))).sum());
+        List<Element> list = XMLUtilities.toElementList(ws);
+        assertEquals("999", list.get(999).getAttribute("n"));
+    }
+
+    @Test
+    void testTraversal() throws Exception {
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        Element root = doc.getDocumentElement();
+        assertEquals("w1", XMLUtilities.getElementByTagNameNS(doc, TEI_NS, "w")
+                .getAttribute("xml:id"));
+        assertNull(XMLUtilities.getElementByTagNameNS(doc, null, "w"));
+        assertNull(XMLUtilities.getElementByTagName(root, "TEI"));
+        assertEquals(3, DOMTraversal.descendants(root, "*", "w").count());
+        assertEquals(List.of("text"), DOMTraversal.children(root)
+                .map(Element::getLocalName).collect(Collectors.toList()));
+        List<String> names = new ArrayList<>();
+        for (Element el : DOMTraversal.descendantElements(root,
+                el -> el.hasAttribute("who"))) {
+            names.add(el.getAttribute("who"));
+        }
+        assertEquals(List.of("#A", "#B"), names);
+        assertEquals("Tschüss", DOMTraversal.descendants(root, TEI_NS, "w")
+                .reduce((a, b) -> b).get().getTextContent());
+    }
+
+    @Test
+    void testFragments() throws Exception {
+        List<org.jdom2.Content> content = XMLUtilities.makeContentList(
+                "a <b c=\"d\">e</b> f");
+        assertEquals(3, content.size());
+        assertNull(content.get(1).getParent());
+        assertEquals("e", ((org.jdom2.Element) content.get(1)).getText());
+        StringBuilder text = new StringBuilder("xx<i>y</i>zz");
+        assertEquals("<i>y</i>", XMLUtilities.elementToString(
+                (org.jdom2.Element) FragmentParser.parse(text, 2, 10).get(0)));
+        List<List<org.jdom2.Content>> lists = XMLUtilities.makeContentLists(
+                List.of("<X>1</X>", "", "2<w/>3"));
+        assertEquals(3, lists.size());
+        assertEquals("X", ((org.jdom2.Element) lists.get(0).get(0)).getName());
+        assertEquals(0, lists.get(1).size());
+        assertEquals(3, lists.get(2).size());
+        assertEquals("<X>1</X>", XMLUtilities.elementToString(
+                (org.jdom2.Element) XMLUtilities.makeContentLists(
+                        List.of("<X>1</X>")).get(0).get(0)));
+        assertThrows(RuntimeException.class,
+                () -> XMLUtilities.makeContentList("<a>"));
+        org.jdom2.Element el = new org.jdom2.Element("u");
+        XMLUtilities.replaceContentWithParse(el, "<w>x</w>");
+        assertEquals("x", el.getChild("w").getText());
+    }
+
+    @Test
+    void testConversion() throws Exception {
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        org.jdom2.Document jdom = XMLUtilities.convertDOMtoJDOM(doc);
+        assertEquals(XMLUtilities.elementToString(
+                        new org.jdom2.input.DOMBuilder().build(doc)
+                                .getRootElement()),
+                XMLUtilities.elementToString(jdom.getRootElement()));
+        Document back = XMLUtilities.convertJDOMToDOM(jdom);
+        assertEquals(XMLUtilities.documentToString(doc, false),
+                XMLUtilities.documentToString(back, false));
+
+        Element w = XMLUtilities.getElementByTagNameNS(doc, TEI_NS, "w");
+        org.jdom2.Element jw = XMLUtilities.convertDOMtoJDOM(w);
+        assertNull(jw.getParent());
+        assertEquals(TEI_NS, jw.getNamespaceURI());
+        assertEquals("w1", jw.getAttributeValue("id",
+                org.jdom2.Namespace.XML_NAMESPACE));
+        Document owner = XMLModel.DOM.parse(
+                new InputSource(new java.io.StringReader("<r/>")));
+        Element w2 = XMLUtilities.convertJDOMToDOM(jw, owner);
+        assertEquals(owner, w2.getOwnerDocument());
+        assertNull(w2.getParentNode());
+        assertEquals(TEI_NS, w2.getNamespaceURI());
+        assertEquals("w1", w2.getAttributeNS(XMLConstants.XML_NS_URI, "id"));
+        assertEquals("Hallo", w2.getTextContent());
+
+        org.jdom2.Document parsed = XMLModel.JDOM.parse(
+                new InputSource(new java.io.StringReader(SAMPLE)));
+        assertEquals(XMLUtilities.elementToString(jdom.getRootElement()),
+                XMLUtilities.elementToString(parsed.getRootElement()));
+        assertEquals(parsed, XMLModel.JDOM.fromJDOM(parsed));
+        assertThrows(org.xml.sax.SAXException.class, () -> XMLModel.JDOM.parse(
+                new InputSource(new java.io.StringReader("<a>"))));
+    }
+
+    @Test
+    void testAttributeViews() throws Exception {
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        Element u = XMLUtilities.getElementByTagNameNS(doc, TEI_NS, "u");
+        Map<String, String> view = XMLUtilities.attributeView(u);
+        assertEquals(XMLUtilities.attributeMap(u), view);
+        assertEquals("u1", view.get("xml:id"));
+        assertEquals(XMLUtilities.attributeList(u),
+                XMLUtilities.attributeNamesView(u));
+        Map<String, String> ns = XMLUtilities.attributeViewNS(u);
+        assertEquals("#A", ns.get("who"));
+        assertEquals("u1", ns.get("{" + XMLConstants.XML_NS_URI + "}id"));
+        assertNull(ns.get("xml:id"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> view.put("who", "#B"));
+        u.setAttribute("n", "1");
+        assertEquals("1", view.get("n"));
+        assertTrue(XMLUtilities.attributeNamesView(u).contains("n"));
+        assertEquals("1", ns.get("n"));
+    }
+
+    @Test
+    void testCompactDocument() throws Exception {
+        CompactDocument doc = XMLModel.COMPACT.parse(
+                new InputSource(new java.io.StringReader(SAMPLE)));
+        int root = doc.documentElement();
+        assertEquals("TEI", doc.localName(root));
+        assertEquals(TEI_NS, doc.namespaceURI(root));
+        assertEquals(TEI_NS, doc.attribute(root, "xmlns"));
+        assertEquals(3, doc.descendants(root, TEI_NS, "w").count());
+        assertEquals(0, doc.descendants(root, null, "w").count());
+        int u1 = doc.getElementById("u1");
+        assertEquals("#A", doc.attribute(u1, "who"));
+        assertEquals("Hallo Welt", doc.stringValue(u1));
+        assertEquals(XMLUtilities.toStringValue(
+                        XMLUtilities.parseXML(SAMPLE).getDocumentElement()),
+                doc.stringValue(root));
+        assertEquals("Welt", doc.stringValue(doc.getElementById("w2")));
+        assertEquals(CompactDocument.NONE, doc.getElementById("w3"));
+        assertEquals(3, doc.children(u1).count());
+        assertEquals(doc.firstChild(u1) + 2,
+                doc.nextSibling(doc.firstChild(u1)));
+
+        assertEquals(SAMPLE, XMLUtilities.documentToString(doc.toDOM(),
+                false, false));
+        assertEquals(XMLUtilities.elementToString(XMLUtilities
+                        .parseXMLviaJDOM(new InputSource(
+                                new java.io.StringReader(SAMPLE)))
+                        .getRootElement()),
+                XMLUtilities.elementToString(doc.toJDOM().getRootElement()));
+        org.jdom2.Element w = doc.toJDOM(doc.getElementById("w1"));
+        assertEquals(TEI_NS, w.getNamespaceURI());
+        assertEquals(SAMPLE, XMLUtilities.documentToString(
+                CompactDocument.of(doc.toDOM()).toDOM(), false, false));
+
+        CompactDocument ambiguous = CompactDocument.of(XMLUtilities.parseXML(
+                "<r><a xml:id=\"x\" id=\"y\"/><b id=\"x\"/><c id=\"y\"/>"
+                        + "<d id=\"z\" xml:id=\"z\"/></r>"));
+        assertEquals("a", ambiguous.localName(ambiguous.getElementById("x")));
+        assertThrows(RuntimeException.class,
+                () -> ambiguous.getElementById("y"));
+        assertEquals("d", ambiguous.localName(ambiguous.getElementById("z")));
+    }
+
+    @Test
+    void testTemplatesCache(@TempDir Path dir) throws Exception {
+        Path xsl = dir.resolve("count.xsl");
+        String stylesheet = "<xsl:stylesheet version=\"1.0\""
+                + " xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\""
+                + " xmlns:t=\"" + TEI_NS + "\">"
+                + "<xsl:param name=\"what\" select=\"'w'\"/>"
+                + "<xsl:template match=\"/\"><n>%s</n></xsl:template>"
+                + "</xsl:stylesheet>";
+        Files.writeString(xsl, String.format(stylesheet,
+                "<xsl:value-of select=\"count(//*[local-name() = $what])\"/>"));
+        TemplatesCache cache = new TemplatesCache();
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        assertEquals("3", cache.transform(xsl, doc, Map.of())
+                .getDocumentElement().getTextContent());
+        assertEquals("2", cache.transform(xsl, doc, Map.of("what", "u"))
+                .getDocumentElement().getTextContent());
+        assertTrue(cache.get(xsl) == cache.get(xsl));
+
+        Files.writeString(xsl, String.format(stylesheet, "changed"));
+        Files.setLastModifiedTime(xsl, java.nio.file.attribute.FileTime
+                .fromMillis(System.currentTimeMillis() + 10_000));
+        assertEquals("changed", cache.transform(xsl, doc, Map.of())
+                .getDocumentElement().getTextContent());
+        assertThrows(javax.xml.transform.TransformerConfigurationException.class,
+                () -> cache.get("no/such.xsl"));
+    }
+
+    @Test
+    void testCachingResolver(@TempDir Path dir) throws Exception {
+        Path dtd = dir.resolve("ent.dtd");
+        Files.writeString(dtd, "<!ELEMENT r (#PCDATA)>"
+                + "<!ENTITY who \"Welt\">");
+        Path xml = dir.resolve("doc.xml");
+        Files.writeString(xml, "<!DOCTYPE r SYSTEM \"ent.dtd\"><r>Hallo &who;</r>");
+        assertEquals("Hallo Welt", XMLUtilities.parseXML(xml)
+                .getDocumentElement().getTextContent());
+        assertEquals("Hallo Welt", XMLUtilities.parseXMLviaJDOM(xml)
+                .getRootElement().getText());
+        assertEquals("Hallo Welt", CompactDocument.parse(xml).stringValue(
+                CompactDocument.DOCUMENT));
+        // local files are not cached by default, so changes are seen
+        Files.writeString(dtd, "<!ELEMENT r (#PCDATA)>"
+                + "<!ENTITY who \"Leute\">");
+        assertEquals("Hallo Leute", XMLUtilities.parseXML(xml)
+                .getDocumentElement().getTextContent());
+
+        // cached files are checked for changes
+        CachingResolver files = new CachingResolver(false).cacheFiles(true);
+        XMLProcessors cachingFiles = new XMLProcessors(
+                XMLProcessors.defaultBuilderFactory(),
+                javax.xml.transform.TransformerFactory.newInstance(), 1,
+                files);
+        InputSource input = new InputSource(xml.toUri().toString());
+        assertEquals("Hallo Leute", cachingFiles.parse(input)
+                .getDocumentElement().getTextContent());
+        assertEquals(1, files.size());
+        Files.writeString(dtd, "<!ELEMENT r (#PCDATA)>"
+                + "<!ENTITY who \"Welten\">");
+        assertEquals("Hallo Welten", cachingFiles.parse(
+                new InputSource(xml.toUri().toString()))
+                .getDocumentElement().getTextContent());
+        assertEquals(1, files.size());
+
+        // bounded by the size of the content
+        CachingResolver small = new CachingResolver(false, 8).cacheFiles(true);
+        assertEquals("Hallo Welten", new XMLProcessors(
+                XMLProcessors.defaultBuilderFactory(),
+                javax.xml.transform.TransformerFactory.newInstance(), 1,
+                small).parse(new InputSource(xml.toUri().toString()))
+                .getDocumentElement().getTextContent());
+        assertEquals(0, small.size());
+
+        // offline, remote DTDs must be in the catalog
+        Files.writeString(dtd, "<!ENTITY who \"Katalog\">");
+        String remote = "<!DOCTYPE r SYSTEM \"http://example.invalid/%s\">"
+                + "<r>Hallo &who;</r>";
+        CachingResolver resolver = new CachingResolver(true).addDirectory(dir);
+        XMLProcessors processors = new XMLProcessors(
+                XMLProcessors.defaultBuilderFactory(),
+                javax.xml.transform.TransformerFactory.newInstance(), 1,
+                resolver);
+        assertEquals("Hallo Katalog", processors.parse(new InputSource(
+                new java.io.StringReader(String.format(remote, "ent.dtd"))))
+                .getDocumentElement().getTextContent());
+        assertThrows(IOException.class, () -> processors.parse(
+                new InputSource(new java.io.StringReader(
+                        String.format(remote, "other.dtd")))));
+        assertEquals(1, resolver.size());
+    }
+
+    @Test
+    void testRelativeSystemId() throws Exception {
+        // without a base URI, relative system IDs are in the working
+        // directory, as they were before there was a resolver
+        Path dtd = Files.createTempFile(
+                Path.of(System.getProperty("user.dir")), "rel", ".dtd");
+        try {
+            Files.writeString(dtd, "<!ENTITY who \"hier\">");
+            String xml = "<!DOCTYPE r SYSTEM \"" + dtd.getFileName()
+                    + "\"><r>Hallo &who;</r>";
+            assertEquals("Hallo hier", XMLUtilities.parseXML(xml)
+                    .getDocumentElement().getTextContent());
+        } finally {
+            Files.delete(dtd);
+        }
+    }
+
+    @Test
+    void testSchemaValidator(@TempDir Path dir) throws Exception {
+        Path xsd = dir.resolve("r.xsd");
+        Files.writeString(xsd, "<xs:schema"
+                + " xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+                + "<xs:element name=\"r\"><xs:complexType><xs:sequence>"
+                + "<xs:element name=\"n\" type=\"xs:int\""
+                + " maxOccurs=\"unbounded\"/>"
+                + "</xs:sequence></xs:complexType></xs:element></xs:schema>");
+        SchemaValidator validator = SchemaValidator.of(xsd);
+        assertTrue(validator == SchemaValidator.of(xsd.toUri()));
+        assertTrue(validator.validate(XMLUtilities.parseXML(
+                "<r><n>1</n><n>2</n></r>")).isEmpty());
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Path file = dir.resolve("f" + i + ".xml");
+            Files.writeString(file, i == 2 ? "<r><n>x</n><n>y</n></r>"
+                    : i == 4 ? "<r><n>1</n>" : "<r><n>" + i + "</n></r>");
+            files.add(file);
+        }
+        List<SchemaValidator.Issue> issues = validator.validate(files.get(2));
+        assertTrue(issues.size() >= 2);
+        assertEquals(SchemaValidator.Severity.ERROR, issues.get(0)
+                .getSeverity());
+        assertEquals(files.get(2).toUri().toString(), issues.get(0)
+                .getSystemId());
+        assertEquals(1, issues.get(0).getLine());
+        try (Stream<XMLBatch.Result<List<SchemaValidator.Issue>>> results =
+                     validator.validateAll(files, 3, true)) {
+            List<List<SchemaValidator.Issue>> all = results
+                    .map(XMLBatch.Result::getValue)
+                    .collect(Collectors.toList());
+            assertEquals(issues.size(), all.get(2).size());
+            assertEquals(1, all.get(4).size());
+            assertEquals(SchemaValidator.Severity.FATAL, all.get(4).get(0)
+                    .getSeverity());
+            assertEquals(3, all.stream().filter(List::isEmpty).count() - 1);
+        }
+    }
+
+    @Test
+    void testFingerprints() throws Exception {
+        Document doc = XMLUtilities.parseXML(SAMPLE);
+        Document same = XMLUtilities.parseXML(SAMPLE
+                .replace("<TEI xmlns=", "<t:TEI xmlns:t=")
+                .replace("</TEI>", "</t:TEI>")
+                .replaceAll("<(/?)(text|body|u|w)\\b", "<$1t:$2")
+                .replace("who=\"#A\" xml:id=\"u1\"", "xml:id=\"u1\" who=\"#A\"")
+                .replace("Hallo", "<![CDATA[Hal]]>lo<!-- x -->"));
+        String fingerprint = XMLUtilities.fingerprint(doc.getDocumentElement());
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, Fingerprints.fingerprint(
+                same.getDocumentElement()));
+        assertTrue(Fingerprints.diff(doc.getDocumentElement(),
+                same.getDocumentElement()).isEmpty());
+
+        Fingerprints.Cache cache = new Fingerprints.Cache();
+        assertEquals(fingerprint, cache.fingerprint(same.getDocumentElement()));
+        Element u2 = XMLUtilities.getElementByID(same, "u2");
+        Element w = (Element) u2.getFirstChild();
+        w.setTextContent("Tschau");
+        // not noticed by the cache without invalidate
+        assertEquals(fingerprint, cache.fingerprint(same.getDocumentElement()));
+        assertTrue(!fingerprint.equals(Fingerprints.fingerprint(
+                same.getDocumentElement())));
+        cache.invalidate(w);
+        assertTrue(!fingerprint.equals(cache.fingerprint(
+                same.getDocumentElement())));
+        List<Fingerprints.Change> changes = cache.diff(
+                doc.getDocumentElement(), same.getDocumentElement());
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0).getAfter() == w);
+        assertEquals(Fingerprints.fingerprint(XMLUtilities.getElementByID(
+                doc, "u1")), Fingerprints.fingerprint(
+                XMLUtilities.getElementByID(same, "u1")));
+
+        u2.setAttribute("who", "#C");
+        cache.invalidate(u2.getAttributeNode("who"));
+        changes = cache.diff(doc.getDocumentElement(),
+                same.getDocumentElement());
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0).getAfter() == u2);
+    }
+
+    @Test
+    void testRecordIndex(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("corpus.xml");
+        String head = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE TEI [<!ENTITY who \"Welt\">]>\n"
+                + "<TEI xmlns=\"" + TEI_NS + "\"><text>"
+                + "<!-- <u>no</u> --><body xmlns:x=\"urn:x\">"
+                + "<u x:n=\"1\">Hallo &who;</u>\n<?pi <u>?>"
+                + "<u><![CDATA[<u>]]></u><u/>"
+                + "<u n='>'>Tsch\u00FCss <seg><u>nested</u></seg>";
+        Files.writeString(file, head);
+        RecordIndex index = RecordIndex.open(file, "u");
+        // the last record is not complete yet
+        assertEquals(3, index.size());
+        assertTrue(Files.exists(RecordIndex.sidecar(file, "u")));
+        Element u = index.parseRecord(0);
+        assertEquals(TEI_NS, u.getNamespaceURI());
+        assertEquals("1", u.getAttributeNS("urn:x", "n"));
+        assertEquals("Hallo Welt", u.getTextContent());
+        assertEquals("<u>", index.parseRecord(1).getTextContent());
+
+        Files.writeString(file, "</u></body><u>Ende</u></text></TEI>",
+                StandardOpenOption.APPEND);
+        assertTrue(index.isStale());
+        index = RecordIndex.open(file, "u");
+        assertEquals(5, index.size());
+        assertEquals("Tsch\u00FCss nested", index.parseRecord(3)
+                .getTextContent());
+        assertEquals("xmlns=\"" + TEI_NS + "\" xmlns:x=\"urn:x\"",
+                index.namespaces(3));
+        assertEquals("xmlns=\"" + TEI_NS + "\"", index.namespaces(4));
+        assertEquals(Files.size(file) - "<u>Ende</u></text></TEI>".length(),
+                index.start(4));
+
+        // the same as a full scan
+        RecordIndex full = RecordIndex.open(file, "u", null);
+        assertEquals(index.size(), full.size());
+        for (int i = 0; i < full.size(); i++) {
+            assertEquals(full.start(i), index.start(i));
+            assertEquals(full.end(i), index.end(i));
+        }
+        assertEquals(5, index.shards(1).size());
+        List<RecordIndex.Shard> shards = index.shards(1 << 20);
+        assertEquals(2, shards.size());
+        try (Stream<XMLBatch.Result<Document>> results =
+                     index.parseAll(1 << 20, 2, true)) {
+            List<Document> docs = results.map(XMLBatch.Result::getValue)
+                    .collect(Collectors.toList());
+            assertEquals(4, DOMTraversal.children(docs.get(0)
+                    .getDocumentElement()).count());
+            assertEquals("Ende", docs.get(1).getDocumentElement()
+                    .getTextContent());
+        }
+
+        // quotes and brackets in comments and PIs in the internal subset
+        Files.writeString(file, "<!DOCTYPE r [<!-- don't ] -->"
+                + "<?pi it's [?><!ENTITY e \"it's ]>\">]>"
+                + "<r><u>a</u><u>b &e;</u></r>");
+        assertEquals(2, RecordIndex.open(file, "u", null).size());
+        assertEquals("b it's ]>", RecordIndex.open(file, "u", null)
+                .parseRecord(1).getTextContent());
+    }
+
+    @Test
+    void testRecordIndexSidecar(@TempDir Path dir) throws Exception {
+        // a DOCTYPE longer than writeUTF allows, in UTF-8 and as raw bytes
+        StringBuilder subset = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            subset.append("<!ENTITY e").append(i).append(" \"\u00E4\u00F6\">");
+        }
+        Path file = dir.resolve("corpus.xml");
+        Files.writeString(file, "<!DOCTYPE r [" + subset + "]>"
+                + "<r><u>&e1;</u><u>&e4999;</u></r>");
+        assertEquals(2, RecordIndex.open(file, "u").size());
+        RecordIndex index = RecordIndex.open(file, "u");
+        assertEquals(2, index.size());
+        assertEquals("\u00E4\u00F6", index.parseRecord(1).getTextContent());
+
+        // a damaged sidecar is scanned again
+        Path sidecar = RecordIndex.sidecar(file, "u");
+        byte[] bytes = Files.readAllBytes(sidecar);
+        Files.write(sidecar, java.util.Arrays.copyOf(bytes, bytes.length / 2));
+        assertEquals(2, RecordIndex.open(file, "u").size());
+        bytes = Files.readAllBytes(sidecar);
+        java.util.Arrays.fill(bytes, 20, bytes.length, (byte) 0xFF);
+        Files.write(sidecar, bytes);
+        assertEquals(2, RecordIndex.open(file, "u").size());
+    }
+
+    @Test
+    void testFileIdIndex(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("corpus.xml");
+        Files.writeString(file, "<!DOCTYPE TEI [<!ENTITY who \"Welt\">]>"
+                + SAMPLE.replace("<u who=\"#B\"",
+                "<u xmlns:x=\"urn:x\" x:n=\"&amp;\" who=\"#B\"")
+                .replace("Welt", "&who;")
+                .replace("<w>Tsch", "<w xml:id=\"w1\">Tsch")
+                .replace("</body>", "<x:gap xmlns:x=\"urn:x\" xml:id="
+                        + "\"g&#x31;\"/></body>"));
+        FileIdIndex index = FileIdIndex.open(file, List.of("w"),
+                FileIdIndex.sidecar(file));
+        assertEquals(4, index.size());
+        assertTrue(index.contains("u1"));
+        assertTrue(!index.contains("w1"));
+        assertNull(index.parseDOM("w1"));
+        assertNull(index.find("nope"));
+        Element u = index.parseDOM("u1");
+        assertEquals(TEI_NS, u.getNamespaceURI());
+        assertEquals("Hallo Welt", u.getTextContent());
+        assertTrue(u.getOwnerDocument().getDocumentElement() == u);
+        org.jdom2.Element u2 = index.parseJDOM("u2");
+        assertEquals("Tschüss", u2.getValue());
+        assertEquals("&", u2.getAttributeValue("n",
+                org.jdom2.Namespace.getNamespace("urn:x")));
+        assertEquals("urn:x", index.parseDOM("g1").getNamespaceURI());
+        assertEquals(3, index.elements("w").size());
+        assertEquals("u", index.find("u1").getName());
+        assertTrue(index.elements("u").isEmpty());
+
+        // reused while the file is unchanged
+        long indexed = Files.getLastModifiedTime(FileIdIndex.sidecar(file))
+                .toMillis();
+        assertEquals(4, FileIdIndex.open(file).size());
+        assertEquals(indexed, Files.getLastModifiedTime(
+                FileIdIndex.sidecar(file)).toMillis());
+        Files.writeString(file, SAMPLE);
+        assertTrue(index.isStale());
+        assertThrows(IOException.class, () -> index.parseDOM("u1"));
+        assertEquals(3, FileIdIndex.open(file).size());
+    }
+
+    @Test
+    void testDocumentCache(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("speakers.xml");
+        Files.writeString(file, SAMPLE);
+        DocumentCache<Document> copies = DocumentCache.dom(1 << 20, true);
+        Document first = copies.get(file);
+        Document second = copies.get(dir.resolve(".").resolve("speakers.xml"));
+        assertTrue(first != second);
+        assertEquals(SAMPLE, XMLUtilities.documentToString(second, false,
+                false));
+        // shared DOMs are expanded, so reading them does not change them
+        assertTrue(!DocumentCache.dom(1 << 20, false).get(file).getClass()
+                .getName().contains("Deferred"));
+        assertEquals(1, copies.stats().getHits());
+        assertEquals(1, copies.stats().getMisses());
+
+        DocumentCache<CompactDocument> shared = DocumentCache.compact(1 << 20);
+        CompactDocument compact = shared.get(file);
+        assertTrue(compact == shared.get(file));
+        Files.writeString(file, SAMPLE.replace("Hallo", "Hello"));
+        Files.setLastModifiedTime(file, java.nio.file.attribute.FileTime
+                .fromMillis(System.currentTimeMillis() + 10_000));
+        CompactDocument changed = shared.get(file);
+        assertTrue(compact != changed);
+        assertTrue(changed.stringValue(CompactDocument.DOCUMENT)
+                .startsWith("Hello"));
+        assertEquals(compact.estimatedSize(), shared.stats().getBytes(),
+                compact.estimatedSize() / 10);
+
+        // concurrent requests share one parse
+        Path big = dir.resolve("big.xml");
+        StringBuilder xml = new StringBuilder("<r>");
+        for (int i = 0; i < 20000; i++) {
+            xml.append("<u n=\"").append(i).append("\">Hallo</u>");
+        }
+        Files.writeString(big, xml.append("</r>"));
+        DocumentCache<Document> cache = DocumentCache.dom(100 << 20, false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Document>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> cache.get(big)));
+            }
+            for (Future<Document> future : futures) {
+                assertTrue(future.get() == futures.get(0).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, cache.stats().getMisses());
+        assertEquals(7, cache.stats().getHits()
+                + cache.stats().getCoalesced());
+
+        // bounded by size: the small file evicts nothing, the big one does
+        DocumentCache<Document> small = DocumentCache.dom(
+                Files.size(big) * DocumentCache.TREE_BYTES_PER_FILE_BYTE, false);
+        small.get(file);
+        small.get(big);
+        assertEquals(1, small.stats().getEvictions());
+        assertEquals(1, small.stats().getEntries());
+        // a file grown too heavy to cache drops its old version
+        Files.writeString(big, xml.insert(3, "<u>Hallo</u>"));
+        small.get(big);
+        assertEquals(0, small.stats().getEntries());
+        assertEquals(0, small.stats().getBytes());
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        assertNull(Metrics.installed());
+        MetricsRecorder metrics = new MetricsRecorder().install();
+        try {
+            Document doc = XMLUtilities.parseXML(SAMPLE);
+            XMLUtilities.nodeToString(doc);
+            XPathCache.getDefault().evaluateString("string(.)", doc);
+            XPathCache.getDefault().evaluateString("string(.)", doc);
+            LangUtilities.isLanguage("de-DE");
+            assertEquals(1, metrics.count(Metrics.Operation.PARSE_DOM));
+            assertEquals(SAMPLE.length(),
+                    metrics.bytes(Metrics.Operation.PARSE_DOM));
+            assertEquals(1, metrics.count(Metrics.Operation.SERIALIZE));
+            assertEquals(2, metrics.count(Metrics.Operation.XPATH));
+            assertEquals(1, metrics.count(Metrics.Operation.LANGUAGE));
+            assertEquals(0, metrics.count(Metrics.Operation.PARSE_JDOM));
+            assertTrue(metrics.hitRatio(Metrics.Cache.XPATH) >= 0.5);
+            assertTrue(metrics.percentileMillis(Metrics.Operation.PARSE_DOM, 99)
+                    <= metrics.maxMillis(Metrics.Operation.PARSE_DOM));
+            assertTrue(metrics.getSummary().contains("parse-dom: 1 calls"));
+
+            metrics.register();
+            ObjectName name = new ObjectName(MetricsRecorder.OBJECT_NAME);
+            assertEquals(metrics.getSummary(), ManagementFactory
+                    .getPlatformMBeanServer().getAttribute(name, "Summary"));
+            metrics.unregister();
+
+            metrics.reset();
+            assertEquals(0, metrics.count(Metrics.Operation.PARSE_DOM));
+        } finally {
+            Metrics.install(null);
+        }
+        XMLUtilities.parseXML(SAMPLE);
+        assertEquals(0, metrics.count(Metrics.Operation.PARSE_DOM));
+    }
+}